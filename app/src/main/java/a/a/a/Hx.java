@@ -10,7 +10,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
-import mod.hey.studios.project.ProjectSettings;
 import mod.hilal.saif.components.ComponentExtraCode;
 import mod.pranav.viewbinding.ViewBindingBuilder;
 
@@ -34,8 +33,7 @@ public class Hx {
         this.jq = logicHolder;
         this.projectFileBean = projectFileBean;
 
-        ProjectSettings projectSettings = new ProjectSettings(logicHolder.sc_id);
-        isViewBindingEnabled = projectSettings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, "false").equals("true");
+        isViewBindingEnabled = logicHolder.getProjectConfig().isViewBindingEnabled();
 
         ArrayList<ViewBean> views = new ArrayList<>(eC.d(projectFileBean.getXmlName()));
         if (projectFileBean.hasActivityOption(ProjectFileBean.OPTION_ACTIVITY_FAB)) {
@@ -407,7 +407,7 @@ public class Ix {
     }
 
     public void setYq(yq yqVar) {
-        settings = new ProjectSettings(yqVar.sc_id);
+        settings = yqVar.N.getProjectConfig().getSettings();
         targetsSdkVersion31OrHigher = Integer.parseInt(settings.getValue(ProjectSettings.SETTING_TARGET_SDK_VERSION, String.valueOf(VAR_DEFAULT_TARGET_SDK_VERSION))) >= 31;
         packageName = yqVar.packageName;
     }
@@ -1,7 +1,5 @@
 package a.a.a;
 
-import static dev.aldi.sayuti.block.ExtraBlockFile.getExtraBlockData;
-
 import android.text.TextUtils;
 import android.util.Pair;
 
@@ -22,6 +20,7 @@ import mod.agus.jcoderz.beans.ViewBeans;
 import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
 import mod.agus.jcoderz.handle.component.ConstVarComponent;
 import mod.hey.studios.build.BuildSettings;
+import mod.hey.studios.project.ProjectConfig;
 import mod.hey.studios.project.ProjectSettings;
 import mod.hilal.saif.android_manifest.AndroidManifestInjector;
 import mod.hilal.saif.blocks.CommandBlock;
@@ -80,25 +79,25 @@ public class Jx {
      */
     private final ArrayList<String> filePickerRequestCodes = new ArrayList<>();
 
-    private final ArrayList<HashMap<String, Object>> extraBlocks;
+    private final Map<String, HashMap<String, Object>> extraBlocks;
     private Hx eventManager;
     private ArrayList<String> imports = new ArrayList<>();
     private String onCreateEventCode = "";
-    private Material3LibraryManager materialLibraryManager;
+    private final Material3LibraryManager materialLibraryManager;
 
     public Jx(jq jqVar, ProjectFileBean projectFileBean, eC eCVar) {
         packageName = jqVar.packageName;
         this.projectFileBean = projectFileBean;
         projectDataManager = eCVar;
         buildConfig = jqVar;
-        mll = new ManageLocalLibrary(eCVar.a);
-        settings = new ProjectSettings(eCVar.a);
+        ProjectConfig projectConfig = jqVar.getProjectConfig();
+        mll = projectConfig.getLocalLibraries();
+        settings = projectConfig.getSettings();
         permissionManager = new PermissionManager(eCVar.a, projectFileBean.getJavaName());
         ox = new Ox(buildConfig, projectFileBean);
-        extraBlocks = getExtraBlockData();
-        isViewBindingEnabled = settings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, BuildSettings.SETTING_GENERIC_VALUE_FALSE)
-                .equals(BuildSettings.SETTING_GENERIC_VALUE_TRUE);
-        materialLibraryManager = new Material3LibraryManager(projectDataManager.a);
+        extraBlocks = projectConfig.getExtraBlocks();
+        isViewBindingEnabled = projectConfig.isViewBindingEnabled();
+        materialLibraryManager = projectConfig.getMaterial3LibraryManager();
     }
 
     public String activityResult() {
@@ -170,6 +169,16 @@ public class Jx {
      * @return Generated Java code of the current View (not Widget)
      */
     public String generateCode(boolean isAndroidStudioExport, String sc_id) {
+        return generateCode(isAndroidStudioExport, sc_id, null);
+    }
+
+    /**
+     * @param xmlCommands List to add the XML command blocks used in this View's blocks to, or
+     *                    <code>null</code> to add them to the temporary commands file right away.
+     *                    Lets multiple Views be generated at the same time.
+     * @return Generated Java code of the current View (not Widget)
+     */
+    public String generateCode(boolean isAndroidStudioExport, String sc_id, ArrayList<HashMap<String, Object>> xmlCommands) {
         boolean isDialogFragment = projectFileBean.fileName.contains("_dialog_fragment");
         boolean isBottomDialogFragment = projectFileBean.fileName.contains("_bottomdialog_fragment");
         boolean isFragment = projectFileBean.fileName.contains("_fragment");
@@ -604,7 +613,7 @@ public class Jx {
             code = code.replaceAll("getFragmentManager", "getSupportFragmentManager");
         }
 
-        return CommandBlock.CB(Lx.j(code, false));
+        return CommandBlock.CB(Lx.j(code, false), xmlCommands);
     }
 
     private String getListDeclarationAndAddImports(int listType, String listName) {
@@ -970,12 +979,7 @@ public class Jx {
     }
 
     private Map<String, Object> getExtraBlockByName(String name) {
-        for (Map<String, Object> block : extraBlocks) {
-            if (block.containsKey("name") && block.get("name").toString().equals(name)) {
-                return block;
-            }
-        }
-        return null;
+        return extraBlocks.get(name);
     }
 
     /**
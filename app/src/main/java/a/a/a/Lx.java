@@ -4,7 +4,6 @@ import android.text.TextUtils;
 
 import com.besome.sketch.beans.ComponentBean;
 import com.besome.sketch.beans.ViewBean;
-import com.google.gson.Gson;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -15,12 +14,10 @@ import mod.agus.jcoderz.editor.event.ManageEvent;
 import mod.agus.jcoderz.handle.component.ConstVarComponent;
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.moreblock.ReturnMoreblockManager;
-import mod.hey.studios.util.Helper;
 import mod.hilal.saif.components.ComponentsHandler;
 import mod.jbk.build.BuiltInLibraries;
 import mod.jbk.editor.manage.library.ExcludeBuiltInLibrariesActivity;
 import mod.pranav.viewbinding.ViewBindingBuilder;
-import pro.sketchware.utility.FileUtil;
 
 public class Lx {
 
@@ -175,21 +172,11 @@ public class Lx {
             content.append("implementation 'com.google.firebase:firebase-messaging'");
         }
 
-        String sc_id = metadata.sc_id;
-        String local_lib_file = FileUtil.getExternalStorageDir() + "/.sketchware/data/" + sc_id + "/local_library";
-        String fileContent = FileUtil.readFile(local_lib_file);
-
-        if (!fileContent.isEmpty()) {
-            Gson gson = new Gson();
-            ArrayList<HashMap<String, Object>> localLibraries = gson.fromJson(fileContent, Helper.TYPE_MAP_LIST);
-            if (localLibraries != null) {
-                for (HashMap<String, Object> library : localLibraries) {
-                    String dependency = (String) library.get("dependency");
-                    if (dependency != null && !dependency.isEmpty()) {
-                        dependency = "implementation '" + dependency + "'";
-                        content.append(dependency).append("\r\n");
-                    }
-                }
+        for (HashMap<String, Object> library : metadata.getProjectConfig().getLocalLibraries().list) {
+            String dependency = (String) library.get("dependency");
+            if (dependency != null && !dependency.isEmpty()) {
+                dependency = "implementation '" + dependency + "'";
+                content.append(dependency).append("\r\n");
             }
         }
 
@@ -127,7 +127,7 @@ public class Ox {
                     rootLayout = coordinatorLayoutTag;
                 }
                 if (projectFile.hasActivityOption(ProjectFileBean.OPTION_ACTIVITY_TOOLBAR)) {
-                    Material3LibraryManager materialLibraryManager = new Material3LibraryManager(buildConfig.sc_id);
+                    Material3LibraryManager materialLibraryManager = buildConfig.getProjectConfig().getMaterial3LibraryManager();
 
                     XmlBuilder toolbarTag = new XmlBuilder(
                             (materialLibraryManager.isMaterial3Enabled()) ? "com.google.android.material.appbar.MaterialToolbar" : "androidx.appcompat.widget.Toolbar"
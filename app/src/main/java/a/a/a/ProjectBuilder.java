@@ -26,10 +26,13 @@ import com.github.megatronking.stringfog.plugin.StringFogMappingPrinter;
 import com.iyxan23.zipalignjava.InvalidZipException;
 import com.iyxan23.zipalignjava.ZipAlign;
 
+import org.eclipse.jdt.core.compiler.CharOperation;
+import org.eclipse.jdt.internal.compiler.ClassFile;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
 import org.xml.sax.SAXException;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -37,20 +40,24 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import mod.agus.jcoderz.dex.Dex;
-import mod.agus.jcoderz.dex.FieldId;
-import mod.agus.jcoderz.dex.MethodId;
-import mod.agus.jcoderz.dex.ProtoId;
 import mod.agus.jcoderz.dx.command.dexer.DxContext;
 import mod.agus.jcoderz.dx.command.dexer.Main;
 import mod.agus.jcoderz.dx.merge.CollisionPolicy;
@@ -59,12 +66,23 @@ import mod.agus.jcoderz.editor.library.ExtLibSelected;
 import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.compiler.kotlin.KotlinCompilerBridge;
+import mod.hey.studios.project.ProjectConfig;
 import mod.hey.studios.project.ProjectSettings;
 import mod.hey.studios.project.proguard.ProguardHandler;
+import mod.hey.studios.project.stringfog.StringfogHandler;
 import mod.hey.studios.util.SystemLogPrinter;
 import mod.jbk.build.BuildProgressReceiver;
+import mod.jbk.build.BuildTrace;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.FingerprintStore;
+import mod.jbk.build.compiler.apk.SignedApkWriter;
+import mod.jbk.build.compiler.dex.BuiltInLibraryDexCache;
 import mod.jbk.build.compiler.dex.DexCompiler;
+import mod.jbk.build.compiler.dex.DexMergePlanner;
+import mod.jbk.build.compiler.dex.DxPerClassDexer;
+import mod.jbk.build.compiler.dex.IncrementalDexer;
+import mod.jbk.build.compiler.java.IncrementalJavaCompilation;
+import mod.jbk.build.compiler.java.JavaCompilerService;
 import mod.jbk.build.compiler.resource.ResourceCompiler;
 import mod.jbk.util.LogUtil;
 import mod.jbk.util.TestkeySignBridge;
@@ -94,9 +112,15 @@ public class ProjectBuilder {
     public String androidJarPath;
     public ProguardHandler proguard;
     public ProjectSettings settings;
+    public final BuildTrace buildTrace = new BuildTrace();
     private BuildProgressReceiver progressReceiver;
     private boolean buildAppBundle = false;
     private ArrayList<File> dexesToAddButNotMerge = new ArrayList<>();
+    /**
+     * Names of built-in libraries whose DEX files end up in the APK, set by {@link #prepareBuiltInLibraryDexes()}
+     */
+    private volatile ArrayList<String> builtInLibraryNames;
+    private List<File> mergedBuiltInLibraryDexes;
 
     /**
      * Timestamp keeping track of when compiling the project's resources started, needed for stats of how long compiling took.
@@ -131,12 +155,14 @@ public class ProjectBuilder {
         this.context = context;
         yq = yqVar;
         fpu = new FilePathUtil();
-        mll = new ManageLocalLibrary(yqVar.sc_id);
+        /* Not yq.N's snapshot, which may be older than the generation run about to replace yq.N */
+        ProjectConfig projectConfig = ProjectConfig.get(yqVar.sc_id);
+        mll = projectConfig.getLocalLibraries();
         builtInLibraryManager = new BuiltInLibraryManager(yqVar.sc_id);
         File defaultAndroidJar = new File(BuiltInLibraries.EXTRACTED_COMPILE_ASSETS_PATH, "android.jar");
         androidJarPath = build_settings.getValue(BuildSettings.SETTING_ANDROID_JAR_PATH, defaultAndroidJar.getAbsolutePath());
         proguard = new ProguardHandler(yqVar.sc_id);
-        settings = new ProjectSettings(yqVar.sc_id);
+        settings = projectConfig.getSettings();
     }
 
     public ProjectBuilder(BuildProgressReceiver buildAsyncTask, Context context, yq yqVar) {
@@ -203,6 +229,19 @@ public class ProjectBuilder {
                 .map(File::new)
                 .collect(Collectors.toList());
 
+        /* The build directory is kept between builds, so remove bindings of layouts that don't exist anymore */
+        Set<String> bindingFilenames = layouts.stream()
+                .map(layout -> ViewBindingBuilder.generateFileNameForLayout(layout.getName().replace(".xml", "")) + ".java")
+                .collect(Collectors.toSet());
+        File[] existingBindings = outputDirectory.listFiles();
+        if (existingBindings != null) {
+            for (File existingBinding : existingBindings) {
+                if (!bindingFilenames.contains(existingBinding.getName())) {
+                    FileUtil.deleteFile(existingBinding.getAbsolutePath());
+                }
+            }
+        }
+
         ViewBindingBuilder builder = new ViewBindingBuilder(layouts, outputDirectory, yq.packageName);
 
         builder.generateBindings();
@@ -219,6 +258,22 @@ public class ProjectBuilder {
         return (isD8Enabled() ? "D8" : "Dx") + " is running...";
     }
 
+    /**
+     * @return Name of the tool shrinking the project's classes, or <code>null</code> if shrinking is disabled
+     */
+    public String getShrinkerName() {
+        if (!proguard.isShrinkingEnabled()) return null;
+        return proguard.isR8Enabled() ? "R8" : "ProGuard";
+    }
+
+    /**
+     * @return Name of the tool dexing the project's classes, which is R8 if it shrinks them
+     */
+    public String getDexerName() {
+        if (proguard.isShrinkingEnabled() && proguard.isR8Enabled()) return "R8";
+        return isD8Enabled() ? "D8" : "Dx";
+    }
+
     /**
      * Compile Java classes into DEX file(s)
      *
@@ -237,26 +292,49 @@ public class ProjectBuilder {
                 LogUtil.e(TAG, "D8 failed to process .class files", e);
                 throw e;
             }
-        } else {
+        } else if (proguard.isShrinkingEnabled()) {
             long savedTimeMillis = System.currentTimeMillis();
             List<String> args = Arrays.asList(
                     "--debug",
                     "--verbose",
                     "--multi-dex",
                     "--output=" + yq.binDirectoryPath + File.separator + "dex",
-                    proguard.isShrinkingEnabled() ? yq.proguardClassesPath : yq.compiledClassesPath
+                    yq.proguardClassesPath
             );
 
+            try (BuildTrace.Span ignored = buildTrace.begin("Dx dexing")) {
+                runDx(args);
+                LogUtil.d(TAG, "Dx took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Dx failed to process .class files", e);
+                throw e;
+            }
+        } else {
+            long savedTimeMillis = System.currentTimeMillis();
+            IncrementalDexer dexer = new IncrementalDexer(new File(yq.compiledClassesPath),
+                    new File(yq.binDirectoryPath, "dex_intermediates_dx"), "dx");
+
             try {
-                LogUtil.d(TAG, "Running Dx with these arguments: " + args);
+                /* Dex only new or changed classes into per-class intermediate DEX files, in one Dx session */
+                List<File> changedClasses = dexer.findChangedClasses();
+                try (BuildTrace.Span ignored = buildTrace.begin("Dx dexing")) {
+                    new DxPerClassDexer().dex(new File(yq.compiledClassesPath), changedClasses, dexer);
+                }
+                LogUtil.d(TAG, "Dexed " + changedClasses.size() + " new or changed classes with Dx");
 
-                Main.clearInternTables();
-                Main.Arguments arguments = new Main.Arguments();
-                Method parseMethod = Main.Arguments.class.getDeclaredMethod("parse", String[].class);
-                parseMethod.setAccessible(true);
-                parseMethod.invoke(arguments, (Object) args.toArray(new String[0]));
+                /* Then merge all intermediate DEX files */
+                File outputDirectory = new File(yq.binDirectoryPath, "dex");
+                for (String dexFile : FileUtil.listFiles(outputDirectory.getAbsolutePath(), "dex")) {
+                    FileUtil.deleteFile(dexFile);
+                }
+                List<File> intermediateDexFiles = dexer.getIntermediateDexFiles();
+                if (!intermediateDexFiles.isEmpty()) {
+                    try (BuildTrace.Span ignored = buildTrace.begin("Dx intermediate DEX merge")) {
+                        dexLibraries(outputDirectory, intermediateDexFiles);
+                    }
+                }
 
-                Main.run(arguments);
+                dexer.commit();
                 LogUtil.d(TAG, "Dx took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             } catch (Exception e) {
                 LogUtil.e(TAG, "Dx failed to process .class files", e);
@@ -265,6 +343,21 @@ public class ProjectBuilder {
         }
     }
 
+    private void runDx(List<String> args) throws Exception {
+        LogUtil.d(TAG, "Running Dx with these arguments: " + args);
+
+        Main.clearInternTables();
+        Main.Arguments arguments = new Main.Arguments();
+        Method parseMethod = Main.Arguments.class.getDeclaredMethod("parse", String[].class);
+        parseMethod.setAccessible(true);
+        parseMethod.invoke(arguments, (Object) args.toArray(new String[0]));
+
+        int result = Main.run(arguments);
+        if (result != 0) {
+            throw new zy("Dx failed with exit code " + result);
+        }
+    }
+
     public String getClasspath() {
         StringBuilder classpath = new StringBuilder();
 
@@ -366,129 +459,64 @@ public class ProjectBuilder {
      * @throws Exception Thrown if merging had problems
      */
     private Collection<File> dexLibraries(File outputDirectory, List<File> dexes) throws Exception {
-        int lastDexNumber = 1;
-        String nextMergedDexFilename;
-        Collection<File> resultDexFiles = new LinkedList<>();
-        LinkedList<Dex> dexObjects = new LinkedList<>();
-        Iterator<File> toMergeIterator = dexes.iterator();
-
-        List<FieldId> mergedDexFields;
-        List<MethodId> mergedDexMethods;
-        List<ProtoId> mergedDexProtos;
-        List<Integer> mergedDexTypes;
-
-        {
-            // Closable gets closed automatically
-            Dex firstDex = new Dex(new FileInputStream(toMergeIterator.next()));
-            dexObjects.add(firstDex);
-            mergedDexFields = new LinkedList<>(firstDex.fieldIds());
-            mergedDexMethods = new LinkedList<>(firstDex.methodIds());
-            mergedDexProtos = new LinkedList<>(firstDex.protoIds());
-            mergedDexTypes = new LinkedList<>(firstDex.typeIds());
-        }
-
-        while (toMergeIterator.hasNext()) {
-            File dexFile = toMergeIterator.next();
-            nextMergedDexFilename = lastDexNumber == 1 ? "classes.dex" : "classes" + lastDexNumber + ".dex";
-
-            // Closable gets closed automatically
-            Dex dex = new Dex(new FileInputStream(dexFile));
-
-            boolean canMerge = true;
-            List<FieldId> newDexFieldIds = new LinkedList<>();
-            List<MethodId> newDexMethodIds = new LinkedList<>();
-            List<ProtoId> newDexProtoIds = new LinkedList<>();
-            List<Integer> newDexTypeIds = new LinkedList<>();
-
-            bruh:
-            {
-                for (FieldId fieldId : dex.fieldIds()) {
-                    if (!mergedDexFields.contains(fieldId)) {
-                        if (mergedDexFields.size() + newDexFieldIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new field IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexFields.size() + " field IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexFieldIds.add(fieldId);
-                        }
-                    }
-                }
-
-                for (MethodId methodId : dex.methodIds()) {
-                    if (!newDexMethodIds.contains(methodId)) {
-                        if (mergedDexMethods.size() + newDexMethodIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new method IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexMethods.size() + " method IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexMethodIds.add(methodId);
-                        }
-                    }
-                }
+        return dexLibraries(outputDirectory, dexes, 1);
+    }
 
-                for (ProtoId protoId : dex.protoIds()) {
-                    if (!newDexProtoIds.contains(protoId)) {
-                        if (mergedDexProtos.size() + newDexProtoIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new proto IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexProtos.size() + " proto IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexProtoIds.add(protoId);
-                        }
-                    }
-                }
+    /**
+     * Dexes libraries.
+     *
+     * @param firstDexNumber Number of the first result DEX file, e.g. <code>2</code> to start at <code>classes2.dex</code>
+     * @return List of result DEX files which were merged or couldn't be merged with others.
+     * @throws Exception Thrown if merging had problems
+     */
+    private Collection<File> dexLibraries(File outputDirectory, List<File> dexes, int firstDexNumber) throws Exception {
+        long savedTimeMillis = System.currentTimeMillis();
+        List<DexMergePlanner.Group> groups = new DexMergePlanner().plan(dexes, firstDexNumber);
+        LogUtil.d(TAG, "Planning merge of " + dexes.size() + " DEX files into " + groups.size()
+                + " DEX files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
 
-                for (Integer typeId : dex.typeIds()) {
-                    if (!newDexTypeIds.contains(typeId)) {
-                        if (mergedDexTypes.size() + newDexProtoIds.size() + 1 > 0xffff) {
-                            LogUtil.d(TAG, "Can't merge DEX file to " + nextMergedDexFilename +
-                                    " because it has too many new type IDs. "
-                                    + nextMergedDexFilename + " will have " + mergedDexTypes.size() + " type IDs");
-                            canMerge = false;
-                            break bruh;
-                        } else {
-                            newDexTypeIds.add(typeId);
-                        }
-                    }
-                }
+        Collection<File> resultDexFiles = new LinkedList<>();
+        if (groups.size() <= 1) {
+            for (DexMergePlanner.Group group : groups) {
+                resultDexFiles.add(mergeDexGroup(outputDirectory, group));
             }
+            return resultDexFiles;
+        }
 
-            if (canMerge) {
-                LogUtil.d(TAG, "Merging DEX #" + dexes.indexOf(dexFile) + " as well to " + nextMergedDexFilename);
-                dexObjects.add(dex);
-                mergedDexFields.addAll(newDexFieldIds);
-                mergedDexMethods.addAll(newDexMethodIds);
-                mergedDexProtos.addAll(newDexProtoIds);
-                mergedDexTypes.addAll(newDexTypeIds);
-            } else {
-                File target = new File(outputDirectory, nextMergedDexFilename);
-                mergeDexes(target, dexObjects);
-                resultDexFiles.add(target);
-                dexObjects.clear();
-                dexObjects.add(dex);
+        /* Groups don't depend on each other, so merge them concurrently */
+        int threads = Math.min(groups.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService mergerPool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<File>> mergedDexFiles = new ArrayList<>(groups.size());
+            for (DexMergePlanner.Group group : groups) {
+                mergedDexFiles.add(mergerPool.submit(() -> mergeDexGroup(outputDirectory, group)));
+            }
 
-                mergedDexFields = new ArrayList<>(dex.fieldIds());
-                mergedDexMethods = new ArrayList<>(dex.methodIds());
-                mergedDexProtos = new ArrayList<>(dex.protoIds());
-                mergedDexTypes = new ArrayList<>(dex.typeIds());
-                lastDexNumber++;
+            /* Collect results in group order so the resulting list stays deterministic */
+            for (Future<File> mergedDexFile : mergedDexFiles) {
+                try {
+                    resultDexFiles.add(mergedDexFile.get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception exception ? exception : e;
+                }
             }
-        }
-        if (!dexObjects.isEmpty()) {
-            File file = new File(outputDirectory, lastDexNumber == 1 ? "classes.dex" : "classes" + lastDexNumber + ".dex");
-            mergeDexes(file, dexObjects);
-            resultDexFiles.add(file);
+        } finally {
+            mergerPool.shutdownNow();
         }
 
         return resultDexFiles;
     }
 
+    private File mergeDexGroup(File outputDirectory, DexMergePlanner.Group group) throws IOException {
+        long savedTimeMillis = System.currentTimeMillis();
+        File target = new File(outputDirectory, group.getDexFilename());
+        mergeDexes(target, group.getDexes());
+        LogUtil.d(TAG, "Merging " + group + " took " + (System.currentTimeMillis() - savedTimeMillis)
+                + " ms: " + group.getFiles());
+        return target;
+    }
+
     /**
      * Get package names of in-use libraries which have resources, separated by <code>:</code>.
      */
@@ -554,19 +582,21 @@ public class ProjectBuilder {
             args.add("-cp");
             args.add(getClasspath());
             args.add("-proc:none");
-            args.add(yq.javaFilesPath);
-            args.add(yq.rJavaDirectoryPath);
+
+            ArrayList<String> sourceDirectories = new ArrayList<>();
+            sourceDirectories.add(yq.javaFilesPath);
+            sourceDirectories.add(yq.rJavaDirectoryPath);
             String pathJava = fpu.getPathJava(yq.sc_id);
             if (FileUtil.isExistFile(pathJava)) {
-                args.add(pathJava);
+                sourceDirectories.add(pathJava);
             }
             String pathBroadcast = fpu.getPathBroadcast(yq.sc_id);
             if (FileUtil.isExistFile(pathBroadcast)) {
-                args.add(pathBroadcast);
+                sourceDirectories.add(pathBroadcast);
             }
             String pathService = fpu.getPathService(yq.sc_id);
             if (FileUtil.isExistFile(pathService)) {
-                args.add(pathService);
+                sourceDirectories.add(pathService);
             }
 
             /* Avoid "package ;" line in that file causing issues while compiling */
@@ -575,25 +605,139 @@ public class ProjectBuilder {
                 LogUtil.w(TAG, "Failed to delete file " + rJavaFileWithoutPackage.getAbsolutePath());
             }
 
+            IncrementalJavaCompilation compilation = new IncrementalJavaCompilation(
+                    new File(yq.binDirectoryPath, "java_build_state.json"),
+                    new File(yq.compiledClassesPath),
+                    getJavaCompilationConfiguration(args, sourceDirectories));
+
+            /* StringFog rewrites class files in place, so they can't be reused for the next build */
+            boolean incremental = !new StringfogHandler(yq.sc_id).isStringfogEnabled();
+            if (incremental) {
+                ArrayList<File> sourceFiles = new ArrayList<>();
+                for (String sourceDirectory : sourceDirectories) {
+                    sourceFiles.addAll(FileUtil.listFilesRecursively(new File(sourceDirectory), ".java"));
+                }
+
+                List<File> sourcesToCompile;
+                try (BuildTrace.Span ignored = buildTrace.begin("Java up-to-date check")) {
+                    sourcesToCompile = compilation.computeSourcesToCompile(sourceFiles);
+                }
+                if (sourcesToCompile.isEmpty()) {
+                    LogUtil.d(TAG, "Compiled Java classes are up-to-date, skipping compilation");
+                    return;
+                }
+                for (File sourceToCompile : sourcesToCompile) {
+                    args.add(sourceToCompile.getAbsolutePath());
+                }
+            } else {
+                compilation.invalidate();
+                args.addAll(sourceDirectories);
+            }
+
             /* Start compiling */
-            org.eclipse.jdt.internal.compiler.batch.Main main = new org.eclipse.jdt.internal.compiler.batch.Main(outWriter, errWriter, false, null, null);
+            JavaCompilerService compilerService = JavaCompilerService.getInstance();
+            List<FileSystem.Classpath> acquiredClasspath = new ArrayList<>();
+            org.eclipse.jdt.internal.compiler.batch.Main main = new org.eclipse.jdt.internal.compiler.batch.Main(outWriter, errWriter, false, null, null) {
+                @Override
+                protected ArrayList<FileSystem.Classpath> handleClasspath(ArrayList<String> classpaths, String customEncoding) {
+                    /* Reuse JARs indexed by previous builds */
+                    ArrayList<FileSystem.Classpath> classpath = compilerService.acquire(super.handleClasspath(classpaths, customEncoding));
+                    acquiredClasspath.addAll(classpath);
+                    return classpath;
+                }
+
+                @Override
+                public void outputClassFiles(CompilationResult unitResult) {
+                    super.outputClassFiles(unitResult);
+                    if (incremental && unitResult != null && !unitResult.hasErrors()) {
+                        recordCompiledSource(compilation, unitResult);
+                    }
+                }
+            };
             LogUtil.d(TAG, "Running Eclipse compiler with these arguments: " + args);
-            main.compile(args.toArray(new String[0]));
+            try (BuildTrace.Span ignored = buildTrace.begin("ECJ compilation")) {
+                main.compile(args.toArray(new String[0]));
+            } finally {
+                compilerService.release(acquiredClasspath);
+            }
 
             LogUtil.d(TAG, "System.out of Eclipse compiler: " + outOutputStream.getOut());
             if (main.globalErrorsCount <= 0) {
+                if (incremental) compilation.commit();
                 LogUtil.d(TAG, "System.err of Eclipse compiler: " + errOutputStream.getOut());
                 LogUtil.d(TAG, "Compiling Java files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
             } else {
+                if (incremental) compilation.discard();
                 LogUtil.e(TAG, "Failed to compile Java files");
                 throw new zy(errOutputStream.getOut());
             }
         }
     }
 
+    /**
+     * @return Everything other than Java sources themselves that affects compiled classes: ECJ's
+     * options, classpath entries' timestamps and Kotlin sources (kotlinc outputs to the same directory).
+     * The build's own output directory is left out of the classpath, as it only gets added once it
+     * exists, which would make the second build compile everything again.
+     */
+    private String getJavaCompilationConfiguration(List<String> args, List<String> sourceDirectories) throws IOException {
+        File compiledClassesDirectory = new File(yq.compiledClassesPath);
+        List<String> classpathEntries = new ArrayList<>();
+        for (String classpathEntry : getClasspath().split(":")) {
+            if (!classpathEntry.isEmpty() && !new File(classpathEntry).equals(compiledClassesDirectory)) {
+                classpathEntries.add(classpathEntry);
+            }
+        }
+
+        List<String> options = new ArrayList<>(args);
+        int classpathIndex = options.indexOf("-cp");
+        if (classpathIndex != -1 && classpathIndex + 1 < options.size()) {
+            options.set(classpathIndex + 1, TextUtils.join(":", classpathEntries));
+        }
+
+        StringBuilder configuration = new StringBuilder(TextUtils.join(" ", options));
+        for (String classpathEntry : classpathEntries) {
+            File file = new File(classpathEntry);
+            if (file.isFile()) {
+                configuration.append('\n').append(classpathEntry).append(':')
+                        .append(file.length()).append(':').append(file.lastModified());
+            }
+        }
+        for (String sourceDirectory : sourceDirectories) {
+            for (File kotlinFile : FileUtil.listFilesRecursively(new File(sourceDirectory), ".kt")) {
+                configuration.append('\n').append(kotlinFile.getAbsolutePath()).append(':')
+                        .append(FingerprintStore.hashFile(kotlinFile));
+            }
+        }
+        return configuration.toString();
+    }
+
+    private static void recordCompiledSource(IncrementalJavaCompilation compilation, CompilationResult unitResult) {
+        ArrayList<String> classFileNames = new ArrayList<>();
+        for (ClassFile classFile : unitResult.getClassFiles()) {
+            classFileNames.add(new String(classFile.fileName()));
+        }
+
+        HashSet<String> qualifiedReferences = new HashSet<>();
+        if (unitResult.qualifiedReferences != null) {
+            for (char[][] qualifiedReference : unitResult.qualifiedReferences) {
+                qualifiedReferences.add(new String(CharOperation.concatWith(qualifiedReference, '.')));
+            }
+        }
+        HashSet<String> simpleReferences = new HashSet<>();
+        if (unitResult.simpleNameReferences != null) {
+            for (char[] simpleReference : unitResult.simpleNameReferences) {
+                simpleReferences.add(new String(simpleReference));
+            }
+        }
+
+        compilation.recordCompiledSource(new String(unitResult.getFileName()), classFileNames,
+                qualifiedReferences, simpleReferences);
+    }
+
     public void buildApk() throws By {
         String firstDexPath = dexesToAddButNotMerge.isEmpty() ? yq.classesDexPath : dexesToAddButNotMerge.remove(0).getAbsolutePath();
-        try {
+        try (BuildTrace.Span ignored = buildTrace.begin("APK packaging")) {
             ApkBuilder apkBuilder = new ApkBuilder(new File(yq.unsignedUnalignedApkPath), new File(yq.resourcesApkPath), new File(firstDexPath), null, null, System.out);
 
             for (Jp library : builtInLibraryManager.getLibraries()) {
@@ -658,24 +802,12 @@ public class ProjectBuilder {
      * @throws Exception Thrown if merging failed
      */
     public void getDexFilesReady() throws Exception {
-        long savedTimeMillis = System.currentTimeMillis();
-        ArrayList<File> dexes = new ArrayList<>();
-
-        /* Add AndroidX MultiDex library if needed */
-        if (settings.getMinSdkVersion() < 21) {
-            dexes.add(BuiltInLibraries.getLibraryDexFile(BuiltInLibraries.ANDROIDX_MULTIDEX));
+        if (builtInLibraryNames == null) {
+            prepareBuiltInLibraryDexes();
         }
 
-        /* Add HTTP legacy files if wanted */
-        if (!build_settings.getValue(BuildSettings.SETTING_NO_HTTP_LEGACY, ProjectSettings.SETTING_GENERIC_VALUE_FALSE)
-                .equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE)) {
-            dexes.add(BuiltInLibraries.getLibraryDexFile(BuiltInLibraries.HTTP_LEGACY_ANDROID));
-        }
-
-        /* Add used built-in libraries' DEX files */
-        for (Jp builtInLibrary : builtInLibraryManager.getLibraries()) {
-            dexes.add(BuiltInLibraries.getLibraryDexFile(builtInLibrary.getName()));
-        }
+        long savedTimeMillis = System.currentTimeMillis();
+        ArrayList<File> dexes = new ArrayList<>();
 
         /* Add local libraries' main DEX files */
         ArrayList<HashMap<String, Object>> list = mll.list;
@@ -715,21 +847,94 @@ public class ProjectBuilder {
             }
         }
 
+        ArrayList<File> projectDexes = new ArrayList<>();
         for (String file : FileUtil.listFiles(yq.binDirectoryPath + File.separator + "dex", "dex")) {
-            dexes.add(new File(file));
+            projectDexes.add(new File(file));
         }
 
-        LogUtil.d(TAG, "Will merge these " + dexes.size() + " DEX files to classes.dex: " + dexes);
+        if (isMergingDexes()) {
+            /* With legacy multidex, the project's code and the MultiDex library have to be in the
+               primary classes.dex, so they get merged first and cached built-in libraries follow */
+            ArrayList<File> primaryDexes = new ArrayList<>();
+            if (settings.getMinSdkVersion() < 21) {
+                primaryDexes.add(BuiltInLibraries.getLibraryDexFile(BuiltInLibraries.ANDROIDX_MULTIDEX));
+            }
+            primaryDexes.addAll(projectDexes);
+            primaryDexes.addAll(dexes);
+
+            LogUtil.d(TAG, "Will merge these " + primaryDexes.size() + " DEX files in front of "
+                    + mergedBuiltInLibraryDexes.size() + " merged built-in library DEX files: " + primaryDexes);
+            int mergedDexCount;
+            try (BuildTrace.Span ignored = buildTrace.begin("Project DEX merge")) {
+                mergedDexCount = dexLibraries(new File(yq.binDirectoryPath), primaryDexes).size();
+            }
 
-        if (settings.getMinSdkVersion() < 21 || !yq.N.isDebugBuild) {
-            dexLibraries(new File(yq.binDirectoryPath), dexes);
+            List<File> libraryDexes = mergedBuiltInLibraryDexes;
+            for (int i = 0; i < libraryDexes.size(); i++) {
+                int dexNumber = mergedDexCount + i + 1;
+                File target = new File(yq.binDirectoryPath, dexNumber == 1 ? "classes.dex" : "classes" + dexNumber + ".dex");
+                Files.copy(libraryDexes.get(i).toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
             LogUtil.d(TAG, "Merging DEX files took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
         } else {
-            dexesToAddButNotMerge = dexes;
+            dexes.addAll(projectDexes);
+            ArrayList<File> allDexes = new ArrayList<>();
+            for (String builtInLibraryName : builtInLibraryNames) {
+                allDexes.add(BuiltInLibraries.getLibraryDexFile(builtInLibraryName));
+            }
+            allDexes.addAll(dexes);
+            dexesToAddButNotMerge = allDexes;
             LogUtil.d(TAG, "Skipped merging DEX files due to debug build with minSdkVersion >= 21");
         }
     }
 
+    /**
+     * Determines which built-in libraries' DEX files end up in the APK, and merges them if
+     * {@link #getDexFilesReady()} is going to merge DEX files.
+     * <p>
+     * Doesn't depend on the project's compiled code, only on {@link #buildBuiltInLibraryInformation()}
+     * and extracted built-in libraries, so it can run while the project gets compiled. Gets called by
+     * {@link #getDexFilesReady()} if it hasn't been called before.
+     *
+     * @throws Exception Thrown if merging failed
+     */
+    public void prepareBuiltInLibraryDexes() throws Exception {
+        ArrayList<String> libraryNames = new ArrayList<>();
+
+        /* Add AndroidX MultiDex library if needed */
+        if (settings.getMinSdkVersion() < 21) {
+            libraryNames.add(BuiltInLibraries.ANDROIDX_MULTIDEX);
+        }
+
+        /* Add HTTP legacy files if wanted */
+        if (!build_settings.getValue(BuildSettings.SETTING_NO_HTTP_LEGACY, ProjectSettings.SETTING_GENERIC_VALUE_FALSE)
+                .equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE)) {
+            libraryNames.add(BuiltInLibraries.HTTP_LEGACY_ANDROID);
+        }
+
+        /* Add used built-in libraries' DEX files */
+        for (Jp builtInLibrary : builtInLibraryManager.getLibraries()) {
+            libraryNames.add(builtInLibrary.getName());
+        }
+
+        /* Built-in libraries rarely change, so they get merged only once and cached. The MultiDex
+           library gets merged into the primary classes.dex by getDexFilesReady() instead. */
+        List<File> libraryDexes = new ArrayList<>();
+        List<String> cachedLibraryNames = new ArrayList<>(libraryNames);
+        cachedLibraryNames.remove(BuiltInLibraries.ANDROIDX_MULTIDEX);
+        if (isMergingDexes() && !cachedLibraryNames.isEmpty()) {
+            libraryDexes = new BuiltInLibraryDexCache(new File(context.getCacheDir(), "merged-built-in-dexes"))
+                    .getMergedDexFiles(cachedLibraryNames, this::dexLibraries);
+        }
+
+        mergedBuiltInLibraryDexes = libraryDexes;
+        builtInLibraryNames = libraryNames;
+    }
+
+    private boolean isMergingDexes() {
+        return settings.getMinSdkVersion() < 21 || !yq.N.isDebugBuild;
+    }
+
     /**
      * Extracts AAPT2 binaries (if they need to be extracted).
      *
@@ -803,15 +1008,82 @@ public class ProjectBuilder {
         return builtInLibraryManager;
     }
 
+    /**
+     * Builds the APK and signs it with testkey in a single pass, instead of going through
+     * {@link #buildApk()}, {@link #runZipalign(String, String)} and {@link #signDebugApk()}, which
+     * write and read the whole APK once more each.
+     *
+     * @param outputPath Where to write the signed APK to, e.g. {@link yq#finalToInstallApkPath}
+     * @return <code>false</code> if the APK contains something that can't be written in a single
+     * pass, in which case the APK needs to be built and signed separately
+     */
+    public boolean buildSignedApk(String outputPath) {
+        long savedTimeMillis = System.currentTimeMillis();
+        File output = new File(outputPath);
+        try (BuildTrace.Span ignored = buildTrace.begin("Single-pass APK writing");
+             SignedApkWriter writer = SignedApkWriter.withTestkey(output, settings.getMinSdkVersion())) {
+            writer.addResourcesApk(new File(yq.resourcesApkPath));
+
+            if (dexesToAddButNotMerge.isEmpty()) {
+                writer.addFile(new File(yq.classesDexPath), "classes.dex");
+            } else {
+                writer.addFile(dexesToAddButNotMerge.get(0), "classes.dex");
+            }
+
+            for (Jp library : builtInLibraryManager.getLibraries()) {
+                writer.addResourcesFromJar(BuiltInLibraries.getLibraryClassesJarPath(library.getName()));
+            }
+
+            for (String jarPath : mll.getJarLocalLibrary().split(":")) {
+                if (!jarPath.trim().isEmpty()) {
+                    writer.addResourcesFromJar(new File(jarPath));
+                }
+            }
+
+            /* Add project's and Local libraries' native libraries */
+            writer.addNativeLibraries(new File(fpu.getPathNativelibs(yq.sc_id)));
+            for (String nativeLibraryDirectory : mll.getNativeLibs()) {
+                writer.addNativeLibraries(new File(nativeLibraryDirectory));
+            }
+
+            if (dexesToAddButNotMerge.isEmpty()) {
+                for (String dexFile : FileUtil.listFiles(yq.binDirectoryPath, "dex")) {
+                    String filename = new File(dexFile).getName();
+                    if (!filename.equals("classes.dex")) {
+                        writer.addFile(new File(dexFile), filename);
+                    }
+                }
+            } else {
+                for (int i = 1; i < dexesToAddButNotMerge.size(); i++) {
+                    writer.addFile(dexesToAddButNotMerge.get(i), "classes" + (i + 1) + ".dex");
+                }
+            }
+
+            writer.finish();
+        } catch (Exception e) {
+            LogUtil.w(TAG, "Couldn't build signed APK in a single pass, building and signing it separately", e);
+            FileUtil.deleteFile(output.getAbsolutePath());
+            return false;
+        }
+        LogUtil.d(TAG, "Building signed APK took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+        return true;
+    }
+
     /**
      * Sign the debug APK file with testkey.
      * <p>
      * This method uses apksigner, but kellinwood's zipsigner as fallback.
      */
     public void signDebugApk() throws GeneralSecurityException, IOException, ClassNotFoundException, IllegalAccessException, InstantiationException {
-        TestkeySignBridge.signWithTestkey(yq.unsignedUnalignedApkPath, yq.finalToInstallApkPath);
+        try (BuildTrace.Span ignored = buildTrace.begin("Testkey signing")) {
+            TestkeySignBridge.signWithTestkey(yq.unsignedUnalignedApkPath, yq.finalToInstallApkPath);
+        }
     }
 
+    /**
+     * Merges {@code dexes} into {@code target}. Every call uses its own {@link DxContext}, so this
+     * is safe to call for different groups concurrently.
+     */
     private void mergeDexes(File target, List<Dex> dexes) throws IOException {
         DexMerger merger = new DexMerger(dexes.toArray(new Dex[0]), CollisionPolicy.KEEP_FIRST, new DxContext());
         merger.merge().writeTo(target);
@@ -995,7 +1267,8 @@ public class ProjectBuilder {
         LogUtil.d(TAG, "About to zipalign " + inPath + " to " + outPath);
         long savedTimeMillis = System.currentTimeMillis();
 
-        try (RandomAccessFile in = new RandomAccessFile(inPath, "r");
+        try (BuildTrace.Span ignored = buildTrace.begin("Zipalign");
+             RandomAccessFile in = new RandomAccessFile(inPath, "r");
              FileOutputStream out = new FileOutputStream(outPath)) {
             ZipAlign.alignZip(in, out);
         } catch (IOException e) {
@@ -1,5 +1,7 @@
 package a.a.a;
 
+import mod.jbk.editor.usage.IndexedProjectDataManager;
+
 public class jC {
 
     public static eC a;
@@ -106,7 +108,7 @@ public class jC {
             b();
         }
         if (a == null) {
-            a = new eC(str);
+            a = new IndexedProjectDataManager(str);
             if (!z) {
                 a.g();
                 a.e();
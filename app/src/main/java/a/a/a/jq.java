@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import mod.agus.jcoderz.handle.component.ConstVarComponent;
+import mod.hey.studios.project.ProjectConfig;
 
 public class jq {
 
@@ -229,6 +230,22 @@ public class jq {
     public HashMap<String, a> w = new HashMap<>();
     public ConstVarComponent x = new ConstVarComponent();
 
+    /**
+     * The project's configuration, taken once per code generation run. Transient, as the
+     * configuration file is part of the shared source inputs already.
+     */
+    private transient ProjectConfig projectConfig;
+
+    /**
+     * @return A snapshot of the project's configuration, taken the first time it's needed
+     */
+    public synchronized ProjectConfig getProjectConfig() {
+        if (projectConfig == null) {
+            projectConfig = ProjectConfig.get(sc_id);
+        }
+        return projectConfig;
+    }
+
     public boolean hasPermissions() {
         return q == 0;
     }
@@ -263,7 +280,7 @@ public class jq {
     /**
      * Registers a permission for an Activity.
      */
-    public void addPermission(String activityName, int permission) {
+    public synchronized void addPermission(String activityName, int permission) {
         if (!w.containsKey(activityName)) {
             w.put(activityName, new a());
         }
@@ -272,9 +289,10 @@ public class jq {
     }
 
     /**
-     * @return The permissions object for the Activity
+     * @return The permissions object for the Activity. Synchronized, as Activities get generated
+     * concurrently.
      */
-    public a a(String activityName) {
+    public synchronized a a(String activityName) {
         if (!w.containsKey(activityName)) {
             w.put(activityName, new a());
         }
@@ -8,31 +8,16 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 
+import mod.hey.studios.project.ProjectMetadataIndex;
+
 public class lC {
     public static DB a;
 
+    /**
+     * @return Metadata of all projects, served from {@link ProjectMetadataIndex}
+     */
     public static ArrayList<HashMap<String, Object>> a() {
-        String str = "project";
-        ArrayList<HashMap<String, Object>> arrayList = new ArrayList<>();
-        oB oBVar = new oB();
-        File[] listFiles = new File(wq.n()).listFiles();
-        if (listFiles == null) {
-            return arrayList;
-        }
-        for (File file : listFiles) {
-            try {
-                if (new File(file, str).exists()) {
-                    String path = file.getAbsolutePath() + File.separator + str;
-                    HashMap<String, Object> a = vB.a(oBVar.a(oBVar.h(path)));
-                    if (yB.c(a, "sc_id").equals(file.getName())) {
-                        arrayList.add(a);
-                    }
-                }
-            } catch (Throwable e) {
-                Log.e("ERROR", e.getMessage(), e);
-            }
-        }
-        return arrayList;
+        return ProjectMetadataIndex.getAll();
     }
 
     public static HashMap<String, Object> a(String str) {
@@ -97,17 +82,18 @@ public class lC {
         }
     }
 
-    public static void a(String str, HashMap<String, Object> hashMap) {
+    public static void a(String sc_id, HashMap<String, Object> hashMap) {
         File file = new File(wq.n());
         if (!file.exists()) {
             file.mkdirs();
         }
-        str = wq.c(str);
+        String str = wq.c(sc_id);
         str = str + File.separator + "project";
         String a = vB.a(hashMap);
         oB oBVar = new oB();
         try {
             oBVar.a(str, oBVar.d(a));
+            ProjectMetadataIndex.update(sc_id, a);
         } catch (Throwable e) {
             Log.e("ERROR", e.getMessage(), e);
         }
@@ -121,30 +107,11 @@ public class lC {
         return String.valueOf(parseInt);
     }
 
+    /**
+     * @return A project's metadata, served from {@link ProjectMetadataIndex}
+     */
     public static HashMap<String, Object> b(String str) {
-        Throwable e;
-        oB oBVar = new oB();
-        HashMap<String, Object> hashMap = null;
-        try {
-            String c = wq.c(str);
-            if (!new File(c).exists()) {
-                return null;
-            }
-            String path = c + File.separator + "project";
-            HashMap<String, Object> a = vB.a(oBVar.a(oBVar.h(path)));
-            try {
-                return !yB.c(a, "sc_id").equals(str) ? null : a;
-            } catch (Exception e2) {
-                e = e2;
-                hashMap = a;
-                Log.e("ERROR", e.getMessage(), e);
-                return hashMap;
-            }
-        } catch (Exception e3) {
-            e = e3;
-            Log.e("ERROR", e.getMessage(), e);
-            return hashMap;
-        }
+        return ProjectMetadataIndex.get(str);
     }
 
     public static void b(String str, HashMap<String, Object> hashMap) {
@@ -172,7 +139,9 @@ public class lC {
                     a.put("color_primary_dark", hashMap.get("color_primary_dark"));
                     a.put("color_control_highlight", hashMap.get("color_control_highlight"));
                     a.put("color_control_normal", hashMap.get("color_control_normal"));
-                    fileUtil.a(path, fileUtil.d(vB.a(a)));
+                    String json = vB.a(a);
+                    fileUtil.a(path, fileUtil.d(json));
+                    ProjectMetadataIndex.update(str, json);
                 }
             } catch (Throwable e) {
                 Log.e("DEBUG", e.getMessage(), e);
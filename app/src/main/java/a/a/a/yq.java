@@ -5,6 +5,7 @@ import static com.besome.sketch.Config.VAR_DEFAULT_TARGET_SDK_VERSION;
 import static mod.hey.studios.util.ProjectFile.getDefaultColor;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.util.Log;
 import android.util.Pair;
 
@@ -15,6 +16,8 @@ import com.besome.sketch.beans.ProjectLibraryBean;
 import com.besome.sketch.beans.SrcCodeBean;
 import com.besome.sketch.beans.ViewBean;
 import com.besome.sketch.editor.manage.library.material3.Material3LibraryManager;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -22,12 +25,19 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.project.ProjectSettings;
+import mod.hey.studios.util.Helper;
 import mod.hey.studios.util.ProjectFile;
+import mod.hilal.saif.android_manifest.AndroidManifestInjector;
 import mod.hilal.saif.blocks.CommandBlock;
+import mod.jbk.build.FingerprintStore;
+import mod.jbk.build.IncrementalSourceGeneration;
 import mod.pranav.viewbinding.ViewBindingBuilder;
 import pro.sketchware.SketchApplication;
 import pro.sketchware.util.library.BuiltInLibraryManager;
@@ -46,6 +56,16 @@ public class yq {
      */
     private static final String FIREBASE_DATABASE_STORAGE_LOCATION_MATCHER = "(-default-rtdb)?\\.[a-z](.?)+";
     private static final Pattern PACKAGE_PLACEHOLDER_PATTERN = Pattern.compile("<\\?package_name\\?>");
+    /**
+     * Directory in {@link #binDirectoryPath} holding incremental source generation state. Kept out of
+     * the project's sources, so exporting them doesn't include it.
+     */
+    private static final String SOURCE_GENERATION_DIRECTORY = "source-generation";
+    /**
+     * Directory in {@link #SOURCE_GENERATION_DIRECTORY} holding XML command blocks of generated Activities,
+     * so that reused Activities' command blocks still get applied to layouts.
+     */
+    private static final String ACTIVITY_XML_COMMANDS_DIRECTORY = "xml-commands";
 
     /**
      * Example content: /storage/emulated/0/.sketchware/mysc/605/app/src/main/assets
@@ -195,6 +215,11 @@ public class yq {
     public jq N;
     public boolean generateDataBindingClasses;
     public boolean isAndroidStudioExport;
+    /**
+     * Tracks inputs of generated files while {@link #b(hC, eC, iC, BuiltInLibraryManager)} runs,
+     * <code>null</code> otherwise (e.g. when only viewing source code).
+     */
+    private IncrementalSourceGeneration sourceGeneration;
 
     public enum ExportType {
         AAB,
@@ -213,8 +238,8 @@ public class yq {
         this.metadata = metadata;
         N = new jq();
         sc_id = yB.c(metadata, "sc_id");
-        material3LibraryManager = new Material3LibraryManager(sc_id);
         N.sc_id = sc_id;
+        material3LibraryManager = N.getProjectConfig().getMaterial3LibraryManager();
         projectMyscPath = myscFolderPath.endsWith(File.separator) ? myscFolderPath : myscFolderPath + File.separator;
         packageName = yB.c(metadata, "my_sc_pkg_name");
         projectName = yB.c(metadata, "my_ws_name");
@@ -228,7 +253,7 @@ public class yq {
         colorControlHighlight = yB.a(metadata, ProjectFile.COLOR_CONTROL_HIGHLIGHT, getDefaultColor(ProjectFile.COLOR_CONTROL_HIGHLIGHT));
         colorControlNormal = yB.a(metadata, ProjectFile.COLOR_CONTROL_NORMAL, getDefaultColor(ProjectFile.COLOR_CONTROL_NORMAL));
 
-        projectSettings = new ProjectSettings(sc_id);
+        projectSettings = N.getProjectConfig().getSettings();
         fileUtil = new oB(true);
         packageNameAsFolders = packageName.replaceAll("\\.", File.separator);
         binDirectoryPath = projectMyscPath + "bin";
@@ -306,12 +331,12 @@ public class yq {
      * Generates top-level build.gradle, build.gradle for module ':app' and settings.gradle files.
      */
     public void h() {
-        fileUtil.b(projectMyscPath + File.separator + "app" + File.separator + "build.gradle",
+        writeIfChanged(projectMyscPath + File.separator + "app" + File.separator + "build.gradle",
                 Lx.getBuildGradleString(VAR_DEFAULT_TARGET_SDK_VERSION, VAR_DEFAULT_MIN_SDK_VERSION, projectSettings.getValue(ProjectSettings.SETTING_TARGET_SDK_VERSION, String.valueOf(VAR_DEFAULT_TARGET_SDK_VERSION)), N, projectSettings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE).equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE)));
-        fileUtil.b(projectMyscPath + File.separator + "settings.gradle", Lx.a());
-        fileUtil.b(projectMyscPath + File.separator + "build.gradle", Lx.c("8.12.0", "4.4.3"));
+        writeIfChanged(projectMyscPath + File.separator + "settings.gradle", Lx.a());
+        writeIfChanged(projectMyscPath + File.separator + "build.gradle", Lx.c("8.12.0", "4.4.3"));
 
-        fileUtil.b(projectMyscPath + File.separator + "gradle.properties", """
+        writeIfChanged(projectMyscPath + File.separator + "gradle.properties", """
                 android.enableR8.fullMode=false
                 android.enableJetifier=true
                 android.useAndroidX=true
@@ -358,7 +383,7 @@ public class yq {
 
     public void cf(String content) {
         try {
-            fileUtil.b(resDirectoryPath + File.separator + "mipmap-anydpi-v26" + File.separator + "ic_launcher.xml", content);
+            writeIfChanged(resDirectoryPath + File.separator + "mipmap-anydpi-v26" + File.separator + "ic_launcher.xml", content);
         } catch (Exception e2) {
             e2.printStackTrace();
         }
@@ -381,10 +406,10 @@ public class yq {
                     "debug" + File.separator + "DebugActivity.java"
             );
             debugActivityContent = PACKAGE_PLACEHOLDER_PATTERN.matcher(debugActivityContent).replaceAll(packageName);
-            fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "DebugActivity.java", debugActivityContent);
+            writeIfChanged(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "DebugActivity.java", debugActivityContent);
         }
 
-        String customApplicationClassName = new ProjectSettings(sc_id).getValue(
+        String customApplicationClassName = N.getProjectConfig().getSettings().getValue(
                 ProjectSettings.SETTING_APPLICATION_CLASS, ".SketchApplication");
         boolean notUsingCustomApplicationClass = customApplicationClassName.equals(".SketchApplication");
 
@@ -422,7 +447,7 @@ public class yq {
                                         "                    Process.killProcess(Process.myPid());"
                         );
             }
-            if (new Material3LibraryManager(sc_id).isDynamicColorsEnabled()) {
+            if (N.getProjectConfig().getMaterial3LibraryManager().isDynamicColorsEnabled()) {
                 sketchApplicationFileContent = sketchApplicationFileContent.replace(
                                 "mApplicationContext = getApplicationContext();",
                                 "mApplicationContext = getApplicationContext();\n        DynamicColors.applyToActivitiesIfAvailable(this);")
@@ -442,7 +467,7 @@ public class yq {
                         "import android.util.Log;", imports);
             }
 
-            fileUtil.b(javaFilesPath + File.separator
+            writeIfChanged(javaFilesPath + File.separator
                     + customClassPackageAsFolders + File.separator
                     + customClassSimpleName + ".java", sketchApplicationFileContent);
         }
@@ -461,7 +486,7 @@ public class yq {
 
                 sketchLoggerFileContent = sketchLoggerFileContent.replace("<?class_name?>", customClassSimpleName);
 
-                fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "SketchLogger.java",
+                writeIfChanged(javaFilesPath + File.separator + packageNameAsFolders + File.separator + "SketchLogger.java",
                         sketchLoggerFileContent);
             }
         }
@@ -474,17 +499,40 @@ public class yq {
      * </pre>, while AndroidManifest.xml gets saved to {@link yq#androidManifestPath}.
      */
     public void a(String fileName, String fileContent) {
+        writeIfChanged(getGeneratedFilePath(fileName), fileContent);
+    }
+
+    /**
+     * @return The path {@link #a(String, String)} writes the project file {@code fileName} to.
+     */
+    private String getGeneratedFilePath(String fileName) {
         if (fileName.endsWith("java")) {
-            fileUtil.b(javaFilesPath + File.separator + packageNameAsFolders + File.separator + fileName, fileContent);
+            return javaFilesPath + File.separator + packageNameAsFolders + File.separator + fileName;
         } else if (fileName.equals("AndroidManifest.xml")) {
-            fileUtil.b(androidManifestPath, fileContent);
+            return androidManifestPath;
         } else if (fileName.equals("colors.xml") || fileName.equals("styles.xml") || fileName.equals("strings.xml")) {
-            fileUtil.b(resDirectoryPath + File.separator + "values" + File.separator + fileName, fileContent);
+            return resDirectoryPath + File.separator + "values" + File.separator + fileName;
         } else if (fileName.equals("provider_paths.xml")) {
-            fileUtil.b(resDirectoryPath + File.separator + "xml" + File.separator + fileName, fileContent);
+            return resDirectoryPath + File.separator + "xml" + File.separator + fileName;
         } else {
-            fileUtil.b(layoutFilesPath + File.separator + fileName, fileContent);
+            return layoutFilesPath + File.separator + fileName;
+        }
+    }
+
+    /**
+     * Writes a generated file, unless it already exists with the same content. This keeps the
+     * file's timestamp stable, which later incremental build steps rely on.
+     */
+    private void writeIfChanged(String path, String content) {
+        if (sourceGeneration != null && !sourceGeneration.recordGeneratedFile(path, content)) {
+            return;
+        }
+
+        File file = new File(path);
+        if (file.isFile() && content.equals(FileUtil.readFile(path))) {
+            return;
         }
+        fileUtil.b(path, content);
     }
 
     /**
@@ -717,7 +765,15 @@ public class yq {
      * Generates the project's files, such as layouts, Java files, but also build.gradle and secrets.xml.
      */
     public void b(hC projectFileManager, eC projectDataManger, iC projectLibraryManager, BuiltInLibraryManager builtInLibraryManager) {
-        ArrayList<SrcCodeBean> srcCodeBeans = a(projectFileManager, projectDataManger, builtInLibraryManager);
+        sourceGeneration = new IncrementalSourceGeneration(new File(binDirectoryPath, SOURCE_GENERATION_DIRECTORY),
+                getSharedSourceInputs(projectFileManager));
+        ArrayList<SrcCodeBean> srcCodeBeans;
+        try {
+            srcCodeBeans = a(projectFileManager, projectDataManger, builtInLibraryManager);
+        } catch (RuntimeException e) {
+            sourceGeneration = null;
+            throw e;
+        }
         if (N.u) {
             XmlBuilder pathsTag = new XmlBuilder("paths");
             pathsTag.addAttribute("xmlns", "android", "http://schemas.android.com/apk/res/android");
@@ -762,10 +818,57 @@ public class yq {
                 mx.addString("google_maps_key", projectLibraryManager.e().data, false);
             }
             String filePath = "values/secrets.xml";
-            fileUtil.b(resDirectoryPath + File.separator + filePath,
+            writeIfChanged(resDirectoryPath + File.separator + filePath,
                     CommandBlock.applyCommands(filePath, mx.toCode()));
         }
         h();
+        sourceGeneration.commit();
+        sourceGeneration = null;
+    }
+
+    /**
+     * @return Everything that affects the content of all generated files: project metadata, the
+     * list of project files, custom blocks, components, events and listeners, project
+     * configuration files and which files have custom versions. Data only specific to a single
+     * activity or layout, such as views, events and blocks, is excluded.
+     */
+    private String getSharedSourceInputs(hC projectFileManager) {
+        StringBuilder inputs = new StringBuilder();
+        try {
+            Context appContext = SketchApplication.getContext();
+            inputs.append(appContext.getPackageManager().getPackageInfo(appContext.getPackageName(), 0).lastUpdateTime).append('\n');
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e("yq", "Couldn't get package info about ourselves", e);
+            inputs.append(System.currentTimeMillis()).append('\n');
+        }
+        inputs.append(IncrementalSourceGeneration.describe(N, metadata, projectFileManager.b(), projectFileManager.c(),
+                exportingType, isAndroidStudioExport, generateDataBindingClasses)).append('\n');
+
+        /* Project configuration files, other than the ones holding project files' data */
+        List<String> dataFilesHoldingFileData = Arrays.asList("file", "library", "logic", "resource", "view");
+        File[] dataFiles = new File(wq.b(sc_id)).listFiles();
+        if (dataFiles != null) {
+            Arrays.sort(dataFiles);
+            for (File dataFile : dataFiles) {
+                if (dataFile.isFile() && !dataFilesHoldingFileData.contains(dataFile.getName())) {
+                    inputs.append(dataFile.getName()).append(':').append(dataFile.length()).append(':')
+                            .append(dataFile.lastModified()).append('\n');
+                }
+            }
+        }
+
+        /* Custom versions of files replace generated ones */
+        for (String customFilesDirectory : new String[]{"java", "resource" + File.separator + "layout"}) {
+            String[] customFiles = new File(wq.b(sc_id) + File.separator + "files" + File.separator + customFilesDirectory).list();
+            if (customFiles != null) {
+                Arrays.sort(customFiles);
+                inputs.append(customFilesDirectory).append(':').append(String.join(",", customFiles)).append('\n');
+            }
+        }
+
+        inputs.append(FingerprintStore.fingerprintDirectory(new File(wq.getAbsolutePathOf(wq.EXTRA_SYSTEM_DATA)))).append('\n');
+        inputs.append(FingerprintStore.fingerprintDirectory(new File(wq.getAbsolutePathOf(wq.l), "block"))).append('\n');
+        return inputs.toString();
     }
 
     /**
@@ -792,64 +895,72 @@ public class yq {
 
         // Generate Activities unless a custom version of it exists already
         // at /Internal storage/.sketchware/data/<sc_id>/files/java/
-        ArrayList<SrcCodeBean> srcCodeBeans = new ArrayList<>();
+        ArrayList<ProjectFileBean> activities = new ArrayList<>();
         for (ProjectFileBean activity : projectFileManager.b()) {
             if (!javaFiles.contains(new File(javaDir + activity.getJavaName()))) {
-                srcCodeBeans.add(new SrcCodeBean(activity.getJavaName(),
-                        new Jx(N, activity, projectDataManager).generateCode(isAndroidStudioExport, sc_id)));
+                activities.add(activity);
             }
         }
-
-        var path = wq.b(sc_id) + "/command";
-        var newXMLCommand = Boolean.parseBoolean(projectSettings.getValue(ProjectSettings.SETTING_NEW_XML_COMMAND, ProjectSettings.SETTING_GENERIC_VALUE_FALSE));
-        if (newXMLCommand && FileUtil.isExistFile(path)) {
-            FileUtil.copyFile(path, FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands"));
-        }
-
-        var viewBindingBuilder = new ViewBindingBuilder(List.of(), new File("."), packageName);
-
         // Generate layouts unless a custom version of it exists already
         // at /Internal storage/.sketchware/data/<sc_id>/files/resource/layout/
-        ArrayList<ProjectFileBean> regularLayouts = projectFileManager.b();
-        for (ProjectFileBean layout : regularLayouts) {
-            String xmlName = layout.getXmlName();
-            Ox ox = new Ox(N, layout);
-            ox.a(eC.a(projectDataManager.d(xmlName)), projectDataManager.h(xmlName));
-            var ogFile = new File(layoutDir + xmlName);
-            if (!layoutFiles.contains(ogFile)) {
-                srcCodeBeans.add(new SrcCodeBean(xmlName, CommandBlock.applyCommands(xmlName, ox.b())));
-
-                if (isViewBindingEnable()) {
-                    var privFile = new File(context.getCacheDir(), xmlName);
-                    FileUtil.writeFile(privFile.getAbsolutePath(), CommandBlock.applyCommands(xmlName, ox.b()));
-                    var code = viewBindingBuilder.generateBindingForLayout(privFile);
-                    srcCodeBeans.add(new SrcCodeBean(
-                            ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java",
-                            CommandBlock.applyCommands(xmlName, code)
-                    ));
-                }
+        ArrayList<ProjectFileBean> regularLayouts = new ArrayList<>();
+        for (ProjectFileBean layout : projectFileManager.b()) {
+            if (!layoutFiles.contains(new File(layoutDir + layout.getXmlName()))) {
+                regularLayouts.add(layout);
+            }
+        }
+        ArrayList<ProjectFileBean> customViewFiles = new ArrayList<>();
+        for (ProjectFileBean customViewFile : projectFileManager.c()) {
+            if (!layoutFiles.contains(new File(layoutDir + customViewFile.getXmlName()))) {
+                customViewFiles.add(customViewFile);
             }
         }
 
-        ArrayList<ProjectFileBean> customViewFiles = projectFileManager.c();
-        for (ProjectFileBean customViewFile : customViewFiles) {
-            String xmlName = customViewFile.getXmlName();
-            Ox ox = new Ox(N, customViewFile);
-            ox.a(eC.a(projectDataManager.d(xmlName)));
-            var ogFile = new File(layoutDir + xmlName);
-            if (!layoutFiles.contains(ogFile)) {
-                srcCodeBeans.add(new SrcCodeBean(xmlName, CommandBlock.applyCommands(xmlName, ox.b())));
-
-                if (isViewBindingEnable()) {
-                    var privFile = new File(context.getCacheDir(), xmlName);
-                    FileUtil.writeFile(privFile.getAbsolutePath(), CommandBlock.applyCommands(xmlName, ox.b()));
-                    var code = viewBindingBuilder.generateBindingForLayout(privFile);
-                    srcCodeBeans.add(new SrcCodeBean(
-                            ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java",
-                            CommandBlock.applyCommands(xmlName, code)
-                    ));
-                }
+        /* Load Custom Blocks once up front, so concurrent generators only read the shared registry */
+        N.getProjectConfig().getExtraBlocks();
+
+        ArrayList<SrcCodeBean> srcCodeBeans = new ArrayList<>();
+        ForkJoinPool generatorPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            /* Activities don't depend on each other, so generate them concurrently. Their XML command blocks
+               get added to the temporary commands file in Activity order, just like when generating one by one. */
+            List<Future<GeneratedActivity>> generatedActivities = new ArrayList<>(activities.size());
+            for (ProjectFileBean activity : activities) {
+                generatedActivities.add(generatorPool.submit(() -> generateActivity(activity, projectDataManager)));
+            }
+            ArrayList<HashMap<String, Object>> xmlCommands = new ArrayList<>();
+            for (int i = 0; i < activities.size(); i++) {
+                GeneratedActivity generatedActivity = getGenerated(generatedActivities.get(i));
+                srcCodeBeans.add(new SrcCodeBean(activities.get(i).getJavaName(), generatedActivity.code));
+                xmlCommands.addAll(generatedActivity.xmlCommands);
+            }
+            if (!xmlCommands.isEmpty()) {
+                CommandBlock.addXmlCommands(xmlCommands);
+            }
+
+            var path = wq.b(sc_id) + "/command";
+            var newXMLCommand = Boolean.parseBoolean(projectSettings.getValue(ProjectSettings.SETTING_NEW_XML_COMMAND, ProjectSettings.SETTING_GENERIC_VALUE_FALSE));
+            if (newXMLCommand && FileUtil.isExistFile(path)) {
+                FileUtil.copyFile(path, FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands"));
+                CommandBlock.invalidateCompiledCommands();
+            }
+
+            /* All commands are known now, so layouts can be generated concurrently too */
+            var viewBindingBuilder = new ViewBindingBuilder(List.of(), new File("."), packageName);
+            List<Future<List<SrcCodeBean>>> generatedLayouts = new ArrayList<>(regularLayouts.size() + customViewFiles.size());
+            for (ProjectFileBean layout : regularLayouts) {
+                generatedLayouts.add(generatorPool.submit(() ->
+                        generateLayout(layout, false, projectDataManager, viewBindingBuilder)));
+            }
+            for (ProjectFileBean customViewFile : customViewFiles) {
+                generatedLayouts.add(generatorPool.submit(() ->
+                        generateLayout(customViewFile, true, projectDataManager, viewBindingBuilder)));
             }
+            for (Future<List<SrcCodeBean>> generatedLayout : generatedLayouts) {
+                srcCodeBeans.addAll(getGenerated(generatedLayout));
+            }
+        } finally {
+            generatorPool.shutdownNow();
         }
 
         Ix ix = new Ix(N, projectFileManager.b(), builtInLibraryManager);
@@ -901,6 +1012,150 @@ public class yq {
         return srcCodeBeans;
     }
 
+    /**
+     * Generates an Activity's Java code, or reuses it if its inputs haven't changed since the last build.
+     * Safe to call for multiple Activities at the same time.
+     */
+    private GeneratedActivity generateActivity(ProjectFileBean activity, eC projectDataManager) {
+        String javaName = activity.getJavaName();
+        String xmlName = activity.getXmlName();
+        String code = getUpToDateSource(javaName, activity, isViewBindingEnable(),
+                projectDataManager.c.get(xmlName), projectDataManager.c.get("_drawer_" + xmlName), projectDataManager.j.get(xmlName),
+                projectDataManager.d.get(javaName), projectDataManager.e.get(javaName), projectDataManager.f.get(javaName),
+                projectDataManager.g.get(javaName), projectDataManager.h.get(javaName), projectDataManager.i.get(javaName),
+                getAdapterItemLayouts(xmlName, projectDataManager), AndroidManifestInjector.getLauncherActivity(sc_id));
+        // A reused Activity's XML command blocks still need to be applied to layouts
+        ArrayList<HashMap<String, Object>> xmlCommands = code != null ? readActivityXmlCommands(javaName) : null;
+        if (xmlCommands == null) {
+            xmlCommands = new ArrayList<>();
+            code = new Jx(N, activity, projectDataManager).generateCode(isAndroidStudioExport, sc_id, xmlCommands);
+            if (sourceGeneration != null) {
+                writeIfChanged(getActivityXmlCommandsPath(javaName), new Gson().toJson(xmlCommands));
+            }
+        }
+        return new GeneratedActivity(code, xmlCommands);
+    }
+
+    /**
+     * @return Views of the item layouts used by a layout's ListViews, RecyclerViews, ViewPagers etc.,
+     * which the Activity's adapter and ViewHolder code gets generated from
+     */
+    private static List<ArrayList<ViewBean>> getAdapterItemLayouts(String xmlName, eC projectDataManager) {
+        List<ArrayList<ViewBean>> itemLayouts = new ArrayList<>();
+        for (ViewBean viewBean : projectDataManager.f(xmlName)) {
+            itemLayouts.add(projectDataManager.c.get(ProjectFileBean.getXmlName(viewBean.customView)));
+        }
+        return itemLayouts;
+    }
+
+    /**
+     * @return XML command blocks of the Activity saved by the last build, or <code>null</code> if unavailable
+     */
+    private ArrayList<HashMap<String, Object>> readActivityXmlCommands(String javaName) {
+        String path = getActivityXmlCommandsPath(javaName);
+        if (!FileUtil.isExistFile(path)) return null;
+        try {
+            String xmlCommands = FileUtil.readFile(path);
+            ArrayList<HashMap<String, Object>> parsed = new Gson().fromJson(xmlCommands, Helper.TYPE_MAP_LIST);
+            if (parsed != null) {
+                // Still belongs to this build's generated files, so don't let it get deleted as stale
+                writeIfChanged(path, xmlCommands);
+            }
+            return parsed;
+        } catch (JsonParseException e) {
+            Log.w("yq", "Couldn't read XML command blocks of " + javaName + ", generating it again", e);
+            return null;
+        }
+    }
+
+    private String getActivityXmlCommandsPath(String javaName) {
+        return binDirectoryPath + File.separator + SOURCE_GENERATION_DIRECTORY + File.separator
+                + ACTIVITY_XML_COMMANDS_DIRECTORY + File.separator + javaName + ".json";
+    }
+
+    /**
+     * Generates a layout, and its view binding class if view binding is enabled, or reuses them if their
+     * inputs haven't changed since the last build. Safe to call for multiple layouts at the same time.
+     */
+    private List<SrcCodeBean> generateLayout(ProjectFileBean layout, boolean isCustomView, eC projectDataManager,
+                                             ViewBindingBuilder viewBindingBuilder) {
+        String xmlName = layout.getXmlName();
+        List<HashMap<String, Object>> layoutCommands = CommandBlock.getCommands(xmlName);
+
+        String code;
+        if (isCustomView) {
+            code = getUpToDateSource(xmlName, layout, projectDataManager.c.get(xmlName), layoutCommands);
+            if (code == null) {
+                Ox ox = new Ox(N, layout);
+                ox.a(eC.a(projectDataManager.d(xmlName)));
+                code = CommandBlock.applyCommands(xmlName, ox.b());
+            }
+        } else {
+            code = getUpToDateSource(xmlName, layout,
+                    projectDataManager.c.get(xmlName), projectDataManager.j.get(xmlName), layoutCommands);
+            if (code == null) {
+                Ox ox = new Ox(N, layout);
+                ox.a(eC.a(projectDataManager.d(xmlName)), projectDataManager.h(xmlName));
+                code = CommandBlock.applyCommands(xmlName, ox.b());
+            }
+        }
+
+        List<SrcCodeBean> srcCodeBeans = new ArrayList<>(2);
+        srcCodeBeans.add(new SrcCodeBean(xmlName, code));
+        if (isViewBindingEnable()) {
+            String bindingName = ViewBindingBuilder.generateFileNameForLayout(xmlName.replace(".xml", "")) + ".java";
+            String bindingCode = getUpToDateSource(bindingName, layout, code, layoutCommands);
+            if (bindingCode == null) {
+                var privFile = new File(context.getCacheDir(), xmlName);
+                FileUtil.writeFile(privFile.getAbsolutePath(), code);
+                bindingCode = CommandBlock.applyCommands(xmlName, viewBindingBuilder.generateBindingForLayout(privFile));
+            }
+            srcCodeBeans.add(new SrcCodeBean(bindingName, bindingCode));
+        }
+        return srcCodeBeans;
+    }
+
+    private static class GeneratedActivity {
+        private final String code;
+        /**
+         * XML command blocks used in the Activity's blocks, to be applied to layouts
+         */
+        private final ArrayList<HashMap<String, Object>> xmlCommands;
+
+        private GeneratedActivity(String code, ArrayList<HashMap<String, Object>> xmlCommands) {
+            this.code = code;
+            this.xmlCommands = xmlCommands;
+        }
+    }
+
+    /**
+     * @return The result of a file generated on {@link #a(hC, eC, BuiltInLibraryManager)}'s generator pool
+     */
+    private static <T> T getGenerated(Future<T> generated) {
+        try {
+            return generated.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+            if (cause instanceof Error error) throw error;
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating source code", e);
+        }
+    }
+
+    /**
+     * @param inputs Everything the file's content depends on, other than inputs shared by all files
+     * @return The content of the already generated file {@code fileName}, if its inputs haven't
+     * changed since the last build, otherwise <code>null</code>. Always <code>null</code> if not
+     * generating files for building.
+     */
+    private String getUpToDateSource(String fileName, Object... inputs) {
+        if (sourceGeneration == null) return null;
+        return sourceGeneration.getUpToDateContent(fileName, new File(getGeneratedFilePath(fileName)), inputs);
+    }
+
     private boolean isViewBindingEnable() {
         return generateDataBindingClasses && projectSettings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE).equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE);
     }
@@ -923,6 +1178,7 @@ public class yq {
             var newXMLCommand = Boolean.parseBoolean(projectSettings.getValue(ProjectSettings.SETTING_NEW_XML_COMMAND, ProjectSettings.SETTING_GENERIC_VALUE_FALSE));
             if (newXMLCommand && FileUtil.isExistFile(path)) {
                 FileUtil.copyFile(path, FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands"));
+                CommandBlock.invalidateCompiledCommands();
             } else {
                 /*
                  Generating every java file is necessary to make command blocks for xml work
@@ -2,20 +2,22 @@ package com.besome.sketch.adapters;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.net.Uri;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
-import androidx.core.content.FileProvider;
 import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.besome.sketch.export.ExportProjectActivity;
 import com.besome.sketch.lib.ui.LoadingDialog;
 import com.besome.sketch.projects.MyProjectSettingActivity;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.signature.StringSignature;
 import com.google.android.material.bottomsheet.BottomSheetDialog;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
@@ -24,6 +26,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import a.a.a.lC;
 import a.a.a.mB;
@@ -40,8 +46,18 @@ import pro.sketchware.databinding.MyprojectsItemBinding;
 public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.ProjectViewHolder> {
     private final ProjectsFragment projectsFragment;
     private final Activity activity;
+    private final ExecutorService filterExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Never modified, only replaced, so filtering can diff against it in the background
+     */
     private List<HashMap<String, Object>> shownProjects = new ArrayList<>();
+    /**
+     * Signatures of shown projects' custom icons by project ID, taken in the background along with
+     * {@link #shownProjects}, so binding doesn't need to look at icon files
+     */
+    private Map<String, String> iconSignatures = new HashMap<>();
     private List<HashMap<String, Object>> allProjects;
+    private int filterGeneration = 0;
 
     public ProjectsAdapter(ProjectsFragment projectsFragment, List<HashMap<String, Object>> allProjects) {
         this.projectsFragment = projectsFragment;
@@ -54,19 +70,85 @@ public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.Projec
     }
 
     public void filterData(String query) {
-        List<HashMap<String, Object>> newProjects = query.isEmpty() ? allProjects : new ArrayList<>();
-        if (!query.isEmpty()) {
-            for (HashMap<String, Object> project : allProjects) {
-                if (matchesQuery(project, query)) {
-                    newProjects.add(project);
+        filterData(query, null);
+    }
+
+    /**
+     * Filters and diffs projects in the background, and shows them unless another filter got
+     * requested in the meantime. Must be called on the UI thread.
+     *
+     * @param onApplied Run once the filtered projects are shown, may be <code>null</code>
+     */
+    public void filterData(String query, Runnable onApplied) {
+        if (filterExecutor.isShutdown()) return;
+
+        int generation = ++filterGeneration;
+        List<HashMap<String, Object>> projects = new ArrayList<>(allProjects);
+        List<HashMap<String, Object>> oldProjects = shownProjects;
+        Map<String, String> oldIconSignatures = iconSignatures;
+        filterExecutor.execute(() -> {
+            List<HashMap<String, Object>> newProjects = filter(projects, query);
+            Map<String, String> newIconSignatures = getIconSignatures(newProjects);
+            DiffUtil.DiffResult result = calculateDiff(oldProjects, newProjects, oldIconSignatures, newIconSignatures);
+            activity.runOnUiThread(() -> {
+                if (generation != filterGeneration) return;
+                if (oldProjects != shownProjects) {
+                    // A project got deleted meanwhile, so the diff is outdated
+                    filterData(query, onApplied);
+                    return;
+                }
+                shownProjects = newProjects;
+                iconSignatures = newIconSignatures;
+                result.dispatchUpdatesTo(this);
+                notifyDataSetChanged();
+                if (onApplied != null) onApplied.run();
+            });
+        });
+    }
+
+    /**
+     * Stops filtering projects. Must be called once the adapter isn't used anymore.
+     */
+    public void shutdown() {
+        filterExecutor.shutdownNow();
+    }
+
+    private static Map<String, String> getIconSignatures(List<HashMap<String, Object>> projects) {
+        Map<String, String> signatures = new HashMap<>();
+        for (HashMap<String, Object> project : projects) {
+            if (yB.a(project, "custom_icon")) {
+                String scId = yB.c(project, "sc_id");
+                File iconFile = getIconFile(scId);
+                if (iconFile.isFile()) {
+                    signatures.put(scId, iconFile.lastModified() + ":" + iconFile.length());
                 }
             }
         }
+        return signatures;
+    }
+
+    private static File getIconFile(String scId) {
+        return new File(wq.e() + File.separator + scId, "icon.png");
+    }
+
+    private List<HashMap<String, Object>> filter(List<HashMap<String, Object>> projects, String query) {
+        if (query.isEmpty()) return projects;
+
+        List<HashMap<String, Object>> filteredProjects = new ArrayList<>();
+        for (HashMap<String, Object> project : projects) {
+            if (matchesQuery(project, query)) {
+                filteredProjects.add(project);
+            }
+        }
+        return filteredProjects;
+    }
 
-        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+    private static DiffUtil.DiffResult calculateDiff(List<HashMap<String, Object>> oldProjects, List<HashMap<String, Object>> newProjects,
+                                                     Map<String, String> oldIconSignatures, Map<String, String> newIconSignatures) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
             @Override
             public int getOldListSize() {
-                return shownProjects.size();
+                return oldProjects.size();
             }
 
             @Override
@@ -76,28 +158,24 @@ public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.Projec
 
             @Override
             public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                String oldScId = yB.c(shownProjects.get(oldItemPosition), "sc_id");
+                String oldScId = yB.c(oldProjects.get(oldItemPosition), "sc_id");
                 String newScId = yB.c(newProjects.get(newItemPosition), "sc_id");
                 return oldScId.equalsIgnoreCase(newScId);
             }
 
             @Override
             public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                HashMap<String, Object> oldMap = shownProjects.get(oldItemPosition);
+                HashMap<String, Object> oldMap = oldProjects.get(oldItemPosition);
                 HashMap<String, Object> newMap = newProjects.get(newItemPosition);
                 for (String key : Arrays.asList("my_app_name", "my_ws_name", "sc_ver_name", "sc_ver_code", "my_sc_pkg_name")) {
                     if (!yB.c(oldMap, key).equals(yB.c(newMap, key))) {
                         return false;
                     }
                 }
-                boolean oldCustomIcon = yB.a(oldMap, "custom_icon");
-                boolean newCustomIcon = yB.a(newMap, "custom_icon");
-                return oldCustomIcon == newCustomIcon;
+                String scId = yB.c(newMap, "sc_id");
+                return Objects.equals(oldIconSignatures.get(scId), newIconSignatures.get(scId));
             }
         }, true);
-        shownProjects = newProjects;
-        result.dispatchUpdatesTo(this);
-        notifyDataSetChanged();
     }
 
     @Override
@@ -133,8 +211,6 @@ public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.Projec
         HashMap<String, Object> projectMap = shownProjects.get(position);
         String scId = yB.c(projectMap, "sc_id");
 
-        holder.binding.imgIcon.setImageResource(R.drawable.default_icon);
-
         if (yB.c(projectMap, "sc_ver_code").isEmpty()) {
             projectMap.put("sc_ver_code", "1");
             projectMap.put("sc_ver_name", "1.0");
@@ -146,12 +222,21 @@ public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.Projec
             lC.b(scId, projectMap);
         }
 
-        if (yB.a(projectMap, "custom_icon")) {
-            String iconFolder = wq.e() + File.separator + scId;
-            Uri uri;
-            String providerPath = activity.getPackageName() + ".provider";
-            uri = FileProvider.getUriForFile(activity, providerPath, new File(iconFolder, "icon.png"));
-            holder.binding.imgIcon.setImageURI(uri);
+        ImageView icon = holder.binding.imgIcon;
+        String iconSignature = iconSignatures.get(scId);
+        if (iconSignature != null) {
+            // Decoded in the background and downsampled to the view's size; the thumbnail gets
+            // cached until the icon file changes
+            Glide.with(icon)
+                    .load(getIconFile(scId))
+                    .signature(new StringSignature(iconSignature))
+                    .diskCacheStrategy(DiskCacheStrategy.RESOURCE)
+                    .placeholder(R.drawable.default_icon)
+                    .error(R.drawable.default_icon)
+                    .into(icon);
+        } else {
+            Glide.with(icon).clear(icon);
+            icon.setImageResource(R.drawable.default_icon);
         }
 
         String version = " - " + yB.c(projectMap, "sc_ver_name") + " (" + yB.c(projectMap, "sc_ver_code") + ")";
@@ -191,7 +276,7 @@ public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.Projec
         return new ProjectViewHolder(binding);
     }
 
-    private void deleteProject(HashMap<String, Object> projectMap, int position) {
+    private void deleteProject(HashMap<String, Object> projectMap) {
         LoadingDialog progressDialog = new LoadingDialog(activity);
         progressDialog.show();
 
@@ -200,7 +285,9 @@ public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.Projec
             lC.a(activity, scId);
             activity.runOnUiThread(() -> {
                 progressDialog.dismiss();
-                shownProjects.remove(position);
+                List<HashMap<String, Object>> newProjects = new ArrayList<>(shownProjects);
+                newProjects.remove(projectMap);
+                shownProjects = newProjects;
                 notifyDataSetChanged();
                 allProjects.remove(projectMap);
             });
@@ -265,7 +352,7 @@ public class ProjectsAdapter extends RecyclerView.Adapter<ProjectsAdapter.Projec
             dialog.setTitle(Helper.getResString(R.string.delete_project_dialog_title));
             dialog.setMessage(Helper.getResString(R.string.delete_project_dialog_message).replace("%1$s", yB.c(projectMap, "my_app_name")));
             dialog.setPositiveButton(Helper.getResString(R.string.common_word_delete), (v1, which) -> {
-                deleteProject(projectMap, position);
+                deleteProject(projectMap);
                 v1.dismiss();
             });
             dialog.setNegativeButton(Helper.getResString(R.string.common_word_cancel), null);
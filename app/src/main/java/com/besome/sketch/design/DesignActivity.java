@@ -97,7 +97,9 @@ import mod.agus.jcoderz.editor.manage.permission.ManagePermissionActivity;
 import mod.agus.jcoderz.editor.manage.resource.ManageResourceActivity;
 import mod.hey.studios.activity.managers.assets.ManageAssetsActivity;
 import mod.hey.studios.activity.managers.java.ManageJavaActivity;
+import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.compiler.kotlin.KotlinCompilerBridge;
+import mod.hey.studios.project.backup.SnapshotStore;
 import mod.hey.studios.project.custom_blocks.CustomBlocksDialog;
 import mod.hey.studios.project.proguard.ManageProguardActivity;
 import mod.hey.studios.project.proguard.ProguardHandler;
@@ -107,8 +109,11 @@ import mod.hey.studios.util.Helper;
 import mod.hey.studios.util.SystemLogPrinter;
 import mod.hilal.saif.activities.android_manifest.AndroidManifestInjection;
 import mod.hilal.saif.activities.tools.ConfigActivity;
+import mod.jbk.build.BuildGraph;
 import mod.jbk.build.BuildProgressReceiver;
+import mod.jbk.build.BuildTraceHistory;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.IncrementalBuildDirectory;
 import mod.jbk.diagnostic.CompileErrorSaver;
 import mod.jbk.diagnostic.MissingFileException;
 import mod.jbk.util.LogUtil;
@@ -485,6 +490,17 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
             sheet.show(getSupportFragmentManager(), BuildSettingsBottomSheet.TAG);
             return true;
         });
+        bottomMenu.add(Menu.NONE, 8, Menu.NONE, "Clean build").setOnMenuItemClickListener(item -> {
+            if (currentBuildTask != null && !currentBuildTask.canceled && !currentBuildTask.isBuildFinished) {
+                SketchwareUtil.toast("A build is already running");
+                return true;
+            }
+
+            BuildTask buildTask = new BuildTask(this, true);
+            currentBuildTask = buildTask;
+            buildTask.execute();
+            return true;
+        });
         bottomMenu.add(Menu.NONE, 2, Menu.NONE, "Clean temporary files").setVisible(false).setOnMenuItemClickListener(item -> {
             new Thread(() -> {
                 FileUtil.deleteFile(q.projectMyscPath);
@@ -1027,6 +1043,18 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
     private static class BuildTask extends BaseTask implements BuildProgressReceiver {
         public static final String ACTION_CANCEL_BUILD = "com.besome.sketch.design.ACTION_CANCEL_BUILD";
         private static final String CHANNEL_ID = "build_notification_channel";
+        private static final String ARTIFACT_SOURCES = "generated sources";
+        private static final String ARTIFACT_AAPT2 = "AAPT2 binary";
+        private static final String ARTIFACT_BUILT_IN_LIBRARIES = "extracted built-in libraries";
+        private static final String ARTIFACT_RESOURCES = "compiled resources";
+        private static final String ARTIFACT_VIEW_BINDING = "view binding classes";
+        private static final String ARTIFACT_KOTLIN_CLASSES = "compiled Kotlin classes";
+        private static final String ARTIFACT_CLASSES = "compiled classes";
+        private static final String ARTIFACT_OBFUSCATED_CLASSES = "obfuscated classes";
+        private static final String ARTIFACT_SHRUNK_CLASSES = "shrunk classes";
+        private static final String ARTIFACT_PROJECT_DEXES = "project DEX files";
+        private static final String ARTIFACT_BUILT_IN_LIBRARY_DEXES = "built-in library DEX files";
+        private static final String ARTIFACT_DEXES = "DEX files";
         private final ExecutorService executorService = Executors.newSingleThreadExecutor();
         private final NotificationManager notificationManager;
         private final int notificationId = 1;
@@ -1038,9 +1066,19 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
         public volatile boolean canceled;
         private volatile boolean isBuildFinished;
         private boolean isShowingNotification = false;
+        /**
+         * If the project's build directory gets deleted before building, instead of reusing the
+         * previous build's outputs
+         */
+        private final boolean cleanBuild;
 
         public BuildTask(DesignActivity activity) {
+            this(activity, false);
+        }
+
+        public BuildTask(DesignActivity activity, boolean cleanBuild) {
             super(activity);
+            this.cleanBuild = cleanBuild;
             notificationManager = (NotificationManager) activity.getSystemService(Context.NOTIFICATION_SERVICE);
             btnRun = activity.btnRun;
             btnOptions = activity.btnOptions;
@@ -1074,10 +1112,20 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
             try {
                 var q = activity.q;
                 var sc_id = DesignActivity.sc_id;
-                onProgress("Deleting temporary files...", 1);
-                FileUtil.deleteFile(q.projectMyscPath);
+                var buildDirectory = new IncrementalBuildDirectory(q);
+                boolean keepBuildOutputs = new BuildSettings(sc_id).getValue(BuildSettings.SETTING_KEEP_BUILD_OUTPUTS,
+                        BuildSettings.SETTING_GENERIC_VALUE_TRUE).equals(BuildSettings.SETTING_GENERIC_VALUE_TRUE);
+                if (cleanBuild || !keepBuildOutputs || !buildDirectory.isReusable()) {
+                    onProgress("Deleting temporary files...", 1);
+                    FileUtil.deleteFile(q.projectMyscPath);
+                    buildDirectory = new IncrementalBuildDirectory(q);
+                } else {
+                    onProgress("Cleaning up previous build...", 1);
+                    buildDirectory.deleteTransientOutputs();
+                }
 
                 q.c(activity.getApplicationContext());
+                buildDirectory.markInUse();
                 q.a();
                 q.a(activity.getApplicationContext(), wq.e("600"));
                 if (yB.a(lC.b(sc_id), "custom_icon")) {
@@ -1097,92 +1145,21 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
 
                 onProgress("Generating source code...", 2);
                 kC kC = jC.d(sc_id);
-                kC.b(q.resDirectoryPath + File.separator + "drawable-xhdpi");
-                kC = jC.d(sc_id);
-                kC.c(q.resDirectoryPath + File.separator + "raw");
-                kC = jC.d(sc_id);
-                kC.a(q.assetsPath + File.separator + "fonts");
+                buildDirectory.syncResources(kC.b, kC.e, q.resDirectoryPath + File.separator + "drawable-xhdpi");
+                buildDirectory.syncResources(kC.c, kC.f, q.resDirectoryPath + File.separator + "raw");
+                buildDirectory.syncResources(kC.d, kC.g, q.assetsPath + File.separator + "fonts");
+                buildDirectory.commitSyncedResources();
 
                 ProjectBuilder builder = new ProjectBuilder(this, activity.getApplicationContext(), q);
+                builder.buildTrace.start();
 
-                var fileManager = jC.b(sc_id);
-                var dataManager = jC.a(sc_id);
-                var libraryManager = jC.c(sc_id);
-                q.a(libraryManager, fileManager, dataManager);
-                builder.buildBuiltInLibraryInformation();
-                q.b(fileManager, dataManager, libraryManager, builder.getBuiltInLibraryManager());
-                q.f();
-                q.e();
-
-                builder.maybeExtractAapt2();
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Extracting built-in libraries...", 3);
-                BuiltInLibraries.extractCompileAssets(this);
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("AAPT2 is running...", 8);
-                builder.compileResources();
+                createBuildGraph(q, builder).execute(() -> canceled);
                 if (canceled) {
                     return;
                 }
 
-                onProgress("Generating view binding...", 11);
-                builder.generateViewBinding();
-                if (canceled) {
-                    return;
-                }
-
-                KotlinCompilerBridge.compileKotlinCodeIfPossible(this, builder);
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Java is compiling...", 13);
-                builder.compileJavaCode();
-                if (canceled) {
-                    return;
-                }
-
-                StringfogHandler stringfogHandler = new StringfogHandler(sc_id);
-                stringfogHandler.start(this, builder);
-                if (canceled) {
-                    return;
-                }
-
-                ProguardHandler proguardHandler = new ProguardHandler(sc_id);
-                proguardHandler.start(this, builder);
-                if (canceled) {
-                    return;
-                }
-
-                onProgress(builder.getDxRunningText(), 17);
-                builder.createDexFilesFromClasses();
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Merging DEX files...", 18);
-                builder.getDexFilesReady();
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Building APK...", 19);
-                builder.buildApk();
-                if (canceled) {
-                    return;
-                }
-
-                onProgress("Signing APK...", 20);
-                builder.signDebugApk();
-                if (canceled) {
-                    return;
-                }
+                builder.buildTrace.writeChromeTrace(new File(q.binDirectoryPath, "build-trace.json"));
+                new BuildTraceHistory(sc_id).add(builder.buildTrace);
 
                 activity.installBuiltApk();
                 isBuildFinished = true;
@@ -1224,6 +1201,93 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
             }
         }
 
+        /**
+         * Declares the steps of a build along with what they consume and produce, so that steps not
+         * depending on each other run at the same time.
+         */
+        private BuildGraph createBuildGraph(yq q, ProjectBuilder builder) {
+            var sc_id = DesignActivity.sc_id;
+            BuildGraph graph = new BuildGraph();
+            graph.setTrace(builder.buildTrace);
+
+            graph.add("Source generation", () -> {
+                var fileManager = jC.b(sc_id);
+                var dataManager = jC.a(sc_id);
+                var libraryManager = jC.c(sc_id);
+                q.a(libraryManager, fileManager, dataManager);
+                builder.buildBuiltInLibraryInformation();
+                q.b(fileManager, dataManager, libraryManager, builder.getBuiltInLibraryManager());
+                q.e();
+            }).produces(ARTIFACT_SOURCES);
+
+            graph.add("AAPT2 extraction", builder::maybeExtractAapt2)
+                    .produces(ARTIFACT_AAPT2);
+
+            graph.add("Built-in library extraction", () -> {
+                onProgress("Extracting built-in libraries...", 3);
+                BuiltInLibraries.extractCompileAssets(this);
+            }).produces(ARTIFACT_BUILT_IN_LIBRARIES);
+
+            graph.add("AAPT2", () -> {
+                onProgress("AAPT2 is running...", 8);
+                builder.compileResources();
+            }).consumes(ARTIFACT_SOURCES, ARTIFACT_AAPT2, ARTIFACT_BUILT_IN_LIBRARIES)
+                    .produces(ARTIFACT_RESOURCES);
+
+            graph.add("View binding", () -> {
+                onProgress("Generating view binding...", 11);
+                builder.generateViewBinding();
+            }).consumes(ARTIFACT_SOURCES)
+                    .produces(ARTIFACT_VIEW_BINDING);
+
+            graph.add("Kotlin", () -> KotlinCompilerBridge.compileKotlinCodeIfPossible(this, builder))
+                    .consumes(ARTIFACT_SOURCES, ARTIFACT_BUILT_IN_LIBRARIES, ARTIFACT_RESOURCES, ARTIFACT_VIEW_BINDING)
+                    .produces(ARTIFACT_KOTLIN_CLASSES);
+
+            graph.add("ECJ", () -> {
+                onProgress("Java is compiling...", 13);
+                builder.compileJavaCode();
+            }).consumes(ARTIFACT_SOURCES, ARTIFACT_BUILT_IN_LIBRARIES, ARTIFACT_RESOURCES, ARTIFACT_VIEW_BINDING,
+                    ARTIFACT_KOTLIN_CLASSES).produces(ARTIFACT_CLASSES);
+
+            /* StringFog and ProGuard rewrite classes in place, so they each produce a new version of them */
+            graph.add("StringFog", () -> new StringfogHandler(sc_id).start(this, builder))
+                    .consumes(ARTIFACT_CLASSES)
+                    .produces(ARTIFACT_OBFUSCATED_CLASSES);
+
+            String shrinkerName = builder.getShrinkerName();
+            graph.add(shrinkerName != null ? shrinkerName : "Shrinking", () -> new ProguardHandler(sc_id).start(this, builder))
+                    .consumes(ARTIFACT_OBFUSCATED_CLASSES)
+                    .produces(ARTIFACT_SHRUNK_CLASSES);
+
+            graph.add("Dexing (" + builder.getDexerName() + ")", () -> {
+                onProgress(builder.getDxRunningText(), 17);
+                builder.createDexFilesFromClasses();
+            }).consumes(ARTIFACT_SHRUNK_CLASSES)
+                    .produces(ARTIFACT_PROJECT_DEXES);
+
+            graph.add("Built-in library DEX merge", builder::prepareBuiltInLibraryDexes)
+                    .consumes(ARTIFACT_SOURCES, ARTIFACT_BUILT_IN_LIBRARIES)
+                    .produces(ARTIFACT_BUILT_IN_LIBRARY_DEXES);
+
+            graph.add("DEX merge", () -> {
+                onProgress("Merging DEX files...", 18);
+                builder.getDexFilesReady();
+            }).consumes(ARTIFACT_PROJECT_DEXES, ARTIFACT_BUILT_IN_LIBRARY_DEXES)
+                    .produces(ARTIFACT_DEXES);
+
+            graph.add("APK building", () -> {
+                onProgress("Building APK...", 19);
+                if (!builder.buildSignedApk(q.finalToInstallApkPath)) {
+                    builder.buildApk();
+                    onProgress("Signing APK...", 20);
+                    builder.signDebugApk();
+                }
+            }).consumes(ARTIFACT_RESOURCES, ARTIFACT_DEXES);
+
+            return graph;
+        }
+
         @Override
         public void onProgress(String progress, int step) {
             int totalSteps = 20;
@@ -1420,6 +1484,9 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
                 jC.a(sc_id).j();
                 jC.d(sc_id).x();
                 jC.c(sc_id).l();
+                if (ConfigActivity.isSettingEnabled(ConfigActivity.SETTING_SNAPSHOT_PROJECTS_ON_SAVE)) {
+                    SnapshotStore.snapshotInBackground(sc_id);
+                }
                 activity.runOnUiThread(() -> {
                     bB.a(activity.getApplicationContext(), Helper.getResString(R.string.common_message_complete_save), bB.TOAST_NORMAL).show();
                     activity.saveVersionCodeInformationToProject();
@@ -1454,6 +1521,9 @@ public class DesignActivity extends BaseAppCompatActivity implements View.OnClic
                 jC.d(sc_id).x();
                 jC.c(sc_id).l();
                 jC.d(sc_id).h();
+                if (ConfigActivity.isSettingEnabled(ConfigActivity.SETTING_SNAPSHOT_PROJECTS_ON_SAVE)) {
+                    SnapshotStore.snapshotInBackground(sc_id);
+                }
                 activity.runOnUiThread(() -> {
                     bB.a(activity.getApplicationContext(), Helper.getResString(R.string.common_message_complete_save), bB.TOAST_NORMAL).show();
                     activity.saveVersionCodeInformationToProject();
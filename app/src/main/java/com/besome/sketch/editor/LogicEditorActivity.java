@@ -17,6 +17,7 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.text.Editable;
 import android.text.InputType;
@@ -124,7 +125,9 @@ import mod.hey.studios.project.ProjectSettings;
 import mod.hey.studios.util.Helper;
 import mod.hilal.saif.asd.AsdDialog;
 import mod.jbk.editor.manage.MoreblockImporter;
+import mod.jbk.editor.usage.ProjectUsageIndex;
 import mod.jbk.util.BlockUtil;
+import mod.jbk.util.LogUtil;
 import mod.pranav.viewbinding.ViewBindingBuilder;
 import pro.sketchware.R;
 import pro.sketchware.activities.editor.view.CodeViewerActivity;
@@ -143,6 +146,11 @@ import pro.sketchware.utility.SvgUtils;
 @SuppressLint({"ClickableViewAccessibility", "RtlHardcoded", "SetTextI18n", "DefaultLocale"})
 public class LogicEditorActivity extends BaseAppCompatActivity implements View.OnClickListener, Vs, View.OnTouchListener, MoreblockImporterDialog.CallBack {
 
+    private static final String TAG = "LogicEditorActivity";
+    /**
+     * How long attaching loaded blocks may block the UI thread per frame
+     */
+    private static final long EVENT_BLOCKS_ATTACH_FRAME_BUDGET_MS = 12;
     private final Handler Z = new Handler();
     private final int[] v = new int[2];
     public ProjectFileBean M;
@@ -179,71 +187,111 @@ public class LogicEditorActivity extends BaseAppCompatActivity implements View.O
 
     private Boolean isViewBindingEnabled;
 
-    private void loadEventBlocks() {
+    /**
+     * Loads the blocks of the event being edited in two phases, so that opening events with
+     * thousands of blocks doesn't flood the main looper with a message per block and link.
+     * <p>
+     * Must be called from a background thread. Blocks get created and linked in a detached staging
+     * {@link BlockPane} first, which doesn't need the UI thread. Then they get attached to {@link #o}
+     * on the UI thread in one go, or in frame-sized chunks for huge events. Laying them out still
+     * happens on the UI thread after the last chunk, as blocks get positioned relative to the root
+     * block of {@link #o} and brought to front within it.
+     *
+     * @param onLoaded Run on the UI thread once all blocks have been attached
+     */
+    private void loadEventBlocks(Runnable onLoaded) {
         ArrayList<BlockBean> eventBlocks = jC.a(B).a(M.getJavaName(), C + "_" + D);
-        if (eventBlocks != null) {
-            if (eventBlocks.isEmpty()) {
-                runOnUiThread(() -> e(X));
-            }
-
-            boolean needToFindRoot = true;
-            HashMap<Integer, Rs> blockIdsAndBlocks = new HashMap<>();
-            for (BlockBean next : eventBlocks) {
-                if (D.equals("onTextChanged") && next.opCode.equals("getArg") && next.spec.equals("text")) {
-                    next.spec = "charSeq";
-                }
-                Rs b2 = b(next);
-                blockIdsAndBlocks.put((Integer) b2.getTag(), b2);
-                o.g = Math.max(o.g, (Integer) b2.getTag() + 1);
-                runOnUiThread(() -> {
-                    o.a(b2, 0, 0);
-                    b2.setOnTouchListener(this);
-                });
-                if (needToFindRoot) {
-                    runOnUiThread(() -> o.getRoot().b(b2));
-                    needToFindRoot = false;
-                }
-            }
-            for (BlockBean next2 : eventBlocks) {
-                Rs block = blockIdsAndBlocks.get(Integer.valueOf(next2.id));
-                if (block != null) {
-                    Rs subStack1RootBlock;
-                    if (next2.subStack1 >= 0 && (subStack1RootBlock = blockIdsAndBlocks.get(next2.subStack1)) != null) {
-                        runOnUiThread(() -> block.e(subStack1RootBlock));
-                    }
-                    Rs subStack2RootBlock;
-                    if (next2.subStack2 >= 0 && (subStack2RootBlock = blockIdsAndBlocks.get(next2.subStack2)) != null) {
-                        runOnUiThread(() -> block.f(subStack2RootBlock));
-                    }
-                    Rs nextBlock;
-                    if (next2.nextBlock >= 0 && (nextBlock = blockIdsAndBlocks.get(next2.nextBlock)) != null) {
-                        runOnUiThread(() -> block.b(nextBlock));
-                    }
-                    for (int i = 0; i < next2.parameters.size(); i++) {
-                        String parameter = next2.parameters.get(i);
-                        if (parameter != null && !parameter.isEmpty()) {
-                            if (parameter.charAt(0) == '@') {
-                                Rs parameterBlock = blockIdsAndBlocks.get(Integer.valueOf(parameter.substring(1)));
-                                if (parameterBlock != null) {
-                                    int finalI = i;
-                                    runOnUiThread(() -> block.a((Ts) block.V.get(finalI), parameterBlock));
-                                }
-                            } else {
-                                int finalI = i;
-                                runOnUiThread(() -> {
-                                    ((Ss) block.V.get(finalI)).setArgValue(parameter);
-                                    block.m();
-                                });
-                            }
+        if (eventBlocks == null) {
+            runOnUiThread(onLoaded);
+            return;
+        }
+        if (eventBlocks.isEmpty()) {
+            runOnUiThread(() -> e(X));
+        }
+
+        long buildStart = SystemClock.uptimeMillis();
+        BlockPane stagingPane = new BlockPane(this);
+        ArrayList<Rs> blocks = new ArrayList<>(eventBlocks.size());
+        HashMap<Integer, Rs> blockIdsAndBlocks = new HashMap<>();
+        for (BlockBean next : eventBlocks) {
+            if (D.equals("onTextChanged") && next.opCode.equals("getArg") && next.spec.equals("text")) {
+                next.spec = "charSeq";
+            }
+            Rs block = b(next);
+            stagingPane.a(block, 0, 0);
+            blocks.add(block);
+            blockIdsAndBlocks.put((Integer) block.getTag(), block);
+        }
+        for (BlockBean next : eventBlocks) {
+            Rs block = blockIdsAndBlocks.get(Integer.valueOf(next.id));
+            if (block == null) continue;
+
+            Rs subStack1RootBlock;
+            if (next.subStack1 >= 0 && (subStack1RootBlock = blockIdsAndBlocks.get(next.subStack1)) != null) {
+                block.e(subStack1RootBlock);
+            }
+            Rs subStack2RootBlock;
+            if (next.subStack2 >= 0 && (subStack2RootBlock = blockIdsAndBlocks.get(next.subStack2)) != null) {
+                block.f(subStack2RootBlock);
+            }
+            Rs nextBlock;
+            if (next.nextBlock >= 0 && (nextBlock = blockIdsAndBlocks.get(next.nextBlock)) != null) {
+                block.b(nextBlock);
+            }
+            for (int i = 0; i < next.parameters.size(); i++) {
+                String parameter = next.parameters.get(i);
+                if (parameter != null && !parameter.isEmpty()) {
+                    if (parameter.charAt(0) == '@') {
+                        Rs parameterBlock = blockIdsAndBlocks.get(Integer.valueOf(parameter.substring(1)));
+                        if (parameterBlock != null) {
+                            block.a((Ts) block.V.get(i), parameterBlock);
                         }
+                    } else {
+                        ((Ss) block.V.get(i)).setArgValue(parameter);
+                        block.m();
                     }
                 }
             }
-            runOnUiThread(() -> {
+        }
+        /* Links are kept in the blocks themselves, so they survive being moved to the actual pane */
+        stagingPane.removeAllViews();
+        long buildTime = SystemClock.uptimeMillis() - buildStart;
+
+        runOnUiThread(new Runnable() {
+            private int attached = 0;
+            private int frames = 0;
+            private long attachTime = 0;
+
+            @Override
+            public void run() {
+                long frameStart = SystemClock.uptimeMillis();
+                frames++;
+                while (attached < blocks.size()) {
+                    Rs block = blocks.get(attached++);
+                    o.g = Math.max(o.g, (Integer) block.getTag() + 1);
+                    o.a(block, 0, 0);
+                    block.setOnTouchListener(LogicEditorActivity.this);
+                    if (attached < blocks.size() && SystemClock.uptimeMillis() - frameStart >= EVENT_BLOCKS_ATTACH_FRAME_BUDGET_MS) {
+                        attachTime += SystemClock.uptimeMillis() - frameStart;
+                        o.post(this);
+                        return;
+                    }
+                }
+
+                long layoutStart = SystemClock.uptimeMillis();
+                attachTime += layoutStart - frameStart;
+                if (!blocks.isEmpty()) {
+                    o.getRoot().b(blocks.get(0));
+                }
                 o.getRoot().k();
                 o.b();
-            });
-        }
+                long layoutTime = SystemClock.uptimeMillis() - layoutStart;
+                LogUtil.d(TAG, "Opened " + C + "_" + D + " with " + blocks.size() + " blocks: built in "
+                        + buildTime + " ms, attached in " + attachTime + " ms over " + frames + " frame(s), laid out in "
+                        + layoutTime + " ms");
+                onLoaded.run();
+            }
+        });
     }
 
     public static ArrayList<String> getAllJavaFileNames(String projectScId) {
@@ -475,9 +523,9 @@ public class LogicEditorActivity extends BaseAppCompatActivity implements View.O
         if ("app_name".equals(key)) {
             return true;
         }
-        eC projectDataManager = jC.a(projectScId);
+        ProjectUsageIndex usageIndex = ProjectUsageIndex.get(projectScId);
 
-        return isKeyHasNonSavedUsage(key) || isKeyUsedInJavaFiles(projectDataManager, projectScId, key) || isKeyUsedInXmlFiles(projectDataManager, projectScId, key);
+        return isKeyHasNonSavedUsage(key) || isKeyUsedInJavaFiles(usageIndex, key) || isKeyUsedInXmlFiles(usageIndex, key);
     }
 
     private boolean isKeyHasNonSavedUsage(String key) {
@@ -503,37 +551,23 @@ public class LogicEditorActivity extends BaseAppCompatActivity implements View.O
         return false;
     }
 
-    private boolean isKeyUsedInJavaFiles(eC projectDataManager, String projectScId, String key) {
+    private boolean isKeyUsedInJavaFiles(ProjectUsageIndex usageIndex, String key) {
 
-        if ((getStringUsageLengthInJava(projectDataManager, projectScId, key) == 1) && isKeyHasSavedUsage(key) && !isKeyHasNonSavedUsage(key)) {
+        if ((getStringUsageLengthInJava(usageIndex, key) == 1) && isKeyHasSavedUsage(key) && !isKeyHasNonSavedUsage(key)) {
             return false;
         }
 
-        for (String javaFileName : getAllJavaFileNames(projectScId)) {
-            for (Map.Entry<String, ArrayList<BlockBean>> entry : projectDataManager.b(javaFileName).entrySet()) {
-                for (BlockBean block : entry.getValue()) {
-                    if (block.opCode.equals("getResStr") && block.spec.equals(key) ||
-                            (block.opCode.equals("getResString") && block.parameters.get(0).equals("R.string." + key))) {
-
-                        showToastError();
-                        return true;
-                    }
-                }
-            }
+        if (usageIndex.isUsedInBlocks(ProjectUsageIndex.Kind.STRING_RESOURCE, key, null, null)) {
+            showToastError();
+            return true;
         }
         return false;
     }
 
-    private boolean isKeyUsedInXmlFiles(eC projectDataManager, String projectScId, String key) {
-        for (String xmlFileName : getAllXmlFileNames(projectScId)) {
-            for (ViewBean view : projectDataManager.d(xmlFileName)) {
-                if (view.text.text.equals("@string/" + key) ||
-                        (view.text.hint.equals("@string/" + key))) {
-
-                    showToastError();
-                    return true;
-                }
-            }
+    private boolean isKeyUsedInXmlFiles(ProjectUsageIndex usageIndex, String key) {
+        if (usageIndex.isUsedInLayouts(ProjectUsageIndex.Kind.STRING_RESOURCE, key)) {
+            showToastError();
+            return true;
         }
         return false;
     }
@@ -542,20 +576,8 @@ public class LogicEditorActivity extends BaseAppCompatActivity implements View.O
         SketchwareUtil.toastError(Helper.getResString(R.string.logic_editor_title_remove_xml_string_error));
     }
 
-    private int getStringUsageLengthInJava(eC projectDataManager, String projectScId, String key) {
-        int length = 0;
-        for (String javaFileName : getAllJavaFileNames(projectScId)) {
-            for (Map.Entry<String, ArrayList<BlockBean>> entry : projectDataManager.b(javaFileName).entrySet()) {
-                for (BlockBean block : entry.getValue()) {
-                    if (block.opCode.equals("getResStr") && block.spec.equals(key) ||
-                            (block.opCode.equals("getResString") && block.parameters.get(0).equals("R.string." + key))) {
-
-                        length++;
-                    }
-                }
-            }
-        }
-        return length;
+    private int getStringUsageLengthInJava(ProjectUsageIndex usageIndex, String key) {
+        return usageIndex.getBlockUsageCount(ProjectUsageIndex.Kind.STRING_RESOURCE, key);
     }
 
     public void openResourcesEditor() {
@@ -2800,8 +2822,7 @@ public class LogicEditorActivity extends BaseAppCompatActivity implements View.O
         private void doInBackground() {
             LogicEditorActivity activity = getActivity();
             if (activity != null) {
-                activity.loadEventBlocks();
-                activity.runOnUiThread(activity::h);
+                activity.loadEventBlocks(activity::h);
             }
         }
 
@@ -22,19 +22,29 @@ public class ProjectComparator implements Comparator<HashMap<String, Object>> {
         this.sortBy = sortBy;
     }
 
+    /**
+     * @return If projects get sorted by their IDs only, so {@link #compareIds(String, String)} can sort
+     * them without their metadata
+     */
+    public boolean sortsById() {
+        return (sortBy & SORT_BY_ID) == SORT_BY_ID || (sortBy & SORT_BY_NAME) != SORT_BY_NAME;
+    }
+
+    /**
+     * Compares two projects by their IDs, if {@link #sortsById()}.
+     */
+    public int compareIds(String firstScId, String secondScId) {
+        boolean isSortOrderAscending = (sortBy & SORT_BY_ID) == SORT_BY_ID && (sortBy & SORT_ORDER_ASCENDING) == SORT_ORDER_ASCENDING;
+        return Integer.compare(Integer.parseInt(firstScId), Integer.parseInt(secondScId)) * (isSortOrderAscending ? 1 : -1);
+    }
+
     @Override
     public int compare(HashMap<String, Object> first, HashMap<String, Object> second) {
-        boolean isSortOrderAscending = (sortBy & SORT_ORDER_ASCENDING) == SORT_ORDER_ASCENDING;
-        if ((sortBy & SORT_BY_ID) == SORT_BY_ID) {
-            return Integer.compare(
-                    Integer.parseInt(yB.c(first, "sc_id")),
-                    Integer.parseInt(yB.c(second, "sc_id"))) * (isSortOrderAscending ? 1 : -1);
-        } else if ((sortBy & SORT_BY_NAME) == SORT_BY_NAME) {
-            return yB.c(first, "my_ws_name").compareTo(yB.c(second, "my_ws_name")) * (isSortOrderAscending ? 1 : -1);
+        if (sortsById()) {
+            return compareIds(yB.c(first, "sc_id"), yB.c(second, "sc_id"));
         } else {
-            return Integer.compare(
-                    Integer.parseInt(yB.c(first, "sc_id")),
-                    Integer.parseInt(yB.c(second, "sc_id"))) * -1;
+            boolean isSortOrderAscending = (sortBy & SORT_ORDER_ASCENDING) == SORT_ORDER_ASCENDING;
+            return yB.c(first, "my_ws_name").compareTo(yB.c(second, "my_ws_name")) * (isSortOrderAscending ? 1 : -1);
         }
     }
 }
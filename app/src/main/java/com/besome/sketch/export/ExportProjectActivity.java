@@ -49,6 +49,7 @@ import mod.hey.studios.project.proguard.ProguardHandler;
 import mod.hey.studios.project.stringfog.StringfogHandler;
 import mod.hey.studios.util.Helper;
 import mod.jbk.build.BuildProgressReceiver;
+import mod.jbk.build.BuildTraceHistory;
 import mod.jbk.build.BuiltInLibraries;
 import mod.jbk.build.compiler.bundle.AppBundleCompiler;
 import mod.jbk.export.GetKeyStoreCredentialsDialog;
@@ -524,7 +525,9 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
 
                 builder = new ProjectBuilder(this, a, project_metadata);
                 builder.setBuildAppBundle(buildingAppBundle);
+                builder.buildTrace.start();
 
+                builder.buildTrace.nextPhase("Source generation");
                 project_metadata.a(iCVar, hCVar, eCVar, exportType);
                 builder.buildBuiltInLibraryInformation();
                 project_metadata.b(hCVar, eCVar, iCVar, builder.getBuiltInLibraryManager());
@@ -535,6 +538,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
 
                 /* Check AAPT/AAPT2 */
                 publishProgress("Extracting AAPT/AAPT2 binaries...");
+                builder.buildTrace.nextPhase("AAPT2 extraction");
                 builder.maybeExtractAapt2();
                 if (canceled) {
                     cancel(true);
@@ -543,6 +547,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
 
                 /* Check built-in libraries */
                 publishProgress("Extracting built-in libraries...");
+                builder.buildTrace.nextPhase("Built-in library extraction");
                 BuiltInLibraries.extractCompileAssets(this);
                 if (canceled) {
                     cancel(true);
@@ -552,12 +557,14 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                 builder.buildBuiltInLibraryInformation();
 
                 publishProgress("AAPT2 is running...");
+                builder.buildTrace.nextPhase("AAPT2");
                 builder.compileResources();
                 if (canceled) {
                     cancel(true);
                     return;
                 }
 
+                builder.buildTrace.nextPhase("Kotlin");
                 KotlinCompilerBridge.compileKotlinCodeIfPossible(this, builder);
                 if (canceled) {
                     cancel(true);
@@ -565,6 +572,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                 }
 
                 publishProgress("Java is compiling...");
+                builder.buildTrace.nextPhase("ECJ");
                 builder.compileJavaCode();
                 if (canceled) {
                     cancel(true);
@@ -572,6 +580,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                 }
 
                 /* Encrypt Strings in classes if enabled */
+                builder.buildTrace.nextPhase("StringFog");
                 StringfogHandler stringfogHandler = new StringfogHandler(project_metadata.sc_id);
                 stringfogHandler.start(this, builder);
                 if (canceled) {
@@ -580,6 +589,8 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                 }
 
                 /* Obfuscate classes if enabled */
+                String shrinkerName = builder.getShrinkerName();
+                builder.buildTrace.nextPhase(shrinkerName != null ? shrinkerName : "Shrinking");
                 ProguardHandler proguardHandler = new ProguardHandler(project_metadata.sc_id);
                 proguardHandler.start(this, builder);
                 if (canceled) {
@@ -589,6 +600,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
 
                 /* Create DEX file(s) */
                 publishProgress(builder.getDxRunningText());
+                builder.buildTrace.nextPhase("Dexing (" + builder.getDexerName() + ")");
                 builder.createDexFilesFromClasses();
                 if (canceled) {
                     cancel(true);
@@ -597,6 +609,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
 
                 /* Merge DEX file(s) with libraries' dexes */
                 publishProgress("Merging libraries' DEX files...");
+                builder.buildTrace.nextPhase("DEX merge");
                 builder.getDexFilesReady();
                 if (canceled) {
                     cancel(true);
@@ -606,12 +619,15 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                 if (buildingAppBundle) {
                     AppBundleCompiler compiler = new AppBundleCompiler(builder);
                     publishProgress("Creating app module...");
+                    builder.buildTrace.nextPhase("App module creation");
                     compiler.createModuleMainArchive();
                     publishProgress("Building app bundle...");
+                    builder.buildTrace.nextPhase("App bundle building");
                     compiler.buildBundle();
 
                     /* Sign the generated .aab file */
                     publishProgress("Signing app bundle...");
+                    builder.buildTrace.nextPhase("App bundle signing");
 
                     String createdBundlePath = AppBundleCompiler.getDefaultAppBundleOutputFile(project_metadata).getAbsolutePath();
                     String signedAppBundleDirectoryPath = FileUtil.getExternalStorageDir()
@@ -642,6 +658,14 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                     }
                 } else {
                     publishProgress("Building APK...");
+                    String outputLocation = getCorrectResultFilename(builder.yq.releaseApkPath);
+                    /* Testkey-signed APKs can be built, aligned and signed in a single pass */
+                    builder.buildTrace.nextPhase("APK building");
+                    if (signWithTestkey && builder.buildSignedApk(outputLocation)) {
+                        writeBuildTrace();
+                        return;
+                    }
+
                     builder.buildApk();
                     if (canceled) {
                         cancel(true);
@@ -656,7 +680,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                     }
 
                     publishProgress("Signing APK...");
-                    String outputLocation = getCorrectResultFilename(builder.yq.releaseApkPath);
+                    builder.buildTrace.nextPhase("APK signing");
                     if (signWithTestkey) {
                         TestkeySignBridge.signWithTestkey(builder.yq.unsignedAlignedApkPath, outputLocation);
                     } else if (isResultJarSigningEnabled()) {
@@ -675,6 +699,7 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
                         FileUtil.copyFile(builder.yq.unsignedAlignedApkPath, outputLocation);
                     }
                 }
+                writeBuildTrace();
             } catch (Throwable throwable) {
                 if (throwable instanceof LoadKeystoreException &&
                         "Incorrect password, or integrity check failed.".equals(throwable.getMessage())) {
@@ -690,6 +715,16 @@ public class ExportProjectActivity extends BaseAppCompatActivity {
             }
         }
 
+        /**
+         * Ends the last phase of the export, writes its trace next to the project's build outputs
+         * and adds it to the project's build history.
+         */
+        private void writeBuildTrace() {
+            builder.buildTrace.endPhase();
+            builder.buildTrace.writeChromeTrace(new File(builder.yq.binDirectoryPath, "export-trace.json"));
+            new BuildTraceHistory(builder.yq.sc_id).add(builder.buildTrace, true);
+        }
+
         @Override
         public void onCancel(DialogInterface dialog) {
             if (!activity.get().progressDialog.isCancelable()) {
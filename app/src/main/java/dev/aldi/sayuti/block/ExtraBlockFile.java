@@ -2,14 +2,11 @@ package dev.aldi.sayuti.block;
 
 import android.os.Environment;
 
-import com.google.gson.Gson;
-
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import mod.hey.studios.util.Helper;
-import mod.hilal.saif.blocks.BlocksHandler;
+import mod.hey.studios.editor.manage.block.v2.BlockLoader;
 import pro.sketchware.utility.FileUtil;
 
 public class ExtraBlockFile {
@@ -19,16 +16,17 @@ public class ExtraBlockFile {
     public static final File EXTRA_BLOCKS_PALETTE_FILE = new File(Environment.getExternalStorageDirectory(),
             ".sketchware/resources/block/My Block/palette.json");
 
-    public static ArrayList<HashMap<String, Object>> buildInBlocks = new ArrayList<>();
+    /**
+     * Built-in blocks, filled by {@link BlockLoader} while holding its lock only.
+     */
+    public static final ArrayList<HashMap<String, Object>> buildInBlocks = new ArrayList<>();
 
+    /**
+     * @return Custom Blocks of {@link ExtraBlockFile#EXTRA_BLOCKS_DATA_FILE} followed by built-in blocks,
+     * as indexed by {@link BlockLoader}. Shared, so must not be modified.
+     */
     public static ArrayList<HashMap<String, Object>> getExtraBlockData() {
-        ArrayList<HashMap<String, Object>> extraBlocks = new Gson().fromJson(getExtraBlockFile(), Helper.TYPE_MAP_LIST);
-
-        buildInBlocks.clear();
-        BlocksHandler.builtInBlocks(buildInBlocks);
-        extraBlocks.addAll(buildInBlocks);
-
-        return extraBlocks;
+        return BlockLoader.getExtraBlockData();
     }
 
     /**
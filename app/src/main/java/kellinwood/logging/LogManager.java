@@ -59,7 +59,7 @@ public class LogManager {
         else return category;
     }
 
-	public static Logger getLogger(String category) {
+	public static synchronized Logger getLogger(String category) {
 		
 		Logger logger = loggers.get( category);
 		if (logger == null) {
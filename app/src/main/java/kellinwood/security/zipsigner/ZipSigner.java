@@ -34,6 +34,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Method;
@@ -62,6 +63,11 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -87,7 +93,7 @@ import kellinwood.zipio.ZipOutput;
 public class ZipSigner 
 {
 
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
 
     private final ProgressHelper progressHelper = new ProgressHelper();
     private ResourceAdapter resourceAdapter = new DefaultResourceAdapter();
@@ -409,11 +415,6 @@ public class ZipSigner
             main.putValue("Created-By", "1.0 (Android SignApk)");
         }
 
-        // BASE64Encoder base64 = new BASE64Encoder();
-        MessageDigest md = MessageDigest.getInstance("SHA1");
-        byte[] buffer = new byte[512];
-        int num;
-
         // We sort the input entries by name, and add them to the
         // output manifest in sorted order.  We expect that the output
         // map will be deterministic.
@@ -423,8 +424,9 @@ public class ZipSigner
 
         boolean debug = log.isDebugEnabled();
         if (debug) log.debug("Manifest entries:");
+        List<ZioEntry> toDigest = new ArrayList<ZioEntry>();
+        boolean concurrent = true;
         for (ZioEntry entry: byName.values()) {
-            if (canceled) break;
             String name = entry.getName();
             if (debug) log.debug(name);
             if (!entry.isDirectory() && !name.equals(JarFile.MANIFEST_NAME) &&
@@ -432,28 +434,101 @@ public class ZipSigner
                     (stripPattern == null ||
                      !stripPattern.matcher(name).matches()))
             {
+                toDigest.add( entry);
+                concurrent &= entry.prepareConcurrentRead();
+            }
+        }
+
+        // Entries of a mapped zip file can be digested concurrently, each thread with its own
+        // MessageDigest and buffer.  Digests are collected in name order, so the manifest is
+        // the same either way.
+        int threads = concurrent ? Math.min( toDigest.size(), Runtime.getRuntime().availableProcessors()) : 1;
+        ExecutorService digesters = threads > 1 ? Executors.newFixedThreadPool( threads) : null;
+        try {
+            List<Future<byte[]>> digests = new ArrayList<Future<byte[]>>( toDigest.size());
+            if (digesters != null) {
+                for (final ZioEntry entry : toDigest) {
+                    digests.add( digesters.submit( new Callable<byte[]>() {
+                        public byte[] call() throws Exception {
+                            if (canceled) return null;
+                            return digestEntry( entry);
+                        }
+                    }));
+                }
+            }
+
+            for (int i = 0; i < toDigest.size(); i++) {
+                if (canceled) break;
+                ZioEntry entry = toDigest.get(i);
+                String name = entry.getName();
 
                 progressHelper.progress( ProgressEvent.PRORITY_NORMAL, resourceAdapter.getString(ResourceAdapter.Item.GENERATING_MANIFEST));
-                InputStream data = entry.getInputStream();
-                while ((num = data.read(buffer)) > 0) {
-                    md.update(buffer, 0, num);
+                byte[] digest;
+                if (digesters == null) digest = digestEntry( entry);
+                else {
+                    try {
+                        digest = digests.get(i).get();
+                    }
+                    catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) throw (IOException)cause;
+                        if (cause instanceof GeneralSecurityException) throw (GeneralSecurityException)cause;
+                        throw new IOException( "Failed to digest " + name, cause);
+                    }
+                    catch (InterruptedException e) {
+                        throw new InterruptedIOException( "Interrupted while digesting " + name);
+                    }
                 }
-                    
+                if (digest == null) break; // canceled while digesting
+
                 Attributes attr = null;
                 if (input != null) {
                     java.util.jar.Attributes inAttr = input.getAttributes(name); 
                     if (inAttr != null) attr = new Attributes( inAttr);
                 }
                 if (attr == null) attr = new Attributes();
-                attr.putValue("SHA1-Digest", Base64.encode(md.digest()));
+                attr.putValue("SHA1-Digest", Base64.encode(digest));
                 output.getEntries().put(name, attr);
             }
         }
+        finally {
+            if (digesters != null) digesters.shutdownNow();
+        }
 
         return output;
     }
 
 
+    private static final ThreadLocal<MessageDigest> sha1Digests = new ThreadLocal<MessageDigest>();
+    private static final ThreadLocal<byte[]> digestBuffers = new ThreadLocal<byte[]>();
+
+    /**
+     * Returns the SHA1 digest of an entry's data, using the calling thread's MessageDigest and buffer,
+     * or null if signing got canceled meanwhile.
+     */
+    private byte[] digestEntry( ZioEntry entry) throws IOException, GeneralSecurityException
+    {
+        MessageDigest md = sha1Digests.get();
+        if (md == null) {
+            md = MessageDigest.getInstance("SHA1");
+            sha1Digests.set( md);
+        }
+        byte[] buffer = digestBuffers.get();
+        if (buffer == null) {
+            buffer = new byte[64 * 1024];
+            digestBuffers.set( buffer);
+        }
+
+        md.reset();
+        InputStream data = entry.getInputStream();
+        int num;
+        while ((num = data.read(buffer)) > 0) {
+            if (canceled) return null;
+            md.update(buffer, 0, num);
+        }
+        return md.digest();
+    }
+
     /** Write the signature file to the given output stream. */
     private void generateSignatureFile(Manifest manifest, OutputStream out)
     throws IOException, GeneralSecurityException {
@@ -222,6 +222,18 @@ public class ZioEntry implements Cloneable {
 
     }
 
+    /** Prepares reading this entry's data while other threads read other entries of the same
+     *  zip file, which is only possible if the entry gets read from a memory mapped zip file.
+     *  Must be called before any thread starts reading.
+     *  @return true if {@link #getInputStream()} may be used concurrently with other entries' streams
+     */
+    public boolean prepareConcurrentRead() throws IOException
+    {
+        if (data != null || entryOut != null || zipInput == null || !zipInput.isMapped()) return false;
+        if (dataPosition < 0) readLocalHeader();
+        return true;
+    }
+
     public void writeLocalEntry( ZipOutput output) throws IOException
     {
         if (data == null && dataPosition < 0 && zipInput != null) {
@@ -302,7 +314,7 @@ public class ZioEntry implements Cloneable {
             long totalCount = 0;
             
             while (totalCount != compressedSize) {
-                int numRead = zipInput.in.read( buffer, 0, (int)Math.min( compressedSize -  totalCount, bufferSize));  
+                int numRead = zipInput.read( buffer, 0, (int)Math.min( compressedSize -  totalCount, bufferSize));  
                 if (numRead > 0) {
                     output.writeBytes(buffer, 0, numRead);
                     if (debug) log.debug(String.format("Wrote %d bytes", numRead));
@@ -18,37 +18,43 @@ package kellinwood.zipio;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import kellinwood.logging.Logger;
 
-/** Input stream used to read just the data from a zip file entry. */
+/** Input stream used to read just the data from a zip file entry.  Reads from the entry's own
+ *  view of the mapped zip file if it's mapped, so streams of different entries don't interfere.
+ */
 public class ZioEntryInputStream extends InputStream {
 
-    RandomAccessFile raf;
+    ZipInput zipInput;
+    ByteBuffer data;
     int size;
     int offset;
-    Logger log;
+    private static final Logger log = Logger.getLogger(ZioEntryInputStream.class);
     boolean debug;
     boolean returnDummyByte = false;
     OutputStream monitor = null;
+    private final byte[] single = new byte[1];
     
     public ZioEntryInputStream( ZioEntry entry) throws IOException {
 
-        log = Logger.getLogger(getClass());
         debug = log.isDebugEnabled();
         offset = 0;
         size = entry.getCompressedSize();
-        raf = entry.getZipInput().in;
+        zipInput = entry.getZipInput();
         long dpos = entry.getDataPosition();
-        if (dpos >= 0) {
-            if (debug) log.debug(String.format("Seeking to %d", entry.getDataPosition()));
-            raf.seek( entry.getDataPosition());
-        }
-        else {
+        if (dpos < 0) {
             // seeks to, then reads, the local header, causing the 
             // file pointer to be positioned at the start of the data.
             entry.readLocalHeader();
+            dpos = entry.getDataPosition();
+        }
+        // Doesn't touch the shared file pointer if the file is mapped
+        data = zipInput.slice( dpos, size);
+        if (data == null) {
+            if (debug) log.debug(String.format("Seeking to %d", dpos));
+            zipInput.seek( dpos);
         }
         
     }
@@ -88,7 +94,9 @@ public class ZioEntryInputStream extends InputStream {
             }
             else return -1;
         }
-        int b = raf.read();
+        int b;
+        if (data != null) b = data.hasRemaining() ? data.get() & 0xff : -1;
+        else b = zipInput.read( single, 0, 1) == 1 ? single[0] & 0xff : -1;
         if (b >= 0) {
             if (monitor != null) monitor.write(b);
             if (debug) log.debug("Read 1 byte");
@@ -113,7 +121,13 @@ public class ZioEntryInputStream extends InputStream {
             else return -1;
         }        
         int numToRead = Math.min( len, available());
-        int numRead = raf.read(b, off, numToRead);
+        int numRead;
+        if (data != null) {
+            numRead = Math.min( numToRead, data.remaining());
+            if (numRead == 0 && numToRead > 0) numRead = -1;
+            else data.get( b, off, numRead);
+        }
+        else numRead = zipInput.read(b, off, numToRead);
         if (numRead > 0) {
             if (monitor != null) monitor.write(b, off, numRead);
             offset += numRead;
@@ -129,8 +143,10 @@ public class ZioEntryInputStream extends InputStream {
 
     @Override
     public long skip(long n) throws IOException {
-        long numToSkip = Math.min( n, available());
-        raf.seek( raf.getFilePointer() + numToSkip);
+        long numToSkip = Math.max( 0, Math.min( n, size - offset));
+        if (data != null) data.position( data.position() + (int)numToSkip);
+        else zipInput.seek( zipInput.getFilePointer() + numToSkip);
+        offset += numToSkip;
         if (debug) log.debug(String.format("Skipped %d bytes", numToSkip));                
         return numToSkip;
     }
@@ -15,9 +15,13 @@
  */
 package kellinwood.zipio;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -30,7 +34,9 @@ import java.util.regex.Pattern;
 import kellinwood.logging.Logger;
 
 /**
- *
+ * Reads zip files through a read-only, little-endian memory mapping of the whole file, so that
+ * parsing the central directory and local headers doesn't cost a syscall per byte.  Files too
+ * large to be mapped at once are read through the RandomAccessFile instead.
  */
 public class ZipInput 
 {
@@ -39,6 +45,8 @@ public class ZipInput
 
     public String inputFilename;
     RandomAccessFile in = null;
+    /** Mapping of the whole file, or null if the file is read through {@link #in}. */
+    ByteBuffer mapped = null;
     long fileLength;
     int scanIterations = 0;
 
@@ -51,6 +59,9 @@ public class ZipInput
         this.inputFilename = filename;
         in = new RandomAccessFile( new File( inputFilename), "r");
         fileLength = in.length();
+        if (fileLength <= Integer.MAX_VALUE) {
+            mapped = in.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, fileLength).order( ByteOrder.LITTLE_ENDIAN);
+        }
     }
 
 
@@ -63,8 +74,13 @@ public class ZipInput
     }
     
     public static ZipInput read( String filename) throws IOException {
+        long start = System.currentTimeMillis();
         ZipInput zipInput = new ZipInput( filename);
         zipInput.doRead();
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Read %d entries of %s in %d ms (%s)", zipInput.zioEntries.size(), filename,
+                System.currentTimeMillis() - start, zipInput.isMapped() ? "mapped" : "RandomAccessFile"));
+        }
         return zipInput;
     }
     
@@ -117,11 +133,9 @@ public class ZipInput
 
         int scanSize = (int)Math.min( fileLength, size);
 
-        byte[] scanBuf = new byte[scanSize];
+        seek( fileLength - scanSize);
 
-        in.seek( fileLength - scanSize);
-
-        in.readFully( scanBuf);
+        byte[] scanBuf = readBytes( scanSize);
 
         for (int i = scanSize - 22; i >= 0; i--) {
             scanIterations += 1;
@@ -139,7 +153,7 @@ public class ZipInput
         try {
 
             long posEOCDR = scanForEOCDR( 256);
-            in.seek( posEOCDR);
+            seek( posEOCDR);
             centralEnd = CentralEnd.read( this);
 
             boolean debug = log.isDebugEnabled();
@@ -151,7 +165,7 @@ public class ZipInput
                 ZipListingHelper.listHeader( log);
             }
 
-            in.seek( centralEnd.centralStartOffset);            
+            seek( centralEnd.centralStartOffset);
 
             for (int i = 0; i < centralEnd.totalCentralEntries; i++) {
                 ZioEntry entry = ZioEntry.read(this);
@@ -166,59 +180,94 @@ public class ZipInput
     }
 
     public void close() {
+        mapped = null;
         if (in != null) try { in.close(); } catch( Throwable t) {}
     }
 
+    /** Returns true if the file is memory mapped, in which case entries can be read concurrently. */
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
     public long getFilePointer() throws IOException {
+        if (mapped != null) return mapped.position();
         return in.getFilePointer(); 
     }
 
     public void seek( long position) throws IOException {
-        in.seek(position);
+        if (mapped != null) {
+            if (position > fileLength) throw new EOFException( "Seek beyond end of " + inputFilename);
+            mapped.position( (int)position);
+        }
+        else in.seek(position);
     }
 
     public byte readByte() throws IOException {
+        if (mapped != null) {
+            ensureRemaining( 1);
+            return mapped.get();
+        }
         return in.readByte();
     }
     
     public int readInt() throws IOException{
-        int result = 0;
-        for (int i = 0; i < 4; i++) {
-            result |= (in.readUnsignedByte() << (8 * i));
+        if (mapped != null) {
+            ensureRemaining( 4);
+            return mapped.getInt();
         }
-        return result;
+        byte[] buffer = readBytes( 4);
+        return (buffer[0] & 0xff) | (buffer[1] & 0xff) << 8 | (buffer[2] & 0xff) << 16 | (buffer[3] & 0xff) << 24;
     }
 
     public short readShort() throws IOException {
-        short result = 0;
-        for (int i = 0; i < 2; i++) {
-            result |= (in.readUnsignedByte() << (8 * i));
+        if (mapped != null) {
+            ensureRemaining( 2);
+            return mapped.getShort();
         }
-        return result;
+        byte[] buffer = readBytes( 2);
+        return (short)((buffer[0] & 0xff) | (buffer[1] & 0xff) << 8);
     }
 
     public String readString( int length) throws IOException {
-
-        byte[] buffer = new byte[length];
-        for (int i = 0; i < length; i++) {
-            buffer[i] = in.readByte();
-        }
-        return new String(buffer);
+        return new String( readBytes( length));
     }
 
     public byte[] readBytes( int length) throws IOException {
 
         byte[] buffer = new byte[length];
-        for (int i = 0; i < length; i++) {
-            buffer[i] = in.readByte();
+        if (mapped != null) {
+            ensureRemaining( length);
+            mapped.get( buffer);
         }
+        else in.readFully( buffer);
         return buffer;
     }
 
     public int read( byte[] b, int offset, int length) throws IOException {
+        if (mapped != null) {
+            if (length == 0) return 0;
+            if (!mapped.hasRemaining()) return -1;
+            int count = Math.min( length, mapped.remaining());
+            mapped.get( b, offset, count);
+            return count;
+        }
         return in.read( b, offset, length);
     }
 
-}
+    /** Returns a view of {@code length} bytes at {@code position} with its own position, so
+     *  that multiple entries can be read at the same time, or null if the file isn't mapped.
+     */
+    ByteBuffer slice( long position, int length) throws EOFException {
+        if (mapped == null) return null;
+        if (position + length > fileLength) throw new EOFException( "Unexpected end of " + inputFilename);
+        ByteBuffer region = mapped.duplicate();
+        region.limit( (int)position + length);
+        region.position( (int)position);
+        return region.slice();
+    }
 
+    private void ensureRemaining( int length) throws EOFException {
+        if (mapped.remaining() < length) throw new EOFException( "Unexpected end of " + inputFilename);
+    }
 
+}
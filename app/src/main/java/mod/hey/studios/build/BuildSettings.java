@@ -14,6 +14,8 @@ public class BuildSettings extends ProjectSettings implements Serializable {
     public static final String SETTING_NO_HTTP_LEGACY = "no_http_legacy";
     public static final String SETTING_NO_WARNINGS = "no_warn";
     public static final String SETTING_ENABLE_LOGCAT = "enable_logcat";
+    public static final String SETTING_RESOURCE_COMPILE_THREADS = "resource_compile_threads";
+    public static final String SETTING_KEEP_BUILD_OUTPUTS = "keep_build_outputs";
 
     public static final String SETTING_DEXER_D8 = "D8";
     public static final String SETTING_DEXER_DX = "Dx";
@@ -12,11 +12,16 @@ import com.google.gson.reflect.TypeToken;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 import dev.aldi.sayuti.block.ExtraBlockFile;
 import mod.agus.jcoderz.editor.manage.block.palette.PaletteSelector;
 import mod.hey.studios.editor.manage.block.ExtraBlockInfo;
+import mod.hey.studios.util.Helper;
+import mod.hilal.saif.blocks.BlocksHandler;
 import mod.jbk.util.LogUtil;
 import pro.sketchware.R;
 import pro.sketchware.SketchApplication;
@@ -25,26 +30,41 @@ import pro.sketchware.utility.SketchwareUtil;
 
 /**
  * An optimized Custom Blocks loader.
+ * <p>
+ * Keeps Custom Blocks and built-in blocks indexed by their names, so looking up a block while
+ * rendering or generating code doesn't need to go through all of them. The index gets built once
+ * per version of <code>block.json</code> and <code>palette.json</code> (going by their size and last
+ * modification time), as well as whenever {@link #refresh()} gets called after editing blocks.
+ * Projects' Custom Blocks are indexed per version of their <code>custom_blocks</code> file.
  *
  * @since v6.3.0
  */
 public class BlockLoader {
 
-    private static ArrayList<ExtraBlockInfo> blocks;
+    private static final HashMap<String, ProjectBlocks> projectBlocks = new HashMap<>();
+    // Only published once complete, as source code generation reads it from multiple threads
+    private static volatile Registry registry;
 
     static {
         loadCustomBlocks();
     }
 
     public static ExtraBlockInfo getBlockInfo(String block_name) {
-        if (blocks == null) {
-            loadCustomBlocks();
+        ExtraBlockInfo info = getRegistry().blockInfos.get(block_name);
+        if (info != null) {
+            return info;
         }
 
-        for (ExtraBlockInfo info : blocks) {
-            if (info.getName().equals(block_name)) {
-                return info;
-            }
+        ExtraBlockInfo in = new ExtraBlockInfo();
+        in.setName(block_name);
+        in.isMissing = true;
+        return in;
+    }
+
+    public static ExtraBlockInfo getBlockFromProject(String sc_id, String block_name) {
+        ExtraBlockInfo info = getProjectBlocks(sc_id).get(block_name);
+        if (info != null) {
+            return info;
         }
 
         ExtraBlockInfo in = new ExtraBlockInfo();
@@ -53,9 +73,69 @@ public class BlockLoader {
         return in;
     }
 
-    public static ExtraBlockInfo getBlockFromProject(String sc_id, String block_name) {
+    /**
+     * @return Custom Blocks of <code>block.json</code> followed by built-in blocks, loaded again if
+     * <code>block.json</code> or <code>palette.json</code> changed. Shared, so must not be modified.
+     */
+    public static ArrayList<HashMap<String, Object>> getExtraBlockData() {
+        return getUpToDateRegistry().extraBlockData;
+    }
+
+    /**
+     * @return The same blocks as {@link #getExtraBlockData()}, by their names. Shared, so must not be modified.
+     */
+    public static Map<String, HashMap<String, Object>> getExtraBlocks() {
+        return getUpToDateRegistry().extraBlocks;
+    }
+
+    public static boolean isBuiltInBlock(String block_name) {
+        return getRegistry().builtInBlockNames.contains(block_name);
+    }
+
+    private static Registry getRegistry() {
+        Registry registry = BlockLoader.registry;
+        if (registry == null) {
+            synchronized (BlockLoader.class) {
+                if (BlockLoader.registry == null) {
+                    loadCustomBlocks();
+                }
+                registry = BlockLoader.registry;
+            }
+        }
+        return registry;
+    }
+
+    private static Registry getUpToDateRegistry() {
+        Registry registry = getRegistry();
+        if (!registry.version.equals(getVersion())) {
+            synchronized (BlockLoader.class) {
+                if (!BlockLoader.registry.version.equals(getVersion())) {
+                    loadCustomBlocks();
+                }
+                registry = BlockLoader.registry;
+            }
+        }
+        return registry;
+    }
+
+    private static String getVersion() {
+        return getVersion(ExtraBlockFile.EXTRA_BLOCKS_DATA_FILE) + "/" + getVersion(ExtraBlockFile.EXTRA_BLOCKS_PALETTE_FILE);
+    }
+
+    private static String getVersion(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    private static synchronized HashMap<String, ExtraBlockInfo> getProjectBlocks(String sc_id) {
         File customBlocksConfig = new File(Environment.getExternalStorageDirectory(),
                 ".sketchware/data/" + sc_id + "/custom_blocks");
+        String version = getVersion(customBlocksConfig);
+        ProjectBlocks blocks = projectBlocks.get(sc_id);
+        if (blocks != null && blocks.version.equals(version)) {
+            return blocks.blockInfos;
+        }
+
+        HashMap<String, ExtraBlockInfo> blockInfos = new HashMap<>();
         if (customBlocksConfig.exists()) {
             try {
                 ArrayList<ExtraBlockInfo> extraBlocks = new Gson().fromJson(
@@ -64,28 +144,49 @@ public class BlockLoader {
                         }.getType());
 
                 for (ExtraBlockInfo info : extraBlocks) {
-                    if (block_name.equals(info.getName())) {
-                        return info;
+                    if (info.getName() != null) {
+                        blockInfos.putIfAbsent(info.getName(), info);
                     }
                 }
-
             } catch (Exception e) {
                 SketchwareUtil.toastError("Failed to get Custom Blocks for project " + sc_id + ": " + e.getMessage());
             }
         }
-
-        ExtraBlockInfo in = new ExtraBlockInfo();
-        in.setName(block_name);
-        in.isMissing = true;
-        return in;
+        projectBlocks.put(sc_id, new ProjectBlocks(version, blockInfos));
+        return blockInfos;
     }
 
-    private static void loadCustomBlocks() {
-        ArrayList<HashMap<String, Object>> palettes = new PaletteSelector().getPaletteSelector();
+    private static synchronized void loadCustomBlocks() {
+        String version = getVersion();
 
-        blocks = new ArrayList<>();
+        if (ExtraBlockFile.buildInBlocks.isEmpty()) {
+            BlocksHandler.builtInBlocks(ExtraBlockFile.buildInBlocks);
+        }
+        HashSet<String> builtInBlockNames = new HashSet<>();
+        for (HashMap<String, Object> block : ExtraBlockFile.buildInBlocks) {
+            Object name = block.get("name");
+            if (name != null) {
+                builtInBlockNames.add(name.toString());
+            }
+        }
 
-        ArrayList<HashMap<String, Object>> arrList = ExtraBlockFile.getExtraBlockData();
+        ArrayList<HashMap<String, Object>> extraBlockData = new Gson().fromJson(ExtraBlockFile.getExtraBlockFile(), Helper.TYPE_MAP_LIST);
+        extraBlockData.addAll(ExtraBlockFile.buildInBlocks);
+        HashMap<String, HashMap<String, Object>> extraBlocks = new HashMap<>();
+        for (HashMap<String, Object> block : extraBlockData) {
+            Object name = block.get("name");
+            if (name != null) {
+                extraBlocks.putIfAbsent(name.toString(), block);
+            }
+        }
+
+        registry = new Registry(version, extraBlockData, Collections.unmodifiableMap(extraBlocks),
+                createBlockInfos(extraBlockData), builtInBlockNames);
+    }
+
+    private static HashMap<String, ExtraBlockInfo> createBlockInfos(ArrayList<HashMap<String, Object>> arrList) {
+        ArrayList<HashMap<String, Object>> palettes = new PaletteSelector().getPaletteSelector();
+        HashMap<String, ExtraBlockInfo> loadedBlocks = new HashMap<>();
 
         for (int i = 0; i < arrList.size(); i++) {
             HashMap<String, Object> map = arrList.get(i);
@@ -187,8 +288,10 @@ public class BlockLoader {
                 }
             }
 
-            blocks.add(info);
+            loadedBlocks.putIfAbsent(info.getName(), info);
         }
+
+        return loadedBlocks;
     }
 
     /**
@@ -201,4 +304,31 @@ public class BlockLoader {
     public static void refresh() {
         loadCustomBlocks();
     }
+
+    private static class Registry {
+        private final String version;
+        private final ArrayList<HashMap<String, Object>> extraBlockData;
+        private final Map<String, HashMap<String, Object>> extraBlocks;
+        private final HashMap<String, ExtraBlockInfo> blockInfos;
+        private final HashSet<String> builtInBlockNames;
+
+        private Registry(String version, ArrayList<HashMap<String, Object>> extraBlockData, Map<String, HashMap<String, Object>> extraBlocks,
+                         HashMap<String, ExtraBlockInfo> blockInfos, HashSet<String> builtInBlockNames) {
+            this.version = version;
+            this.extraBlockData = extraBlockData;
+            this.extraBlocks = extraBlocks;
+            this.blockInfos = blockInfos;
+            this.builtInBlockNames = builtInBlockNames;
+        }
+    }
+
+    private static class ProjectBlocks {
+        private final String version;
+        private final HashMap<String, ExtraBlockInfo> blockInfos;
+
+        private ProjectBlocks(String version, HashMap<String, ExtraBlockInfo> blockInfos) {
+            this.version = version;
+            this.blockInfos = blockInfos;
+        }
+    }
 }
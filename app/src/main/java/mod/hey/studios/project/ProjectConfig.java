@@ -0,0 +1,109 @@
+package mod.hey.studios.project;
+
+import com.besome.sketch.editor.manage.library.material3.Material3LibraryManager;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
+import mod.hey.studios.editor.manage.block.v2.BlockLoader;
+import pro.sketchware.utility.FilePathUtil;
+
+/**
+ * A snapshot of the parts of a project's configuration that code generation reads for every
+ * generated file: project settings, Local libraries, Material 3 state and extra blocks.
+ * <p>
+ * Parsed project settings and Local library configurations are shared between snapshots for as
+ * long as their files' sizes and last modification times stay the same, so a code generation run
+ * only reads and parses them again if they've changed. Snapshots themselves must not be modified.
+ */
+public class ProjectConfig {
+    private static final Map<String, ParsedFiles> parsedFiles = new HashMap<>();
+
+    public final String sc_id;
+    private final ProjectSettings settings;
+    private final ManageLocalLibrary localLibraries;
+    private final Material3LibraryManager material3LibraryManager;
+    private final boolean isViewBindingEnabled;
+    private Map<String, HashMap<String, Object>> extraBlocks;
+
+    private ProjectConfig(String sc_id, ParsedFiles files) {
+        this.sc_id = sc_id;
+        settings = files.settings;
+        localLibraries = files.localLibraries;
+        material3LibraryManager = new Material3LibraryManager(sc_id);
+        isViewBindingEnabled = settings.getValue(ProjectSettings.SETTING_ENABLE_VIEWBINDING, ProjectSettings.SETTING_GENERIC_VALUE_FALSE)
+                .equals(ProjectSettings.SETTING_GENERIC_VALUE_TRUE);
+    }
+
+    /**
+     * Takes a snapshot of a project's configuration. Only reads project settings and Local libraries
+     * again if their files have changed since the last snapshot.
+     */
+    public static ProjectConfig get(String sc_id) {
+        return new ProjectConfig(sc_id, getParsedFiles(sc_id));
+    }
+
+    private static synchronized ParsedFiles getParsedFiles(String sc_id) {
+        File settingsFile = new File(ProjectSettings.getPath(sc_id));
+        File localLibrariesFile = new File(new FilePathUtil().getPathLocalLibrary(sc_id));
+        String version = getVersion(settingsFile) + "," + getVersion(localLibrariesFile);
+
+        ParsedFiles files = parsedFiles.get(sc_id);
+        if (files == null || !files.version.equals(version)) {
+            files = new ParsedFiles(version, new ProjectSettings(sc_id), new ManageLocalLibrary(sc_id));
+            parsedFiles.put(sc_id, files);
+        }
+        return files;
+    }
+
+    private static String getVersion(File file) {
+        return file.isFile() ? file.length() + ":" + file.lastModified() : "none";
+    }
+
+    /**
+     * @return The project's settings. Shared, so must not be modified.
+     */
+    public ProjectSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return The project's enabled Local libraries. Shared, so must not be modified.
+     */
+    public ManageLocalLibrary getLocalLibraries() {
+        return localLibraries;
+    }
+
+    public Material3LibraryManager getMaterial3LibraryManager() {
+        return material3LibraryManager;
+    }
+
+    /**
+     * @return Extra blocks as of the first time they got requested from this snapshot
+     * @see BlockLoader#getExtraBlocks()
+     */
+    public synchronized Map<String, HashMap<String, Object>> getExtraBlocks() {
+        if (extraBlocks == null) {
+            extraBlocks = BlockLoader.getExtraBlocks();
+        }
+        return extraBlocks;
+    }
+
+    public boolean isViewBindingEnabled() {
+        return isViewBindingEnabled;
+    }
+
+    private static class ParsedFiles {
+        private final String version;
+        private final ProjectSettings settings;
+        private final ManageLocalLibrary localLibraries;
+
+        private ParsedFiles(String version, ProjectSettings settings, ManageLocalLibrary localLibraries) {
+            this.version = version;
+            this.settings = settings;
+            this.localLibraries = localLibraries;
+        }
+    }
+}
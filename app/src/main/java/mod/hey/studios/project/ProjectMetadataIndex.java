@@ -0,0 +1,278 @@
+package mod.hey.studios.project;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import a.a.a.oB;
+import a.a.a.vB;
+import a.a.a.wq;
+import a.a.a.yB;
+import mod.jbk.util.LogUtil;
+
+/**
+ * Keeps the metadata of all projects in memory, and in an index file, so that listing projects
+ * doesn't need to read and decrypt every project's <code>project</code> file.
+ * <p>
+ * Every entry remembers the size and last modification time of the <code>project</code> file it got
+ * read from, and entries of changed files get read again. The index file has one line per entry,
+ * with later lines replacing earlier ones of the same project, so updating an entry only appends a
+ * line. It gets rewritten once most of its lines are outdated.
+ */
+public class ProjectMetadataIndex {
+    private static final String TAG = "ProjectMetadataIndex";
+    /**
+     * Not in {@link wq#EXTRA_SYSTEM_DATA}, as that's an input of every project's source generation,
+     * and the index changes whenever a project gets saved.
+     */
+    private static final String INDEX_PATH = wq.getAbsolutePathOf(wq.d + File.separator + "project_index");
+
+    /**
+     * Entries by project directory name, in the order of the index file
+     */
+    private static final Map<String, Entry> entries = new LinkedHashMap<>();
+    private static boolean loaded = false;
+    private static int indexFileLines = 0;
+
+    /**
+     * @return Metadata of all projects, as if {@link #get(String)} got called for every project
+     * directory. Safe to modify.
+     */
+    public static synchronized ArrayList<HashMap<String, Object>> getAll() {
+        load();
+        ArrayList<HashMap<String, Object>> projects = new ArrayList<>();
+        File[] projectDirectories = new File(wq.n()).listFiles();
+        if (projectDirectories == null) {
+            return projects;
+        }
+
+        Set<String> projectNames = new HashSet<>();
+        ArrayList<Entry> updatedEntries = new ArrayList<>();
+        for (File projectDirectory : projectDirectories) {
+            File projectFile = new File(projectDirectory, "project");
+            if (!projectFile.exists()) continue;
+
+            projectNames.add(projectDirectory.getName());
+            Entry entry = getUpToDateEntry(projectDirectory.getName(), projectFile, updatedEntries);
+            if (entry.metadata != null && yB.c(entry.metadata, "sc_id").equals(projectDirectory.getName())) {
+                projects.add(new HashMap<>(entry.metadata));
+            }
+        }
+        entries.keySet().retainAll(projectNames);
+        save(updatedEntries);
+        return projects;
+    }
+
+    /**
+     * @return Metadata of a project, or <code>null</code> if it doesn't exist or couldn't be read.
+     * Safe to modify.
+     */
+    public static synchronized HashMap<String, Object> get(String sc_id) {
+        load();
+        File projectFile = new File(wq.c(sc_id), "project");
+        if (!projectFile.exists()) {
+            entries.remove(sc_id);
+            return null;
+        }
+
+        ArrayList<Entry> updatedEntries = new ArrayList<>();
+        Entry entry = getUpToDateEntry(sc_id, projectFile, updatedEntries);
+        save(updatedEntries);
+        if (entry.metadata == null || !yB.c(entry.metadata, "sc_id").equals(sc_id)) {
+            return null;
+        }
+        return new HashMap<>(entry.metadata);
+    }
+
+    /**
+     * @return IDs of all projects, without reading their metadata. Safe to modify.
+     */
+    public static synchronized ArrayList<String> getProjectIds() {
+        load();
+        ArrayList<String> projectIds = new ArrayList<>();
+        File[] projectDirectories = new File(wq.n()).listFiles();
+        if (projectDirectories != null) {
+            for (File projectDirectory : projectDirectories) {
+                if (new File(projectDirectory, "project").exists()) {
+                    projectIds.add(projectDirectory.getName());
+                }
+            }
+        }
+        entries.keySet().retainAll(new HashSet<>(projectIds));
+        return projectIds;
+    }
+
+    /**
+     * @return Metadata of the projects that exist and could be read, in the order of {@code sc_ids}.
+     * Safe to modify.
+     */
+    public static synchronized ArrayList<HashMap<String, Object>> get(List<String> sc_ids) {
+        load();
+        ArrayList<HashMap<String, Object>> projects = new ArrayList<>(sc_ids.size());
+        ArrayList<Entry> updatedEntries = new ArrayList<>();
+        for (String sc_id : sc_ids) {
+            File projectFile = new File(wq.c(sc_id), "project");
+            if (!projectFile.exists()) {
+                entries.remove(sc_id);
+                continue;
+            }
+
+            Entry entry = getUpToDateEntry(sc_id, projectFile, updatedEntries);
+            if (entry.metadata != null && yB.c(entry.metadata, "sc_id").equals(sc_id)) {
+                projects.add(new HashMap<>(entry.metadata));
+            }
+        }
+        save(updatedEntries);
+        return projects;
+    }
+
+    /**
+     * Updates a project's entry after its <code>project</code> file got written.
+     *
+     * @param json The metadata as written to the file, before encrypting it
+     */
+    public static synchronized void update(String sc_id, String json) {
+        load();
+        File projectFile = new File(wq.c(sc_id), "project");
+        Entry entry = new Entry(sc_id, projectFile.length(), projectFile.lastModified(), json);
+        entries.put(sc_id, entry);
+        ArrayList<Entry> updatedEntries = new ArrayList<>();
+        updatedEntries.add(entry);
+        save(updatedEntries);
+    }
+
+    private static Entry getUpToDateEntry(String name, File projectFile, ArrayList<Entry> updatedEntries) {
+        long length = projectFile.length();
+        long lastModified = projectFile.lastModified();
+        Entry entry = entries.get(name);
+        if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+            String json = null;
+            try {
+                oB fileUtil = new oB();
+                json = fileUtil.a(fileUtil.h(projectFile.getAbsolutePath()));
+            } catch (Throwable e) {
+                LogUtil.e(TAG, "Failed to read metadata of project " + name, e);
+            }
+            entry = new Entry(name, length, lastModified, json);
+            entries.put(name, entry);
+            updatedEntries.add(entry);
+        }
+        return entry;
+    }
+
+    private static void load() {
+        if (loaded) return;
+        loaded = true;
+        // Index files of earlier versions, which were kept in the fingerprinted system data
+        new File(wq.getAbsolutePathOf(wq.EXTRA_SYSTEM_DATA), "project_index").delete();
+
+        File indexFile = new File(INDEX_PATH);
+        if (!indexFile.exists()) return;
+
+        oB fileUtil = new oB();
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                indexFileLines++;
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 4) continue;
+
+                try {
+                    String json = fields[3].isEmpty() ? null : fileUtil.a(Base64.getDecoder().decode(fields[3]));
+                    entries.remove(fields[0]);
+                    entries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), json));
+                } catch (Throwable e) {
+                    LogUtil.w(TAG, "Skipping invalid project index entry", e);
+                }
+            }
+        } catch (IOException e) {
+            LogUtil.e(TAG, "Failed to read project index, reading all projects again", e);
+            entries.clear();
+        }
+    }
+
+    /**
+     * Appends updated entries to the index file, or rewrites it if most of its lines would be outdated.
+     */
+    private static void save(ArrayList<Entry> updatedEntries) {
+        boolean rewrite = indexFileLines + updatedEntries.size() > 2 * entries.size() + 16;
+        if (updatedEntries.isEmpty() && !rewrite) return;
+
+        File indexFile = new File(INDEX_PATH);
+        File parent = indexFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            LogUtil.e(TAG, "Couldn't create directory " + parent);
+            return;
+        }
+
+        oB fileUtil = new oB();
+        if (rewrite) {
+            File temporaryFile = new File(INDEX_PATH + ".tmp");
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(temporaryFile))) {
+                for (Entry entry : entries.values()) {
+                    writer.write(entry.toLine(fileUtil));
+                }
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to write project index", e);
+                return;
+            }
+            if (temporaryFile.renameTo(indexFile)) {
+                indexFileLines = entries.size();
+            } else {
+                LogUtil.e(TAG, "Couldn't replace " + indexFile + " with " + temporaryFile);
+            }
+        } else {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(indexFile, true))) {
+                for (Entry entry : updatedEntries) {
+                    writer.write(entry.toLine(fileUtil));
+                    indexFileLines++;
+                }
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to append to project index", e);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final long length;
+        private final long lastModified;
+        private final String json;
+        /**
+         * The parsed metadata, or <code>null</code> if the project file couldn't be read
+         */
+        private final HashMap<String, Object> metadata;
+
+        private Entry(String name, long length, long lastModified, String json) {
+            this.name = name;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.json = json;
+            HashMap<String, Object> metadata = null;
+            if (json != null) {
+                try {
+                    metadata = vB.a(json);
+                } catch (Throwable e) {
+                    LogUtil.e(TAG, "Failed to parse metadata of project " + name, e);
+                }
+            }
+            this.metadata = metadata;
+        }
+
+        private String toLine(oB fileUtil) {
+            String encrypted = json == null ? "" : Base64.getEncoder().encodeToString(fileUtil.d(json));
+            return name + "\t" + length + "\t" + lastModified + "\t" + encrypted + "\n";
+        }
+    }
+}
@@ -103,10 +103,14 @@ public class ProjectSettings {
         }
     }
 
-    public String getPath() {
+    public static String getPath(String sc_id) {
         return new File(Environment.getExternalStorageDirectory(), ".sketchware/data/" + sc_id + "/project_config").getAbsolutePath();
     }
 
+    public String getPath() {
+        return getPath(sc_id);
+    }
+
     public String getValue(String key, String defaultValue) {
         if (hashmap.containsKey(key)) {
             if (!hashmap.get(key).isEmpty()) {
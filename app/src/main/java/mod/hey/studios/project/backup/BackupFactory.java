@@ -8,10 +8,12 @@ import com.besome.sketch.beans.BlockBean;
 import com.google.gson.Gson;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -21,16 +23,19 @@ import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
@@ -57,6 +62,13 @@ public class BackupFactory {
     private static final String[] resSubfolders = {
             "fonts", "icons", "images", "sounds"
     };
+    static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Extensions of files that are compressed already, so compressing them again would only cost time
+     */
+    private static final Set<String> compressedExtensions = Set.of(
+            "png", "jpg", "jpeg", "webp", "gif", "mp3", "ogg", "m4a", "aac", "ttf", "otf", "jar", "zip"
+    );
 
     final String sc_id;
     File outPath;
@@ -83,16 +95,11 @@ public class BackupFactory {
                 ".sketchware/libs/local_libs");
     }
 
-    private static HashMap<String, Object> getProject(File file) {
+    private static HashMap<String, Object> getProject(byte[] encrypted) {
         try {
             Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
             byte[] key = "sketchwaresecure".getBytes();
             cipher.init(2, new SecretKeySpec(key, "AES"), new IvParameterSpec(key));
-            byte[] encrypted;
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-                encrypted = new byte[(int) raf.length()];
-                raf.readFully(encrypted);
-            }
             byte[] decrypted = cipher.doFinal(encrypted);
             String decryptedString = new String(decrypted);
 
@@ -136,74 +143,9 @@ public class BackupFactory {
 
     /************************ UTILITIES ************************/
 
-    public static boolean unzip(File zipFile, File destinationDir) {
-        int DEFAULT_BUFFER = 2048;
-        try (ZipFile zip = new ZipFile(zipFile)) {
-            destinationDir.mkdirs();
-            Enumeration<? extends ZipEntry> zipFileEntries = zip.entries();
-            while (zipFileEntries.hasMoreElements()) {
-                ZipEntry entry = zipFileEntries.nextElement();
-                String entryName = entry.getName();
-                File destFile = new File(destinationDir, entryName);
-                File destinationParent = destFile.getParentFile();
-                if (destinationParent != null && !destinationParent.exists()) {
-                    destinationParent.mkdirs();
-                }
-                if (!entry.isDirectory()) {
-                    try (BufferedInputStream is = new BufferedInputStream(zip.getInputStream(entry))) {
-                        int currentByte;
-                        byte[] data = new byte[DEFAULT_BUFFER];
-                        try (FileOutputStream fos = new FileOutputStream(destFile)) {
-                            try (BufferedOutputStream dest = new BufferedOutputStream(fos, DEFAULT_BUFFER)) {
-                                while ((currentByte = is.read(data, 0, DEFAULT_BUFFER)) != -1 /*EOF*/) {
-                                    dest.write(data, 0, currentByte);
-                                }
-                                dest.flush();
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (IOException e) {
-            return false;
-        }
-        return true;
-    }
-
-    public static void zipFolder(File srcFolder, File destZipFile) throws Exception {
-        try (FileOutputStream fileWriter = new FileOutputStream(destZipFile)) {
-            try (ZipOutputStream zip = new ZipOutputStream(fileWriter)) {
-                addFolderToZip(srcFolder, srcFolder, zip);
-                zip.flush();
-            }
-        }
-    }
-
-    private static void addFileToZip(File rootPath, File srcFile, ZipOutputStream zip) throws Exception {
-
-        if (srcFile.isDirectory()) {
-            addFolderToZip(rootPath, srcFile, zip);
-        } else {
-            byte[] buf = new byte[1024];
-            int len;
-            try (FileInputStream in = new FileInputStream(srcFile)) {
-                String name = srcFile.getPath();
-                name = name.replace(rootPath.getPath() + "/", "");
-                zip.putNextEntry(new ZipEntry(name));
-                while ((len = in.read(buf)) > 0) {
-                    zip.write(buf, 0, len);
-                }
-            }
-        }
-    }
-
-    private static void addFolderToZip(File rootPath, File srcFolder, ZipOutputStream zip) throws Exception {
-        File[] srcFolderFiles = srcFolder.listFiles();
-        if (srcFolderFiles != null) {
-            for (File fileName : srcFolderFiles) {
-                addFileToZip(rootPath, fileName, zip);
-            }
-        }
+    private static boolean isCompressed(String entryName) {
+        int extensionStart = entryName.lastIndexOf('.');
+        return extensionStart != -1 && compressedExtensions.contains(entryName.substring(extensionStart + 1).toLowerCase(Locale.ENGLISH));
     }
 
     //6.3.0 fix1
@@ -211,47 +153,6 @@ public class BackupFactory {
         FileUtil.writeFile(new File(dir, ".nomedia").getAbsolutePath(), "");
     }
 
-    //6.3.0 fix1
-    public static void copySafe(File source, File destination) {
-        if (!source.exists()) {
-            destination.mkdirs();
-            createNomediaFileIn(destination);
-        } else {
-            copy(source, destination);
-        }
-    }
-
-    public static void copy(File source, File destination) {
-        if (source.isDirectory()) {
-            if (!destination.exists()) destination.mkdirs();
-
-            String[] files = source.list();
-            if (files != null) {
-
-                for (String file : files) {
-                    File srcFile = new File(source, file);
-                    File destFile = new File(destination, file);
-
-                    copy(srcFile, destFile);
-                }
-            }
-        } else {
-            //skip .nomedia files
-            if (source.getName().equals(".nomedia")) return;
-
-            try (InputStream in = new FileInputStream(source);
-                 OutputStream out = new FileOutputStream(destination)) {
-                byte[] buffer = new byte[1024];
-                int length;
-                while ((length = in.read(buffer)) > 0) {
-                    out.write(buffer, 0, length);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-    }
-
     public static boolean zipContainsFile(String zipPath, String fileName) {
 
         try {
@@ -306,10 +207,6 @@ public class BackupFactory {
         }
         createBackupsFolder();
 
-        // Init temporary backup folder
-        File outFolder = new File(getBackupDir(),
-                project_name + "_temp");
-
         // Init output zip file
         File outZip = new File(getBackupDir() + File.separator + projectNameOnly, finalFileName +
                 //Adds all the _d if exists. Otherwise its possible that there'll be an infinite loop
@@ -320,43 +217,51 @@ public class BackupFactory {
             backup(context, project_name + "_d");
             return;
         }
-        //delete temp dir if exist
-        if (outFolder.exists()) {
-            FileUtil.deleteFile(outFolder.getAbsolutePath());
-        }
 
         // Create necessary folders
-        FileUtil.makeDir(outFolder.getAbsolutePath());
         FileUtil.makeDir(new File(getBackupDir() + File.separator + projectNameOnly).getAbsolutePath());
 
-        // Copy data
-        File dataF = new File(outFolder, "data");
-        FileUtil.makeDir(dataF.getAbsolutePath());
-        //6.3.0 fix1
-        copySafe(getDataDir(), dataF);
+        // Write files straight into the zip, without copying them to a temporary folder first
+        try (SwbWriter swb = new SwbWriter(outZip)) {
+            writeBackup(context, swb);
+        } catch (Exception e) {
+            // An error occurred
+            error = Log.getStackTraceString(e);
+            outPath = null;
+            FileUtil.deleteFile(outZip.getAbsolutePath());
 
-        // Copy res
-        File resF = new File(outFolder, "resources");
-        FileUtil.makeDir(resF.getAbsolutePath());
+            return;
+        }
 
-        for (String subfolder : resSubfolders) {
-            File resSubf = new File(resF, subfolder);
-            FileUtil.makeDir(resSubf.getAbsolutePath());
+        // Put outZip to global variable
+        outPath = outZip;
+    }
+
+    /**
+     * Writes the project's files to a backup, laid out like the folders they get restored to.
+     */
+    private void writeBackup(Context context, BackupWriter backup) throws IOException {
+        // Find custom blocks used and include them in the backup,
+        // replacing a custom_blocks file of the data folder
+        if (backupCustomBlocks) {
+            backup.addBytes("data/custom_blocks", getUsedCustomBlocksJson(context).getBytes());
+        }
 
+        //6.3.0 fix1
+        backup.addDirectorySafe(getDataDir(), "data");
+
+        for (String subfolder : resSubfolders) {
+            String entryPath = "resources/" + subfolder;
             //6.3.0 fix1
-            copySafe(getResDir(subfolder), resSubf);
+            backup.addDirectorySafe(getResDir(subfolder), entryPath);
 
             // Write an empty file inside each folder (except icons)
             if (!subfolder.equals("icons")) {
-                //6.3.0 fix1
-                createNomediaFileIn(resSubf);
-                //FileUtil.writeFile(new File(resSubf, ".nomedia").getAbsolutePath(), "");
+                backup.addBytes(entryPath + "/.nomedia", new byte[0]);
             }
         }
 
-        // Copy project
-        File projectF = new File(outFolder, "project");
-        copy(getProjectPath(), projectF);
+        backup.addFile(getProjectPath(), "project");
 
         // Find local libs used and include them in the backup
         if (backupLocalLibs) {
@@ -366,69 +271,53 @@ public class BackupFactory {
                 try {
                     JSONArray ja = new JSONArray(FileUtil.readFile(localLibs.getAbsolutePath()));
 
-                    File libsF = new File(outFolder, "local_libs");
-                    libsF.mkdirs();
-
                     for (int i = 0; i < ja.length(); i++) {
                         JSONObject jo = ja.getJSONObject(i);
 
                         File f = new File(jo.getString("dexPath")).getParentFile();
-                        copy(f, new File(libsF, f.getName()));
-
-                    }
-
-                } catch (Exception ignored) {
-                }
-            }
-        }
-
-        // Find custom blocks used and include them in the backup
-        if (backupCustomBlocks) {
-            CustomBlocksManager cbm = new CustomBlocksManager(context, sc_id);
-
-            Set<ExtraBlockInfo> blocks = new HashSet<>();
-            Set<String> block_names = new HashSet<>();
-            for (BlockBean bean : cbm.getUsedBlocks()) {
-                if (!block_names.contains(bean.opCode)) {
-                    block_names.add(bean.opCode);
-                    if (cbm.contains(bean.opCode)) {
-                        blocks.add(cbm.getExtraBlockInfo(bean.opCode));
-                    } else {
-                        var block = BlockLoader.getBlockInfo(bean.opCode);
-                        blocks.add(block);
+                        if (f != null && f.isDirectory()) {
+                            backup.addDirectory(f, "local_libs/" + f.getName());
+                        }
                     }
+                } catch (JSONException ignored) {
                 }
             }
-
-            String json = new Gson().toJson(blocks);
-
-            File customBlocksF = new File(dataF, "custom_blocks");
-            FileUtil.writeFile(customBlocksF.getAbsolutePath(), json);
         }
+    }
 
-        // Zip final folder
-        try {
-            zipFolder(outFolder, outZip);
+    /**
+     * Takes an incremental snapshot of the project instead of writing a .swb, see {@link SnapshotStore}.
+     *
+     * @param context Only needed if Custom Blocks get backed up
+     */
+    public void snapshot(Context context) {
+        try (SnapshotStore.SnapshotWriter snapshot = new SnapshotStore(sc_id).newSnapshot()) {
+            writeBackup(context, snapshot);
+            outPath = snapshot.commit();
         } catch (Exception e) {
-            // An error occurred
-
-//            StringBuilder sb = new StringBuilder();
-//            for (StackTraceElement el : e.getStackTrace()) {
-//                sb.append(el.toString());
-//                sb.append("\n");
-//            }
-
             error = Log.getStackTraceString(e);
             outPath = null;
-
-            return;
         }
+    }
 
-        // Delete the temporary folder
-        FileUtil.deleteFile(outFolder.getAbsolutePath());
+    private String getUsedCustomBlocksJson(Context context) {
+        CustomBlocksManager cbm = new CustomBlocksManager(context, sc_id);
+
+        Set<ExtraBlockInfo> blocks = new HashSet<>();
+        Set<String> block_names = new HashSet<>();
+        for (BlockBean bean : cbm.getUsedBlocks()) {
+            if (!block_names.contains(bean.opCode)) {
+                block_names.add(bean.opCode);
+                if (cbm.contains(bean.opCode)) {
+                    blocks.add(cbm.getExtraBlockInfo(bean.opCode));
+                } else {
+                    var block = BlockLoader.getBlockInfo(bean.opCode);
+                    blocks.add(block);
+                }
+            }
+        }
 
-        // Put outZip to global variable
-        outPath = outZip;
+        return new Gson().toJson(blocks);
     }
 
     private String getFormattedDateFrom(String format) {
@@ -449,100 +338,131 @@ public class BackupFactory {
 
     /************************ RESTORE ************************/
 
-    public void restore(File swbPath) {
-        String name = swbPath.getName();
-        if (name.contains(".")) {
-            name = name.substring(0, name.lastIndexOf("."));
-        }
-
-        restore(swbPath, name);
-    }
-
-    private void restore(File swbPath, String name) {
-
-        createBackupsFolder();
-
-        // Init temporary restore folder for unzipping
-        File outFolder = new File(getBackupDir(),
-                name);
-
-        // Create a duplicate if already exists
-        if (outFolder.exists()) {
-            restore(swbPath, name + "_d");
-            return;
-        }
+    /**
+     * Extracts a .swb backup or a snapshot straight to the new project's folders.
+     */
+    public void restore(File backupPath) {
+        HashMap<String, Object> map = null;
+        try (BackupSource backup = SnapshotStore.isSnapshot(backupPath) ? SnapshotStore.open(backupPath) : new SwbSource(backupPath)) {
+            try (InputStream in = backup.open("project")) {
+                if (in != null) {
+                    map = getProject(readAllBytes(in));
+                }
+            }
 
-        // Unzip
-        if (!unzip(swbPath, outFolder)) {
-            error = "couldn't unzip the backup";
-            restoreSuccess = false;
-            return;
-        }
+            if (map == null) {
+                error = "couldn't read the project file";
+                restoreSuccess = false;
+                return;
+            }
 
-        // Init files
-        File project = new File(outFolder, "project");
-        File data = new File(outFolder, "data");
-        File res = new File(outFolder, "resources");
+            // Put new sc_id
+            map.put("sc_id", sc_id);
 
-        HashMap<String, Object> map = getProject(project);
+            Set<String> restoredResSubfolders = new HashSet<>();
+            HashMap<String, Boolean> localLibsToRestore = new HashMap<>();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (String entryName : backup.getEntryNames()) {
+                File destination = getRestoreDestination(entryName, restoredResSubfolders, localLibsToRestore);
+                if (destination != null) {
+                    extract(backup, entryName, destination, buffer);
+                }
+            }
 
-        if (map == null) {
-            error = "couldn't read the project file";
+            getDataDir().mkdirs();
+            //6.3.0 fix1
+            for (String subfolder : resSubfolders) {
+                File resDir = getResDir(subfolder);
+                resDir.mkdirs();
+                if (!restoredResSubfolders.contains(subfolder)) {
+                    createNomediaFileIn(resDir);
+                }
+            }
+        } catch (IOException e) {
+            error = "couldn't extract the backup: " + e.getMessage();
             restoreSuccess = false;
+            deleteRestoredFiles();
             return;
         }
 
-        // Put new sc_id
-        map.put("sc_id", sc_id);
+        // Create parent folder
+        getProjectPath().getParentFile().mkdirs();
 
-        // Write new file
-        if (!writeEncrypted(project, new Gson().toJson(map))) {
+        // Write the project file last, so that the project only shows up once everything else is restored
+        if (!writeEncrypted(getProjectPath(), new Gson().toJson(map))) {
             error = "couldn't write to the project file";
             restoreSuccess = false;
+            deleteRestoredFiles();
             return;
         }
 
-        // Copy data
-        copy(data, getDataDir());
-
-        // Copy res
-        for (String subfolder : resSubfolders) {
-            File subf = new File(res, subfolder);
+        restoreSuccess = true;
+    }
 
-            copySafe(subf, getResDir(subfolder));
+    /**
+     * @return Where to extract a backup's entry to, or <code>null</code> if it shouldn't be extracted
+     */
+    private File getRestoreDestination(String entryName, Set<String> restoredResSubfolders, HashMap<String, Boolean> localLibsToRestore) {
+        String[] segments = entryName.split("/");
+        // Skip .nomedia files, and entries that would end up outside their folder
+        if (segments.length < 2 || segments[segments.length - 1].equals(".nomedia") || Arrays.asList(segments).contains("..")) {
+            return null;
         }
+        String path = entryName.substring(segments[0].length() + 1);
 
-        // Create parent folder
-        getProjectPath().getParentFile().mkdirs();
-
-        // Copy project
-        copy(project, getProjectPath());
-
-        // Copy local libs if they do not exist
-        if (backupLocalLibs) {
-            File local_libs = new File(outFolder, "local_libs");
-
-            if (local_libs.exists()) {
-                File[] local_libs_content = local_libs.listFiles();
-                if (local_libs_content != null) {
-
-                    for (File local_lib : local_libs_content) {
+        switch (segments[0]) {
+            case "data" -> {
+                return new File(getDataDir(), path);
+            }
+            case "resources" -> {
+                String subfolder = segments[1];
+                if (segments.length < 3 || !Arrays.asList(resSubfolders).contains(subfolder)) return null;
+                restoredResSubfolders.add(subfolder);
+                return new File(getResDir(subfolder), path.substring(subfolder.length() + 1));
+            }
+            case "local_libs" -> {
+                // Copy local libs if they do not exist
+                if (!backupLocalLibs) return null;
+                boolean restore = localLibsToRestore.computeIfAbsent(segments[1],
+                        localLib -> !new File(getAllLocalLibsDir(), localLib).exists());
+                return restore ? new File(getAllLocalLibsDir(), path) : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
 
-                        File local_lib_real_path = new File(getAllLocalLibsDir(), local_lib.getName());
+    private static void extract(BackupSource backup, String entryName, File destination, byte[] buffer) throws IOException {
+        File parent = destination.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
 
-                        if (!local_lib_real_path.exists()) {
-                            local_lib_real_path.mkdirs();
-                            copy(local_lib, local_lib_real_path);
-                        }
-                    }
-                }
+        try (InputStream in = backup.open(entryName);
+             OutputStream out = new FileOutputStream(destination)) {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
             }
         }
+    }
 
-        // Delete temp folder
-        FileUtil.deleteFile(outFolder.getAbsolutePath());
+    private static byte[] readAllBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
 
-        restoreSuccess = true;
+    private void deleteRestoredFiles() {
+        FileUtil.deleteFile(getDataDir().getAbsolutePath());
+        for (String subfolder : resSubfolders) {
+            FileUtil.deleteFile(getResDir(subfolder).getAbsolutePath());
+        }
     }
 
     public String getError() {
@@ -581,4 +501,133 @@ public class BackupFactory {
         return new File(Environment.getExternalStorageDirectory(),
                 ".sketchware/data/" + sc_id + "/local_library");
     }
+
+    /**
+     * Where backups get written to. Files added more than once only get added the first time.
+     */
+    abstract static class BackupWriter implements Closeable {
+        /**
+         * Adds a directory's files, or an empty .nomedia file if the directory doesn't exist.
+         */
+        void addDirectorySafe(File directory, String entryPath) throws IOException {
+            if (!directory.exists()) {
+                addBytes(entryPath + "/.nomedia", new byte[0]);
+            } else {
+                addDirectory(directory, entryPath);
+            }
+        }
+
+        /**
+         * Adds a directory's files, except .nomedia files.
+         */
+        void addDirectory(File directory, String entryPath) throws IOException {
+            File[] files = directory.listFiles();
+            if (files == null) return;
+
+            for (File file : files) {
+                String entryName = entryPath + "/" + file.getName();
+                if (file.isDirectory()) {
+                    addDirectory(file, entryName);
+                } else if (!file.getName().equals(".nomedia")) {
+                    addFile(file, entryName);
+                }
+            }
+        }
+
+        abstract void addFile(File file, String entryName) throws IOException;
+
+        abstract void addBytes(String entryName, byte[] bytes) throws IOException;
+    }
+
+    /**
+     * Writes files straight into a .swb, with large buffers, storing already compressed files
+     * without compressing them again.
+     */
+    static class SwbWriter extends BackupWriter {
+        private final ZipOutputStream zip;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private final Set<String> entryNames = new HashSet<>();
+
+        SwbWriter(File swb) throws IOException {
+            zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(swb), BUFFER_SIZE));
+        }
+
+        @Override
+        void addFile(File file, String entryName) throws IOException {
+            if (!entryNames.add(entryName)) return;
+
+            // Already compressed files get deflated without compression, which doesn't need their CRC in advance
+            zip.setLevel(isCompressed(entryName) ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(new ZipEntry(entryName));
+            try (InputStream in = new FileInputStream(file)) {
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    zip.write(buffer, 0, length);
+                }
+            }
+            zip.closeEntry();
+        }
+
+        @Override
+        void addBytes(String entryName, byte[] bytes) throws IOException {
+            if (!entryNames.add(entryName)) return;
+
+            zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(new ZipEntry(entryName));
+            zip.write(bytes);
+            zip.closeEntry();
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    /**
+     * A backup to restore from.
+     */
+    interface BackupSource extends Closeable {
+        /**
+         * @return Names of all files of the backup
+         */
+        List<String> getEntryNames();
+
+        /**
+         * @return A file's contents, or <code>null</code> if the backup doesn't have that file
+         */
+        InputStream open(String entryName) throws IOException;
+    }
+
+    private static class SwbSource implements BackupSource {
+        private final ZipFile swb;
+
+        private SwbSource(File swbPath) throws IOException {
+            swb = new ZipFile(swbPath);
+        }
+
+        @Override
+        public List<String> getEntryNames() {
+            List<String> entryNames = new ArrayList<>();
+            Enumeration<? extends ZipEntry> entries = swb.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    entryNames.add(entry.getName());
+                }
+            }
+            return entryNames;
+        }
+
+        @Override
+        public InputStream open(String entryName) throws IOException {
+            ZipEntry entry = swb.getEntry(entryName);
+            return entry == null ? null : swb.getInputStream(entry);
+        }
+
+        @Override
+        public void close() throws IOException {
+            swb.close();
+        }
+    }
 }
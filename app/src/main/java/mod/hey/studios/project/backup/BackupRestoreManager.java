@@ -15,6 +15,7 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.List;
@@ -59,9 +60,11 @@ public class BackupRestoreManager {
     public void backup(String sc_id, String project_name) {
         final String localLibrariesTag = "local libraries";
         final String customBlocksTag = "Custom Blocks";
+        final String snapshotTag = "snapshot";
         backupDialogStates = new HashMap<>();
         backupDialogStates.put(0, false);
         backupDialogStates.put(1, false);
+        backupDialogStates.put(2, false);
 
         MaterialAlertDialogBuilder dialog = new MaterialAlertDialogBuilder(act);
         dialog.setIcon(R.drawable.ic_backup);
@@ -88,6 +91,10 @@ public class BackupRestoreManager {
                         index = 1;
                         break;
 
+                    case snapshotTag:
+                        index = 2;
+                        break;
+
                     default:
                         return;
                 }
@@ -113,6 +120,15 @@ public class BackupRestoreManager {
         includeUsedCustomBlocks.setOnCheckedChangeListener(listener);
         checkboxContainer.addView(includeUsedCustomBlocks);
 
+        CheckBox takeSnapshot = new CheckBox(act);
+        takeSnapshot.setTag(snapshotTag);
+        takeSnapshot.setText("Incremental snapshot (only stores changed files)");
+        takeSnapshot.setLayoutParams(new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT,
+                LinearLayout.LayoutParams.WRAP_CONTENT));
+        takeSnapshot.setOnCheckedChangeListener(listener);
+        checkboxContainer.addView(takeSnapshot);
+
         dialog.setView(checkboxContainer);
         dialog.setPositiveButton("Back up", (v, which) -> {
             v.dismiss();
@@ -132,29 +148,26 @@ public class BackupRestoreManager {
     public void restore() {
         FilePickerOptions options = new FilePickerOptions();
         options.setMultipleSelection(true);
-        options.setExtensions(new String[]{BackupFactory.EXTENSION});
-        options.setTitle("Select backups to restore (" + BackupFactory.EXTENSION + ")");
+        options.setExtensions(new String[]{BackupFactory.EXTENSION, SnapshotStore.EXTENSION});
+        options.setTitle("Select backups to restore (" + BackupFactory.EXTENSION + ", " + SnapshotStore.EXTENSION + ")");
 
         FilePickerCallback callback = new FilePickerCallback() {
             @Override
             public void onFilesSelected(@NotNull List<? extends File> files) {
                 for (int i = 0; i < files.size(); i++) {
                     String backupFilePath = files.get(i).getAbsolutePath();
+                    int index = i;
 
-                    if (BackupFactory.zipContainsFile(backupFilePath, "local_libs")) {
-                        boolean restoringMultipleBackups = files.size() > 1;
-
+                    if (SnapshotStore.isSnapshot(files.get(i))) {
                         new MaterialAlertDialogBuilder(act)
-                                .setTitle("Warning")
-                                .setMessage(getRestoreIntegratedLocalLibrariesMessage(restoringMultipleBackups, i, files.size(),
-                                        FileUtil.getFileNameNoExtension(backupFilePath)))
-                                .setPositiveButton("Copy", (dialog, which) -> doRestore(backupFilePath, true))
-                                .setNegativeButton("Don't copy", (dialog, which) -> doRestore(backupFilePath, false))
+                                .setTitle("Snapshot")
+                                .setMessage("Restore " + FileUtil.getFileNameNoExtension(backupFilePath) + " as a new project, or export it as a self-contained ." + BackupFactory.EXTENSION + " backup?")
+                                .setPositiveButton("Restore", (dialog, which) -> restoreAskingForLocalLibraries(backupFilePath, index, files.size()))
+                                .setNegativeButton("Export", (dialog, which) -> doExport(backupFilePath))
                                 .setNeutralButton(R.string.common_word_cancel, null)
                                 .show();
-
                     } else {
-                        doRestore(backupFilePath, false);
+                        restoreAskingForLocalLibraries(backupFilePath, index, files.size());
                     }
                 }
             }
@@ -163,6 +176,32 @@ public class BackupRestoreManager {
         new FilePickerDialogFragment(options, callback).show(projectsFragment.getChildFragmentManager(), "file_picker");
     }
 
+    private void restoreAskingForLocalLibraries(String backupFilePath, int currentRestoringIndex, int totalAmountOfBackups) {
+        boolean containsLocalLibraries = SnapshotStore.isSnapshot(new File(backupFilePath)) ?
+                SnapshotStore.containsFile(backupFilePath, "local_libs") :
+                BackupFactory.zipContainsFile(backupFilePath, "local_libs");
+
+        if (containsLocalLibraries) {
+            boolean restoringMultipleBackups = totalAmountOfBackups > 1;
+
+            new MaterialAlertDialogBuilder(act)
+                    .setTitle("Warning")
+                    .setMessage(getRestoreIntegratedLocalLibrariesMessage(restoringMultipleBackups, currentRestoringIndex, totalAmountOfBackups,
+                            FileUtil.getFileNameNoExtension(backupFilePath)))
+                    .setPositiveButton("Copy", (dialog, which) -> doRestore(backupFilePath, true))
+                    .setNegativeButton("Don't copy", (dialog, which) -> doRestore(backupFilePath, false))
+                    .setNeutralButton(R.string.common_word_cancel, null)
+                    .show();
+
+        } else {
+            doRestore(backupFilePath, false);
+        }
+    }
+
+    private void doExport(String snapshotPath) {
+        new ExportSnapshotAsyncTask(new WeakReference<>(act), snapshotPath).execute("");
+    }
+
     public void doRestore(String file, boolean restoreLocalLibs) {
         new RestoreAsyncTask(new WeakReference<>(act), file, restoreLocalLibs, projectsFragment).execute("");
     }
@@ -201,7 +240,11 @@ public class BackupRestoreManager {
             bm.setBackupLocalLibs(options.get(0));
             bm.setBackupCustomBlocks(options.get(1));
 
-            bm.backup(activityWeakReference.get(), project_name);
+            if (options.get(2)) {
+                bm.snapshot(activityWeakReference.get());
+            } else {
+                bm.backup(activityWeakReference.get(), project_name);
+            }
 
             return "";
         }
@@ -218,6 +261,54 @@ public class BackupRestoreManager {
         }
     }
 
+    private static class ExportSnapshotAsyncTask extends AsyncTask<String, Integer, String> {
+
+        private final WeakReference<Activity> activityWeakReference;
+        private final String snapshotPath;
+        private File swb;
+        private String error;
+        private AlertDialog dlg;
+
+        ExportSnapshotAsyncTask(WeakReference<Activity> activityWeakReference, String snapshotPath) {
+            this.activityWeakReference = activityWeakReference;
+            this.snapshotPath = snapshotPath;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            ProgressMsgBoxBinding loadingDialogBinding = ProgressMsgBoxBinding.inflate(LayoutInflater.from(activityWeakReference.get()));
+            loadingDialogBinding.tvProgress.setText("Exporting snapshot...");
+            dlg = new MaterialAlertDialogBuilder(activityWeakReference.get())
+                    .setTitle("Please wait")
+                    .setCancelable(false)
+                    .setView(loadingDialogBinding.getRoot())
+                    .create();
+            dlg.show();
+        }
+
+        @Override
+        protected String doInBackground(String... params) {
+            try {
+                swb = SnapshotStore.exportSwb(new File(snapshotPath));
+            } catch (IOException e) {
+                error = e.getMessage();
+            }
+
+            return "";
+        }
+
+        @Override
+        protected void onPostExecute(String _result) {
+            dlg.dismiss();
+
+            if (swb != null) {
+                SketchwareUtil.toast("Successfully exported snapshot to: " + swb.getAbsolutePath());
+            } else {
+                SketchwareUtil.toastError("Couldn't export snapshot: " + error, Toast.LENGTH_LONG);
+            }
+        }
+    }
+
     private static class RestoreAsyncTask extends AsyncTask<String, Integer, String> {
 
         private final WeakReference<Activity> activityWeakReference;
@@ -0,0 +1,467 @@
+package mod.hey.studios.project.backup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Incremental project backups, called snapshots. Every file gets stored once in a content-addressed
+ * chunk store, named by its SHA-256 hash, and a snapshot is a small manifest listing the chunk of
+ * every file of the backup. Files whose size and last modification time didn't change since the
+ * project's previous snapshot don't get read again.
+ * <p>
+ * Snapshots contain the same files as a .swb backup, so {@link BackupFactory} restores them the same
+ * way, and they can be exported as self-contained .swb files.
+ */
+public class SnapshotStore {
+    public static final String EXTENSION = "swbs";
+
+    private static final String TAG = "SnapshotStore";
+    /**
+     * How many snapshots to keep per project, older ones get deleted
+     */
+    private static final int MAX_SNAPSHOTS = 50;
+    /**
+     * Held while writing a snapshot or deleting unused chunks
+     */
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor();
+
+    private final String sc_id;
+
+    public SnapshotStore(String sc_id) {
+        this.sc_id = sc_id;
+    }
+
+    public static boolean isSnapshot(File file) {
+        return file.getName().endsWith("." + EXTENSION);
+    }
+
+    /**
+     * Takes a snapshot of a project in the background, without Local libraries and Custom Blocks.
+     */
+    public static void snapshotInBackground(String sc_id) {
+        snapshotExecutor.execute(() -> {
+            BackupFactory backupFactory = new BackupFactory(sc_id);
+            backupFactory.snapshot(null);
+            if (backupFactory.getOutFile() == null) {
+                LogUtil.e(TAG, "Couldn't snapshot project " + sc_id + ": " + backupFactory.getError());
+            }
+        });
+    }
+
+    /**
+     * @return If a snapshot has a file, or a folder, called {@code fileName}
+     */
+    public static boolean containsFile(String snapshotPath, String fileName) {
+        try {
+            for (String entryName : readManifest(new File(snapshotPath)).keySet()) {
+                if (entryName.equals(fileName) || entryName.startsWith(fileName + "/")) {
+                    return true;
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return false;
+    }
+
+    /**
+     * Writes a snapshot as a self-contained .swb into the backup directory.
+     *
+     * @return The written .swb
+     */
+    public static File exportSwb(File snapshot) throws IOException {
+        String snapshotName = snapshot.getName().substring(0, snapshot.getName().length() - EXTENSION.length() - 1);
+        File swb = new File(BackupFactory.getBackupDir(),
+                "snapshot " + snapshot.getParentFile().getName() + " " + snapshotName + "." + BackupFactory.EXTENSION);
+        FileUtil.makeDir(BackupFactory.getBackupDir());
+
+        try (Snapshot source = open(snapshot);
+             BackupFactory.SwbWriter writer = new BackupFactory.SwbWriter(swb)) {
+            for (String entryName : source.getEntryNames()) {
+                writer.addFile(source.getChunk(entryName), entryName);
+            }
+        } catch (IOException e) {
+            FileUtil.deleteFile(swb.getAbsolutePath());
+            throw e;
+        }
+        return swb;
+    }
+
+    static Snapshot open(File snapshot) throws IOException {
+        return new Snapshot(readManifest(snapshot));
+    }
+
+    private static File getStoreDir() {
+        return new File(BackupFactory.getBackupDir(), ".snapshots");
+    }
+
+    private static File getChunksDir() {
+        return new File(getStoreDir(), "chunks");
+    }
+
+    private static File getChunk(String hash) {
+        return new File(getChunksDir(), hash.substring(0, 2) + File.separator + hash);
+    }
+
+    private File getSnapshotsDir() {
+        return new File(getStoreDir(), sc_id);
+    }
+
+    /**
+     * @return This project's snapshots, newest first
+     */
+    public List<File> getSnapshots() {
+        List<File> snapshots = new ArrayList<>();
+        File[] files = getSnapshotsDir().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isSnapshot(file)) {
+                    snapshots.add(file);
+                }
+            }
+        }
+        snapshots.sort((first, second) -> second.getName().compareTo(first.getName()));
+        return snapshots;
+    }
+
+    /**
+     * Starts a new snapshot. Must be closed, even if it doesn't get committed.
+     */
+    SnapshotWriter newSnapshot() throws IOException {
+        lock.lock();
+        try {
+            List<File> snapshots = getSnapshots();
+            File previous = snapshots.isEmpty() ? null : snapshots.get(0);
+            return new SnapshotWriter(previous, previous == null ? new LinkedHashMap<>() : readManifest(previous));
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    private static LinkedHashMap<String, ManifestEntry> readManifest(File snapshot) throws IOException {
+        LinkedHashMap<String, ManifestEntry> entries = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(snapshot))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ManifestEntry entry = ManifestEntry.fromLine(line);
+                if (entry != null) {
+                    entries.put(entry.name, entry);
+                } else {
+                    LogUtil.w(TAG, "Skipping invalid line of snapshot " + snapshot);
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void writeManifest(File snapshot, Map<String, ManifestEntry> entries) throws IOException {
+        File temporaryFile = new File(snapshot.getAbsolutePath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temporaryFile))) {
+            for (ManifestEntry entry : entries.values()) {
+                writer.write(entry.toLine());
+            }
+        }
+        if (!temporaryFile.renameTo(snapshot)) {
+            throw new IOException("Couldn't replace " + snapshot + " with " + temporaryFile);
+        }
+    }
+
+    /**
+     * Deletes the oldest snapshots of this project beyond {@link #MAX_SNAPSHOTS}, and then chunks that
+     * no snapshot of any project uses anymore.
+     */
+    private void prune() {
+        List<File> snapshots = getSnapshots();
+        if (snapshots.size() <= MAX_SNAPSHOTS) return;
+
+        for (File snapshot : snapshots.subList(MAX_SNAPSHOTS, snapshots.size())) {
+            if (!snapshot.delete()) {
+                LogUtil.w(TAG, "Couldn't delete old snapshot " + snapshot);
+            }
+        }
+
+        Set<String> usedChunks = new HashSet<>();
+        File[] projectDirs = getStoreDir().listFiles();
+        if (projectDirs != null) {
+            for (File projectDir : projectDirs) {
+                if (projectDir.getName().equals(getChunksDir().getName())) continue;
+
+                for (File snapshot : new SnapshotStore(projectDir.getName()).getSnapshots()) {
+                    try {
+                        for (ManifestEntry entry : readManifest(snapshot).values()) {
+                            usedChunks.add(entry.hash);
+                        }
+                    } catch (IOException e) {
+                        // Better keep chunks that might still be used
+                        LogUtil.e(TAG, "Couldn't read snapshot " + snapshot + ", not deleting unused chunks", e);
+                        return;
+                    }
+                }
+            }
+        }
+
+        File[] chunkDirs = getChunksDir().listFiles();
+        if (chunkDirs == null) return;
+        for (File chunkDir : chunkDirs) {
+            File[] chunks = chunkDir.listFiles();
+            if (chunks == null) continue;
+            for (File chunk : chunks) {
+                if (!usedChunks.contains(chunk.getName())) {
+                    chunk.delete();
+                }
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 isn't available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Moves a temporary file into the chunk store as the chunk with the given hash, unless that chunk
+     * exists already.
+     */
+    private static void storeChunk(File temporaryFile, String hash) throws IOException {
+        File chunk = getChunk(hash);
+        if (chunk.exists()) {
+            temporaryFile.delete();
+            return;
+        }
+
+        File parent = chunk.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        if (!temporaryFile.renameTo(chunk)) {
+            temporaryFile.delete();
+            throw new IOException("Couldn't move " + temporaryFile + " to " + chunk);
+        }
+    }
+
+    private static class ManifestEntry {
+        private final String name;
+        private final long length;
+        /**
+         * The file's last modification time, or -1 if it wasn't written from a file
+         */
+        private final long lastModified;
+        private final String hash;
+
+        private ManifestEntry(String name, long length, long lastModified, String hash) {
+            this.name = name;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        private static ManifestEntry fromLine(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 4 || fields[3].length() < 2) return null;
+
+            try {
+                return new ManifestEntry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private String toLine() {
+            return name + "\t" + length + "\t" + lastModified + "\t" + hash + "\n";
+        }
+    }
+
+    /**
+     * Writes a snapshot's files into the chunk store, and its manifest once committed.
+     */
+    class SnapshotWriter extends BackupFactory.BackupWriter {
+        private final File previous;
+        private final Map<String, ManifestEntry> previousEntries;
+        private final LinkedHashMap<String, ManifestEntry> entries = new LinkedHashMap<>();
+        private final byte[] buffer = new byte[BackupFactory.BUFFER_SIZE];
+        private boolean closed = false;
+
+        private SnapshotWriter(File previous, Map<String, ManifestEntry> previousEntries) {
+            this.previous = previous;
+            this.previousEntries = previousEntries;
+        }
+
+        @Override
+        void addFile(File file, String entryName) throws IOException {
+            if (entries.containsKey(entryName)) return;
+
+            long length = file.length();
+            long lastModified = file.lastModified();
+            ManifestEntry previousEntry = previousEntries.get(entryName);
+            if (previousEntry != null && previousEntry.length == length && previousEntry.lastModified == lastModified
+                    && getChunk(previousEntry.hash).exists()) {
+                entries.put(entryName, previousEntry);
+                return;
+            }
+
+            // Hash and copy the file in one pass, so the chunk is guaranteed to match its hash
+            MessageDigest digest = newDigest();
+            File temporaryFile = newTemporaryChunk();
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new FileOutputStream(temporaryFile)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                temporaryFile.delete();
+                throw e;
+            }
+            String hash = toHex(digest.digest());
+            storeChunk(temporaryFile, hash);
+            entries.put(entryName, new ManifestEntry(entryName, length, lastModified, hash));
+        }
+
+        @Override
+        void addBytes(String entryName, byte[] bytes) throws IOException {
+            if (entries.containsKey(entryName)) return;
+
+            String hash = toHex(newDigest().digest(bytes));
+            if (!getChunk(hash).exists()) {
+                File temporaryFile = newTemporaryChunk();
+                try (OutputStream out = new FileOutputStream(temporaryFile)) {
+                    out.write(bytes);
+                } catch (IOException e) {
+                    temporaryFile.delete();
+                    throw e;
+                }
+                storeChunk(temporaryFile, hash);
+            }
+            entries.put(entryName, new ManifestEntry(entryName, bytes.length, -1, hash));
+        }
+
+        private File newTemporaryChunk() throws IOException {
+            File chunksDir = getChunksDir();
+            if (!chunksDir.exists() && !chunksDir.mkdirs()) {
+                throw new IOException("Couldn't create directory " + chunksDir);
+            }
+            return File.createTempFile("chunk", ".tmp", chunksDir);
+        }
+
+        /**
+         * Writes the snapshot's manifest. If no file's contents changed since the previous snapshot,
+         * that one gets updated instead, so saving an unchanged project doesn't add snapshots.
+         *
+         * @return The snapshot
+         */
+        File commit() throws IOException {
+            if (previous != null && hasSameContents(previousEntries)) {
+                writeManifest(previous, entries);
+                return previous;
+            }
+
+            File snapshotsDir = getSnapshotsDir();
+            if (!snapshotsDir.exists() && !snapshotsDir.mkdirs()) {
+                throw new IOException("Couldn't create directory " + snapshotsDir);
+            }
+            File snapshot;
+            long time = System.currentTimeMillis();
+            do {
+                String name = new SimpleDateFormat("yyyy-MM-dd'T'HHmmssSSS", Locale.ENGLISH).format(new Date(time++));
+                snapshot = new File(snapshotsDir, name + "." + EXTENSION);
+            } while (snapshot.exists());
+            writeManifest(snapshot, entries);
+
+            prune();
+            return snapshot;
+        }
+
+        private boolean hasSameContents(Map<String, ManifestEntry> otherEntries) {
+            if (otherEntries.size() != entries.size()) return false;
+
+            for (ManifestEntry entry : entries.values()) {
+                ManifestEntry otherEntry = otherEntries.get(entry.name);
+                if (otherEntry == null || !otherEntry.hash.equals(entry.hash)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A snapshot to restore or export.
+     */
+    static class Snapshot implements BackupFactory.BackupSource {
+        private final LinkedHashMap<String, ManifestEntry> entries;
+
+        private Snapshot(LinkedHashMap<String, ManifestEntry> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public List<String> getEntryNames() {
+            return new ArrayList<>(entries.keySet());
+        }
+
+        private File getChunk(String entryName) throws IOException {
+            ManifestEntry entry = entries.get(entryName);
+            File chunk = entry == null ? null : SnapshotStore.getChunk(entry.hash);
+            if (chunk == null || !chunk.exists()) {
+                throw new IOException("Missing contents of " + entryName + " in the snapshot store");
+            }
+            return chunk;
+        }
+
+        @Override
+        public InputStream open(String entryName) throws IOException {
+            return entries.containsKey(entryName) ? new FileInputStream(getChunk(entryName)) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
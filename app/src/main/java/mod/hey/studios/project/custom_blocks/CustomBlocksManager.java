@@ -10,16 +10,13 @@ import com.google.gson.reflect.TypeToken;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 
 import a.a.a.eC;
 import a.a.a.hC;
 import a.a.a.jC;
 import a.a.a.kq;
-import dev.aldi.sayuti.block.ExtraBlockFile;
 import mod.hey.studios.editor.manage.block.ExtraBlockInfo;
 import mod.hey.studios.editor.manage.block.v2.BlockLoader;
 import pro.sketchware.utility.FileUtil;
@@ -49,15 +46,7 @@ public class CustomBlocksManager {
     }
 
     private boolean isBuildInBlock(String blockName) {
-        if (ExtraBlockFile.buildInBlocks.isEmpty()) {
-            BlockLoader.refresh();
-        }
-        for (HashMap<String, Object> block : ExtraBlockFile.buildInBlocks) {
-            if (Objects.requireNonNull(block.get("name")).toString().equals(blockName)) {
-                return true;
-            }
-        }
-        return false;
+        return BlockLoader.isBuiltInBlock(blockName);
     }
 
     public ExtraBlockInfo getExtraBlockInfo(String name) {
@@ -4,9 +4,17 @@ import android.util.Pair;
 
 import com.google.gson.Gson;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import mod.hey.studios.util.Helper;
 import pro.sketchware.utility.FileUtil;
@@ -25,171 +33,58 @@ import pro.sketchware.utility.FileUtil;
  */
 public class CommandBlock {
 
-    public static String applyCommands(String fileName, String c) {
-        String str = c;
-        String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
-        ArrayList<HashMap<String, Object>> data;
-        try {
-            //writeLog("try");
-            if (FileUtil.isExistFile(path) && !FileUtil.readFile(path).isEmpty() && !FileUtil.readFile(path).equals("[]")) {
-                //writeLog("the file is found and has content :)");
-                data = new Gson().fromJson(FileUtil.readFile(path), Helper.TYPE_MAP_LIST);
-                //writeLog("get gson from file is done");
-                for (int i = 0; i < data.size(); i++) {
-                    //writeLog("element : " + i);
-                    if (getInputName((String) data.get(i).get("input")).equals(fileName)) {
-                        //writeLog("element : " + i + " > find a target !!");
-                        str = N(str, data.get(i));
-                        //writeLog("element : " + i + " > N is done :l");
-                    }
-                }
-                //writeLog("process is succeeded");
-                return str;
-            } else {
-                //writeLog("file isn't found :(");
-                return c;
-            }
-        } catch (Exception e) { /*writeLog("error :("); */
-            return c;
-        }
-    }
-
-    private static String N(String c, HashMap<String, Object> map) {
-        ArrayList<String> a = new ArrayList<>(Arrays.asList(c.split("\n")));
-        String res = "";
-        String reference = (String) map.get("reference");
-        double distance = (double) map.get("distance");
-        double after = (double) map.get("after");
-        double before = (double) map.get("before");
-        String command = (String) map.get("command");
-        String input = getExceptFirstLine((String) map.get("input"));
-
-        if (command.equals("find-replace")) {
-            return c.replace(reference, input);
-        }
-        if (command.equals("find-replace-first")) {
-            try {
-                return c.replaceFirst(reference, input);
-            } catch (Exception e) {
-                return c;
-            }
-        }
+    private static final String COMMANDS_PATH = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
 
-        if (command.equals("find-replace-all")) {
-            try {
-                return c.replaceAll(reference, input);
-            } catch (Exception e) {
-                return c;
-            }
-        }
+    /**
+     * The temporary commands file's commands, compiled once per version of the file
+     */
+    private static CompiledCommands compiledCommands;
 
-        int index = getIndex(a, reference);
-        if (index == -1) {
+    public static String applyCommands(String fileName, String c) {
+        CompiledCommands commands = getCompiledCommands();
+        if (commands.broken || commands.brokenFiles.contains(fileName)) {
             return c;
         }
-
-        if (command.equals("insert")) {
-            if ((index + distance - before) < 0) {
-                a.add(0, input);
-            } else if ((index + distance - before) > (a.size() - 1)) {
-                a.add(input);
-            } else {
-                a.add((int) (index + distance - before), input);
-            }
-        }
-        if (command.equals("add")) {
-            if ((index + distance + after + 1) < 0) {
-                a.add(0, input);
-            } else if ((index + distance + after + 1) > (a.size() - 1)) {
-                a.add(input);
-            } else {
-                a.add((int) (index + distance + after + 1), input);
-            }
+        List<Command> fileCommands = commands.commandsByFile.get(fileName);
+        if (fileCommands == null) {
+            return c;
         }
 
-        //old method
-        /*
-        if(command.equals("replace")){
-            int xxx = (int)(index + distance - before -1);
-            if ( xxx <0 ){ xxx = 0; }
-
-            int ff = (int)(index + distance - before);
-            if ( ff <0 ){ ff = 0; }
-            int tt = (int)(index + distance + after +1);
-            if ( tt > a.size() ){ tt = a.size(); }
-            a.subList(ff , tt).clear();
-
-            if (xxx > a.size()-2){
-                a.add(input);
-            } else {
-                a.add((int)(xxx+1) , input);
+        try {
+            Source source = new Source(c, false);
+            for (Command command : fileCommands) {
+                command.apply(source);
             }
+            return source.getText();
+        } catch (Exception e) {
+            return c;
         }
-        */
+    }
 
-        if (command.equals("replace")) {
-            if (before == 0 && after == 0) {
-                int lineToChange = (int) (index + distance);
-                if (lineToChange < 0) {
-                    lineToChange = 0;
-                }
-                if (lineToChange > (a.size() - 1)) {
-                    lineToChange = a.size() - 1;
-                }
-                a.set(lineToChange, input);
-            } else {
-                int lineToChange = (int) (index + distance);
-                if (lineToChange <= 0) { // ignore backend
-                    lineToChange = 0;
-                    int from = 1;
-                    int to = (int) after + 1;
-                    if (to > (a.size() - 1)) {
-                        to = a.size() - 1;
-                    }
-                    a.subList(from, to).clear();
-                    a.set(0, input);
-                } else if (lineToChange >= (a.size() - 1)) { //ignore frontend
-                    lineToChange = a.size() - 1;
-                    int from = (int) (lineToChange - before);
-                    int to = lineToChange;
-                    if (from < 0) {
-                        from = 0;
-                    }
-                    a.set(lineToChange, input);
-                    a.subList(from, to).clear();
-                } else {  //handle everything
-                    if (before < 0) {
-                        before = 0;
-                    }
-                    if (after < 0) {
-                        after = 0;
-                    }
-                    int from = lineToChange + 1;
-                    int to = lineToChange + (int) after;
-                    if (to > (a.size() - 1)) {
-                        to = a.size() - 1;
-                    }
-                    a.subList(from, to).clear();
-                    a.set(lineToChange, input);
-                    from = (int) (lineToChange - before);
-                    to = lineToChange;
-                    if (from < 0) {
-                        from = 0;
-                    }
-                    a.subList(from, to).clear();
-                }
-            }
-        }
+    /**
+     * @return Commands of the temporary commands file that target {@code fileName}, in the order
+     * {@link #applyCommands(String, String)} applies them
+     */
+    public static List<HashMap<String, Object>> getCommands(String fileName) {
+        List<HashMap<String, Object>> commands = getCompiledCommands().rawCommandsByFile.get(fileName);
+        return commands == null ? Collections.emptyList() : Collections.unmodifiableList(commands);
+    }
 
-        for (int i = 0; i < a.size(); i++) {
-            if (res.isEmpty()) {
-                res = a.get(i);
-            } else {
-                res = res.concat("\n").concat(a.get(i));
-            }
+    private static synchronized CompiledCommands getCompiledCommands() {
+        File file = new File(COMMANDS_PATH);
+        String version = file.isFile() ? file.length() + ":" + file.lastModified() : "";
+        if (compiledCommands == null || !compiledCommands.version.equals(version)) {
+            compiledCommands = new CompiledCommands(version, version.isEmpty() ? new ArrayList<>() : readCommands());
         }
+        return compiledCommands;
+    }
 
-        return res;
+    /**
+     * Makes commands get compiled again on next use. Needs to be called after writing the temporary
+     * commands file other than through this class, as its length and modification time may not change.
+     */
+    public static synchronized void invalidateCompiledCommands() {
+        compiledCommands = null;
     }
 
     public static String getExceptFirstLine(String c) {
@@ -228,6 +123,14 @@ public class CommandBlock {
     }
 
     public static String CBForXml(String c) {
+        return CBForXml(c, null);
+    }
+
+    /**
+     * @param xmlCommands List to add the XML command blocks found in {@code c} to, or <code>null</code>
+     *                    to add them to the temporary commands file right away
+     */
+    public static String CBForXml(String c, ArrayList<HashMap<String, Object>> xmlCommands) {
         String OC = c;
         String RC = OC;
         String SID = "/*AXAVajPNTpbJjsz-NGVTp08YDzfI-04kA7ZsuCl4GHqTQQiuWL45sV6Vf4gwK";
@@ -239,8 +142,12 @@ public class CommandBlock {
             getCBs(Cs, RC, SID, EID);
             //remove commands lines from java file
             RC = rCCs(RC, SID, EID);
-            //write temporary file
-            WTF(Cs);
+            //write temporary file, unless the caller collects commands itself
+            if (xmlCommands == null) {
+                WTF(Cs);
+            } else {
+                xmlCommands.addAll(Cs);
+            }
             return RC;
         } catch (Exception e) {
             writeLog(e.toString());
@@ -248,28 +155,61 @@ public class CommandBlock {
         }
     }
 
+    /**
+     * Adds XML command blocks collected by {@link #CBForXml(String, ArrayList)} to the temporary
+     * commands file, after the ones already in it.
+     */
+    public static void addXmlCommands(ArrayList<HashMap<String, Object>> xmlCommands) {
+        WTF(xmlCommands);
+    }
+
+    /**
+     * @return All commands in the temporary commands file, as {@link #applyCommands(String, String)} sees them
+     */
+    public static ArrayList<HashMap<String, Object>> readCommands() {
+        try {
+            if (FileUtil.isExistFile(COMMANDS_PATH)) {
+                ArrayList<HashMap<String, Object>> data = new Gson().fromJson(FileUtil.readFile(COMMANDS_PATH), Helper.TYPE_MAP_LIST);
+                if (data != null) {
+                    return data;
+                }
+            }
+        } catch (Exception ignored) {
+        }
+        return new ArrayList<>();
+    }
+
     // Write Temporary File
-    private static void WTF(ArrayList<HashMap<String, Object>> list) {
-        String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
+    private static synchronized void WTF(ArrayList<HashMap<String, Object>> list) {
         ArrayList<HashMap<String, Object>> data = new ArrayList<>();
         try {
-            if (FileUtil.isExistFile(path) && !FileUtil.readFile(path).isEmpty() && !FileUtil.readFile(path).equals("[]")) {
-                data = new Gson().fromJson(FileUtil.readFile(path), Helper.TYPE_MAP_LIST);
+            String content = FileUtil.isExistFile(COMMANDS_PATH) ? FileUtil.readFile(COMMANDS_PATH) : "";
+            if (!content.isEmpty() && !content.equals("[]")) {
+                data = new Gson().fromJson(content, Helper.TYPE_MAP_LIST);
             }
         } catch (Exception ignored) {
         }
         data.addAll(list);
-        FileUtil.writeFile(path, new Gson().toJson(data));
+        FileUtil.writeFile(COMMANDS_PATH, new Gson().toJson(data));
+        invalidateCompiledCommands();
     }
 
     public static void x() {
-        String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/commands");
-        if (FileUtil.isExistFile(path)) {
-            FileUtil.deleteFile(path);
+        if (FileUtil.isExistFile(COMMANDS_PATH)) {
+            FileUtil.deleteFile(COMMANDS_PATH);
         }
+        invalidateCompiledCommands();
     }
 
     public static String CB(String c) {
+        return CB(c, null);
+    }
+
+    /**
+     * @param xmlCommands List to add the XML command blocks found in {@code c} to, or <code>null</code>
+     *                    to add them to the temporary commands file right away
+     */
+    public static String CB(String c, ArrayList<HashMap<String, Object>> xmlCommands) {
         String OC = c;
         String RC = OC;
         String SID = "/*-JX4UA2y_f1OckjjvxWI.bQwRei-sLEsBmds7ArsRfi0xSFEP3Php97kjdMCs5ed";
@@ -282,7 +222,7 @@ public class CommandBlock {
             //remove commands lines from java file
             RC = rCCs(RC, SID, EID);
             //command blocks for xml
-            RC = CBForXml(RC);
+            RC = CBForXml(RC, xmlCommands);
             //apply commands
             RC = aCs(Cs, RC);
             return RC;
@@ -292,7 +232,7 @@ public class CommandBlock {
         }
     }
 
-    private static void writeLog(String s) {
+    private static synchronized void writeLog(String s) {
         String path = FileUtil.getExternalStorageDir().concat("/.sketchware/temp/log.txt");
         String text = "";
         if (FileUtil.isExistFile(path)) {
@@ -322,178 +262,12 @@ public class CommandBlock {
         }
     }
 
-    private static String assemble(ArrayList<String> a) {
-        String res = "";
-        for (int i = 0; i < a.size(); i++) {
-            if (res.isEmpty()) {
-                res = a.get(i);
-            } else {
-                res = res.concat("\n").concat(a.get(i));
-            }
-        }
-        return res;
-    }
-
     private static String aCs(ArrayList<HashMap<String, Object>> arr, String c) {
-        ArrayList<String> a = new ArrayList<>(Arrays.asList(c.split("\n")));
-        String res = "";
-        for (int i = 0; i < arr.size(); i++) {
-            String reference = (String) arr.get(i).get("reference");
-            int distance = (int) arr.get(i).get("distance");
-            int after = (int) arr.get(i).get("after");
-            int before = (int) arr.get(i).get("before");
-            String command = (String) arr.get(i).get("command");
-            String input = (String) arr.get(i).get("input");
-
-            if (command.equals("find-replace")) {
-                String temp = assemble(a);
-                temp = temp.replace(reference, input);
-                a = new ArrayList<>(Arrays.asList(temp.split("\n")));
-                continue;
-            }
-            if (command.equals("find-replace-first")) {
-                try {
-                    String temp = assemble(a);
-                    temp = temp.replaceFirst(reference, input);
-                    a = new ArrayList<>(Arrays.asList(temp.split("\n")));
-                    continue;
-                } catch (Exception e) {
-                    continue;
-                }
-            }
-
-            if (command.equals("find-replace-all")) {
-                try {
-                    String temp = assemble(a);
-                    temp = temp.replaceAll(reference, input);
-                    a = new ArrayList<>(Arrays.asList(temp.split("\n")));
-                    continue;
-                } catch (Exception e) {
-                    continue;
-                }
-            }
-
-            int index = getIndex(a, reference);
-            if (index == -1) {
-                continue;
-            }
-
-
-            if (command.equals("insert")) {
-                if ((index + distance - before) < 0) {
-                    a.add(0, input);
-                } else if ((index + distance - before) > (a.size() - 1)) {
-                    a.add(input);
-                } else {
-                    a.add(index + distance - before, input);
-                }
-                continue;
-            }
-            if (command.equals("add")) {
-                if ((index + distance + after + 1) < 0) {
-                    a.add(0, input);
-                } else if ((index + distance + after + 1) > (a.size() - 1)) {
-                    a.add(input);
-                } else {
-                    a.add(index + distance + after + 1, input);
-                }
-                continue;
-            }
-
-            ///old method
-        /*
-        if(command.equals("replace")){
-            boolean isZ = false;
-            int xxx = (int)(index + distance - before -1);
-            if ( xxx <=0 ){ isZ = true; xxx = 0; }
-
-            int ff = (int)(index + distance - before);
-            if ( ff <0 ){ ff = 0; }
-            int tt = (int)(index + distance + after +1);
-            if ( tt > a.size() ){ tt = a.size(); }
-            a.subList(ff , tt).clear();
-            //// fix bug
-            if (xxx > a.size()-2){
-                a.add(input);
-            } else if(isZ) {
-                a.add(0, input);
-            } else {
-                a.add((int)(xxx+1) , input);
-            } continue ;}*/
-
-            if (command.equals("replace")) {
-                if (before == 0 && after == 0) {
-                    int lineToChange = index + distance;
-                    if (lineToChange < 0) {
-                        lineToChange = 0;
-                    }
-                    if (lineToChange > (a.size() - 1)) {
-                        lineToChange = a.size() - 1;
-                    }
-                    a.set(lineToChange, input);
-                } else {
-                    int lineToChange = index + distance;
-                    if (lineToChange <= 0) { // ignore backend
-                        lineToChange = 0;
-                        int from = 1;
-                        int to = after + 1;
-                        if (to > (a.size() - 1)) {
-                            to = a.size() - 1;
-                        }
-                        a.subList(from, to).clear();
-                        a.set(0, input);
-                    } else if (lineToChange >= (a.size() - 1)) { //ignore frontend
-                        lineToChange = a.size() - 1;
-                        int from = lineToChange - before;
-                        int to = lineToChange;
-                        if (from < 0) {
-                            from = 0;
-                        }
-                        a.set(lineToChange, input);
-                        a.subList(from, to).clear();
-                    } else {  //handle everything
-                        if (before < 0) {
-                            before = 0;
-                        }
-                        if (after < 0) {
-                            after = 0;
-                        }
-                        int from = lineToChange + 1;
-                        int to = lineToChange + after;
-                        if (to > (a.size() - 1)) {
-                            to = a.size() - 1;
-                        }
-                        a.subList(from, to).clear();
-                        a.set(lineToChange, input);
-                        from = lineToChange - before;
-                        to = lineToChange;
-                        if (from < 0) {
-                            from = 0;
-                        }
-                        a.subList(from, to).clear();
-                    }
-                }
-            }
+        Source source = new Source(c, true);
+        for (HashMap<String, Object> map : arr) {
+            new Command(map, (String) map.get("input")).apply(source);
         }
-
-        for (int i = 0; i < a.size(); i++) {
-            if (res.isEmpty()) {
-                res = a.get(i);
-            } else {
-                res = res.concat("\n").concat(a.get(i));
-            }
-        }
-
-        return res;
-    }
-
-    private static int getIndex(ArrayList<String> a, String r) {
-        for (int i = 0; i < a.size(); i++) {
-            if (a.get(i).contains(r)) {
-                return i;
-            }
-        }
-        return -1;
+        return source.getText();
     }
 
     private static String rCCs(String c, String sid, String eid) {
@@ -569,4 +343,314 @@ public class CommandBlock {
         hm.put("input", input);
         arr2.add(hm);
     }
+
+    /**
+     * Joins lines like the command engine always has: leading empty lines get dropped.
+     */
+    private static String join(List<String> lines) {
+        int firstLine = 0;
+        while (firstLine < lines.size() && lines.get(firstLine).isEmpty()) {
+            firstLine++;
+        }
+        return String.join("\n", lines.subList(firstLine, lines.size()));
+    }
+
+    private static ArrayList<String> split(String text) {
+        return new ArrayList<>(Arrays.asList(text.split("\n")));
+    }
+
+    /**
+     * Commands of the temporary commands file, grouped by the file they target.
+     */
+    private static class CompiledCommands {
+        private final String version;
+        private final Map<String, List<Command>> commandsByFile = new HashMap<>();
+        private final Map<String, List<HashMap<String, Object>>> rawCommandsByFile = new HashMap<>();
+        /**
+         * Files with a malformed command, which get left as they are
+         */
+        private final Set<String> brokenFiles = new HashSet<>();
+        /**
+         * If a command's input isn't text, in which case no file gets changed
+         */
+        private boolean broken = false;
+
+        private CompiledCommands(String version, List<HashMap<String, Object>> commands) {
+            this.version = version;
+            for (HashMap<String, Object> map : commands) {
+                if (!(map.get("input") instanceof String input)) {
+                    broken = true;
+                    continue;
+                }
+
+                String fileName = getInputName(input);
+                rawCommandsByFile.computeIfAbsent(fileName, k -> new ArrayList<>()).add(map);
+                try {
+                    commandsByFile.computeIfAbsent(fileName, k -> new ArrayList<>()).add(new Command(map, getExceptFirstLine(input)));
+                } catch (Exception e) {
+                    brokenFiles.add(fileName);
+                }
+            }
+        }
+    }
+
+    private static class Command {
+        private final String command;
+        private final String reference;
+        private final String input;
+        private final double distance;
+        private final double after;
+        private final double before;
+        /**
+         * The compiled reference of find-replace-first and find-replace-all commands, or <code>null</code>
+         * if it isn't a valid regular expression
+         */
+        private final Pattern pattern;
+
+        private Command(HashMap<String, Object> map, String input) {
+            command = (String) map.get("command");
+            reference = (String) map.get("reference");
+            this.input = input;
+            distance = ((Number) map.get("distance")).doubleValue();
+            after = ((Number) map.get("after")).doubleValue();
+            before = ((Number) map.get("before")).doubleValue();
+
+            Pattern pattern = null;
+            if ("find-replace-first".equals(command) || "find-replace-all".equals(command)) {
+                try {
+                    pattern = Pattern.compile(reference);
+                } catch (Exception ignored) {
+                }
+            }
+            this.pattern = pattern;
+        }
+
+        private void apply(Source source) {
+            switch (command) {
+                case "find-replace" -> source.setText(source.getText().replace(reference, input));
+                case "find-replace-first", "find-replace-all" -> {
+                    if (pattern == null) return;
+                    try {
+                        Matcher matcher = pattern.matcher(source.getText());
+                        source.setText(command.equals("find-replace-first") ? matcher.replaceFirst(input) : matcher.replaceAll(input));
+                    } catch (Exception ignored) {
+                    }
+                }
+                default -> applyToLines(source);
+            }
+        }
+
+        private void applyToLines(Source source) {
+            ArrayList<String> lines = source.getLines();
+            int index = -1;
+            for (int i = 0; i < lines.size(); i++) {
+                if (lines.get(i).contains(reference)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == -1) return;
+
+            int changedLine = -1;
+            switch (command) {
+                case "insert" -> {
+                    double position = index + distance - before;
+                    if (position < 0) {
+                        lines.add(0, input);
+                        changedLine = 0;
+                    } else if (position > lines.size() - 1) {
+                        lines.add(input);
+                        changedLine = lines.size() - 1;
+                    } else {
+                        changedLine = (int) position;
+                        lines.add(changedLine, input);
+                    }
+                }
+                case "add" -> {
+                    double position = index + distance + after + 1;
+                    if (position < 0) {
+                        lines.add(0, input);
+                        changedLine = 0;
+                    } else if (position > lines.size() - 1) {
+                        lines.add(input);
+                        changedLine = lines.size() - 1;
+                    } else {
+                        changedLine = (int) position;
+                        lines.add(changedLine, input);
+                    }
+                }
+                case "replace" -> changedLine = replace(lines, index);
+            }
+            source.linesChanged(changedLine);
+        }
+
+        /**
+         * @return Index of the line {@link #input} ended up at
+         */
+        private int replace(ArrayList<String> lines, int index) {
+            int lineToChange = (int) (index + distance);
+            if (before == 0 && after == 0) {
+                if (lineToChange < 0) {
+                    lineToChange = 0;
+                } else if (lineToChange > lines.size() - 1) {
+                    lineToChange = lines.size() - 1;
+                }
+                lines.set(lineToChange, input);
+                return lineToChange;
+            }
+
+            if (lineToChange <= 0) {
+                //ignore backend
+                int to = (int) after + 1;
+                if (to > lines.size() - 1) {
+                    to = lines.size() - 1;
+                }
+                lines.subList(1, to).clear();
+                lines.set(0, input);
+                return 0;
+            } else if (lineToChange >= lines.size() - 1) {
+                //ignore frontend
+                lineToChange = lines.size() - 1;
+                int from = (int) (lineToChange - before);
+                if (from < 0) {
+                    from = 0;
+                }
+                lines.set(lineToChange, input);
+                lines.subList(from, lineToChange).clear();
+                return from;
+            } else {
+                //handle everything
+                double before = Math.max(this.before, 0);
+                double after = Math.max(this.after, 0);
+                int to = lineToChange + (int) after;
+                if (to > lines.size() - 1) {
+                    to = lines.size() - 1;
+                }
+                lines.subList(lineToChange + 1, to).clear();
+                lines.set(lineToChange, input);
+                int from = (int) (lineToChange - before);
+                if (from < 0) {
+                    from = 0;
+                }
+                lines.subList(from, lineToChange).clear();
+                return from;
+            }
+        }
+    }
+
+    /**
+     * Code commands get applied to. It's kept as lines while line-based commands run, and as text
+     * while find-replace commands run, instead of getting split and joined for every command.
+     */
+    private static class Source {
+        private static final int NO_PENDING_CHANGE = Integer.MIN_VALUE;
+
+        /**
+         * If lines stay as commands left them, like Java command blocks always had it, instead of
+         * looking like they got joined and split again after every command
+         */
+        private final boolean keepLines;
+        private String text;
+        private ArrayList<String> lines;
+        /**
+         * If {@link #lines} holds the current code, with {@link #text} possibly outdated
+         */
+        private boolean linesAreCurrent;
+        /**
+         * Index of the line the last line-based command changed, if lines still need to look like
+         * they got joined and split again
+         */
+        private int changedLine = NO_PENDING_CHANGE;
+        /**
+         * How many line breaks followed {@link #lines} before they got split, or -1 if they get
+         * joined like commands always have
+         */
+        private int trailingLineBreaks = -1;
+
+        private Source(String code, boolean keepLines) {
+            this.keepLines = keepLines;
+            if (keepLines) {
+                lines = split(code);
+                linesAreCurrent = true;
+            } else {
+                text = code;
+            }
+        }
+
+        private ArrayList<String> getLines() {
+            if (lines == null) {
+                lines = split(text);
+            } else if (changedLine != NO_PENDING_CHANGE) {
+                normalizeLines(changedLine);
+                changedLine = NO_PENDING_CHANGE;
+            }
+            return lines;
+        }
+
+        private String getText() {
+            if (linesAreCurrent && text == null) {
+                text = trailingLineBreaks == -1 ? join(lines)
+                        : String.join("\n", lines) + "\n".repeat(trailingLineBreaks);
+            }
+            return text;
+        }
+
+        private void setText(String newText) {
+            changedLine = NO_PENDING_CHANGE;
+            trailingLineBreaks = -1;
+            if (keepLines) {
+                lines = split(newText);
+                text = null;
+                linesAreCurrent = true;
+            } else {
+                text = newText;
+                lines = null;
+                linesAreCurrent = false;
+            }
+        }
+
+        /**
+         * @param changedLine Index of the line a command set or inserted, or -1
+         */
+        private void linesChanged(int changedLine) {
+            text = null;
+            linesAreCurrent = true;
+            trailingLineBreaks = -1;
+            if (!keepLines) {
+                this.changedLine = changedLine;
+            }
+        }
+
+        /**
+         * Leaves lines as joining and splitting them again would: leading empty lines get dropped,
+         * the changed line gets split up and trailing empty lines get dropped. The code itself stays
+         * as the last command left it, in case the next command doesn't change anything.
+         */
+        private void normalizeLines(int changedLine) {
+            int leadingEmptyLines = 0;
+            while (leadingEmptyLines < lines.size() && lines.get(leadingEmptyLines).isEmpty()) {
+                leadingEmptyLines++;
+            }
+            if (leadingEmptyLines == lines.size()) {
+                lines.clear();
+                lines.add("");
+                trailingLineBreaks = 0;
+                return;
+            }
+            lines.subList(0, leadingEmptyLines).clear();
+            changedLine -= leadingEmptyLines;
+
+            if (changedLine >= 0 && lines.get(changedLine).indexOf('\n') != -1) {
+                String[] parts = lines.get(changedLine).split("\n", -1);
+                lines.set(changedLine, parts[0]);
+                lines.addAll(changedLine + 1, Arrays.asList(parts).subList(1, parts.length));
+            }
+            int emptyLinesDropped = 0;
+            while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+                lines.remove(lines.size() - 1);
+                emptyLinesDropped++;
+            }
+            trailingLineBreaks = lines.isEmpty() ? emptyLinesDropped - 1 : emptyLinesDropped;
+        }
+    }
 }
@@ -0,0 +1,193 @@
+package mod.jbk.build;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import mod.jbk.util.LogUtil;
+
+/**
+ * Runs the steps of a build in the order their inputs and outputs dictate, instead of one after
+ * another.
+ * <p>
+ * Every step declares the artifacts it consumes and the ones it produces, e.g. AAPT2 consumes
+ * generated resources and produces <code>R.java</code>. A step starts as soon as the steps producing
+ * what it consumes have finished, so steps that don't depend on each other (like extracting
+ * built-in libraries while source code gets generated) run at the same time.
+ * <p>
+ * Steps only get started if the build hasn't been canceled and no step has failed yet. Steps
+ * already running always get to finish, so no step is still writing files once {@link #execute(BooleanSupplier)}
+ * returns.
+ */
+public class BuildGraph {
+    private static final String TAG = "BuildGraph";
+
+    private final List<Step> steps = new ArrayList<>();
+    private final int parallelism;
+    private BuildTrace trace;
+
+    /**
+     * @param parallelism How many steps may run at the same time at most
+     */
+    public BuildGraph(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public BuildGraph() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Records a span for every step that runs, named like the step.
+     */
+    public void setTrace(BuildTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Adds a step to the graph. Declare its inputs and outputs with {@link Step#consumes(String...)}
+     * and {@link Step#produces(String...)}.
+     *
+     * @param name The step's name, used for logging and tracing
+     */
+    public Step add(String name, Action action) {
+        Step step = new Step(name, action);
+        steps.add(step);
+        return step;
+    }
+
+    /**
+     * Runs all steps, and returns once all of them have finished, the build got canceled, or a step
+     * failed.
+     *
+     * @param isCanceled Checked before starting a step
+     * @throws Exception The exception thrown by the first step that failed
+     */
+    public void execute(BooleanSupplier isCanceled) throws Exception {
+        Map<Step, Set<Step>> dependencies = resolveDependencies();
+        List<Step> pending = new ArrayList<>(steps);
+        Set<Step> finished = new HashSet<>();
+        Exception failure = null;
+        int running = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, steps.size())));
+        CompletionService<Step> completionService = new ExecutorCompletionService<>(executor);
+        try {
+            while (!pending.isEmpty() || running > 0) {
+                if (failure == null && !isCanceled.getAsBoolean()) {
+                    /* Start steps in the order they got added, so that runs are as predictable as possible */
+                    for (Step step : new ArrayList<>(pending)) {
+                        if (finished.containsAll(dependencies.get(step))) {
+                            pending.remove(step);
+                            running++;
+                            completionService.submit(() -> {
+                                try (BuildTrace.Span ignored = trace != null ? trace.begin(step.name) : null) {
+                                    step.action.run();
+                                }
+                                return step;
+                            });
+                        }
+                    }
+                }
+
+                if (running == 0) {
+                    if (failure != null || isCanceled.getAsBoolean()) break;
+                    throw new IllegalStateException("Build steps depend on each other in a cycle: " + pending);
+                }
+
+                try {
+                    finished.add(completionService.take().get());
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (failure == null) {
+                        failure = cause instanceof Exception exception ? exception : e;
+                    } else {
+                        LogUtil.e(TAG, "Another build step failed as well", cause);
+                    }
+                } finally {
+                    running--;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Map<Step, Set<Step>> resolveDependencies() {
+        Map<String, Step> producers = new HashMap<>();
+        for (Step step : steps) {
+            for (String output : step.outputs) {
+                Step otherProducer = producers.put(output, step);
+                if (otherProducer != null) {
+                    throw new IllegalStateException("Both " + otherProducer + " and " + step + " produce " + output);
+                }
+            }
+        }
+
+        Map<Step, Set<Step>> dependencies = new HashMap<>();
+        for (Step step : steps) {
+            Set<Step> stepDependencies = new HashSet<>();
+            for (String input : step.inputs) {
+                Step producer = producers.get(input);
+                if (producer == null) {
+                    throw new IllegalStateException(step + " consumes " + input + ", but no step produces it");
+                }
+                stepDependencies.add(producer);
+            }
+            dependencies.put(step, stepDependencies);
+        }
+        return dependencies;
+    }
+
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    public static class Step {
+        private final String name;
+        private final Action action;
+        private final Set<String> inputs = new LinkedHashSet<>();
+        private final Set<String> outputs = new LinkedHashSet<>();
+
+        private Step(String name, Action action) {
+            this.name = name;
+            this.action = action;
+        }
+
+        /**
+         * Declares artifacts the step needs to have been produced before it can run.
+         */
+        public Step consumes(String... artifacts) {
+            Collections.addAll(inputs, artifacts);
+            return this;
+        }
+
+        /**
+         * Declares artifacts the step produces.
+         */
+        public Step produces(String... artifacts) {
+            Collections.addAll(outputs, artifacts);
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return "step \"" + name + "\"";
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package mod.jbk.build;
+
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Records how long the phases of a build take, as spans with wall time, CPU time of the thread
+ * running the span, bytes allocated by the whole process and the Java heap in use once a span ends.
+ * Spans can be nested, e.g. AAPT2's compile and link spans within the AAPT2 build step.
+ * <p>
+ * Spans can be written as a Chrome trace-event JSON file (viewable in <code>chrome://tracing</code>
+ * or Perfetto), and summarized into a {@link BuildTraceHistory} entry.
+ */
+public class BuildTrace {
+    private static final String TAG = "BuildTrace";
+
+    private final List<Span> spans = new ArrayList<>();
+    private long startMicros = SystemClock.elapsedRealtimeNanos() / 1000;
+    private long startedAt = System.currentTimeMillis();
+    private Span currentPhase;
+
+    /**
+     * Starts tracing a build, dropping spans recorded before.
+     */
+    public void start() {
+        synchronized (spans) {
+            spans.clear();
+        }
+        currentPhase = null;
+        startMicros = SystemClock.elapsedRealtimeNanos() / 1000;
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Bytes the runtime allocated since the process started, or <code>-1</code> if unknown
+     */
+    private static long getBytesAllocated() {
+        String bytesAllocated = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        if (bytesAllocated == null) return -1;
+        try {
+            return Long.parseLong(bytesAllocated);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Begins a span, to be used in a try-with-resources statement:
+     * <pre>
+     *     try (BuildTrace.Span ignored = builder.buildTrace.begin("Source generation")) {
+     *         ...
+     *     }
+     * </pre>
+     */
+    public Span begin(String name) {
+        return new Span(name);
+    }
+
+    /**
+     * Ends the phase begun by the last call, if any, and begins a new one, for builds running their
+     * phases one after another on the same thread.
+     */
+    public void nextPhase(String name) {
+        endPhase();
+        currentPhase = begin(name);
+    }
+
+    /**
+     * Ends the phase begun by {@link #nextPhase(String)}, if any.
+     */
+    public void endPhase() {
+        if (currentPhase != null) {
+            currentPhase.close();
+            currentPhase = null;
+        }
+    }
+
+    /**
+     * @return The summed up wall time of all finished spans per span name, in order of first occurrence
+     */
+    public Map<String, Long> getPhaseDurations() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        synchronized (spans) {
+            for (Span span : spans) {
+                durations.merge(span.name, span.durationMicros / 1000, Long::sum);
+            }
+        }
+        return durations;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return Milliseconds passed since tracing started
+     */
+    public long getElapsedMillis() {
+        return (SystemClock.elapsedRealtimeNanos() / 1000 - startMicros) / 1000;
+    }
+
+    /**
+     * Writes all finished spans to {@code file} in Chrome's trace-event format.
+     */
+    public void writeChromeTrace(File file) {
+        List<Map<String, Object>> events = new ArrayList<>();
+        int pid = Process.myPid();
+        synchronized (spans) {
+            for (Span span : spans) {
+                Map<String, Object> args = new HashMap<>();
+                args.put("threadCpuMillis", span.threadCpuMillis);
+                args.put("processAllocatedBytes", span.processAllocatedBytes);
+                args.put("processUsedHeapBytes", span.processUsedHeapBytes);
+
+                Map<String, Object> event = new LinkedHashMap<>();
+                event.put("name", span.name);
+                event.put("cat", "build");
+                event.put("ph", "X");
+                event.put("ts", span.startMicros - startMicros);
+                event.put("dur", span.durationMicros);
+                event.put("pid", pid);
+                event.put("tid", span.threadId);
+                event.put("args", args);
+                events.add(event);
+            }
+        }
+
+        Map<String, Object> trace = new HashMap<>();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        FileUtil.writeFile(file.getAbsolutePath(), new Gson().toJson(trace));
+        LogUtil.d(TAG, "Wrote build trace with " + events.size() + " spans to " + file);
+    }
+
+    /**
+     * A phase of a build. Ends when closed, which must happen on the thread that began it.
+     * <p>
+     * CPU time is the one of that thread only, so it excludes work the phase hands off to other
+     * threads. Allocated bytes and heap in use are process totals, so they include allocations of
+     * phases running at the same time.
+     */
+    public class Span implements AutoCloseable {
+        private final String name;
+        private final long threadId = Thread.currentThread().getId();
+        private final long startMicros = SystemClock.elapsedRealtimeNanos() / 1000;
+        private final long startThreadCpuMillis = SystemClock.currentThreadTimeMillis();
+        private final long startAllocatedBytes = getBytesAllocated();
+        private long durationMicros;
+        private long threadCpuMillis;
+        private long processAllocatedBytes;
+        private long processUsedHeapBytes;
+
+        private Span(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            durationMicros = SystemClock.elapsedRealtimeNanos() / 1000 - startMicros;
+            threadCpuMillis = SystemClock.currentThreadTimeMillis() - startThreadCpuMillis;
+            long endAllocatedBytes = getBytesAllocated();
+            processAllocatedBytes = startAllocatedBytes < 0 || endAllocatedBytes < 0 ? 0 : endAllocatedBytes - startAllocatedBytes;
+            Runtime runtime = Runtime.getRuntime();
+            processUsedHeapBytes = runtime.totalMemory() - runtime.freeMemory();
+            synchronized (spans) {
+                spans.add(this);
+            }
+            LogUtil.d(TAG, name + " took " + durationMicros / 1000 + " ms (" + threadCpuMillis + " ms CPU on its thread, "
+                    + processAllocatedBytes + " B allocated by the process, " + processUsedHeapBytes + " B heap in use)");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package mod.jbk.build;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Per-project history of the phase timings of the last {@link #MAX_ENTRIES} successful builds and
+ * exports, kept next to the project's build settings so that it survives the build directory being wiped.
+ */
+public class BuildTraceHistory {
+    public static final int MAX_ENTRIES = 20;
+    private static final String TAG = "BuildTraceHistory";
+    private static final Type TYPE_ENTRY_LIST = new TypeToken<ArrayList<Entry>>() {
+    }.getType();
+
+    private final String path;
+    private List<Entry> entries;
+
+    public BuildTraceHistory(String sc_id) {
+        path = FileUtil.getExternalStorageDir() + "/.sketchware/data/" + sc_id + "/build_history";
+
+        if (FileUtil.isExistFile(path)) {
+            try {
+                entries = new Gson().fromJson(FileUtil.readFile(path), TYPE_ENTRY_LIST);
+            } catch (Exception e) {
+                LogUtil.e(TAG, "Failed to read build history, starting a new one", e);
+            }
+        }
+        if (entries == null) {
+            entries = new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return All entries, oldest first
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Adds a finished build's phase timings, drops the oldest entries beyond {@link #MAX_ENTRIES},
+     * and saves the history.
+     */
+    public void add(BuildTrace trace) {
+        add(trace, false);
+    }
+
+    /**
+     * Like {@link #add(BuildTrace)}, for builds of either the APK to run or an export.
+     */
+    public void add(BuildTrace trace, boolean export) {
+        Entry entry = new Entry();
+        entry.export = export;
+        entry.startedAt = trace.getStartedAt();
+        entry.totalMillis = trace.getElapsedMillis();
+        entry.phases = trace.getPhaseDurations();
+        entries.add(entry);
+        while (entries.size() > MAX_ENTRIES) {
+            entries.remove(0);
+        }
+        FileUtil.writeFile(path, new Gson().toJson(entries));
+    }
+
+    /**
+     * @return Names of all phases that occur in any entry, in order of first occurrence
+     */
+    public List<String> getPhaseNames() {
+        Map<String, Boolean> names = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            if (entry.phases != null) {
+                for (String phase : entry.phases.keySet()) {
+                    names.put(phase, true);
+                }
+            }
+        }
+        return new ArrayList<>(names.keySet());
+    }
+
+    public static class Entry {
+        public long startedAt;
+        public long totalMillis;
+        /**
+         * If the entry is of an export instead of a build of the APK to run
+         */
+        public boolean export;
+        public Map<String, Long> phases;
+    }
+}
@@ -0,0 +1,203 @@
+package mod.jbk.build;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * A persisted map of keys (usually relative file paths) to fingerprints (usually content hashes),
+ * used by build steps to find out which of their inputs changed since the last build.
+ * <p>
+ * The file format is one <code>key\tfingerprint</code> pair per line. A missing or unreadable
+ * file is treated like an empty store, which makes build steps fall back to a full rebuild.
+ */
+public class FingerprintStore {
+    private static final String TAG = "FingerprintStore";
+
+    private final File file;
+    private final Map<String, String> fingerprints = new HashMap<>();
+
+    public FingerprintStore(File file) {
+        this.file = file;
+
+        if (file.isFile()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf('\t');
+                    if (separator > 0) {
+                        fingerprints.put(line.substring(0, separator), line.substring(separator + 1));
+                    }
+                }
+            } catch (IOException e) {
+                LogUtil.w(TAG, "Couldn't read fingerprints from " + file + ", ignoring them", e);
+                fingerprints.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The SHA-1 hash of {@code file}'s content, as lowercase hex string.
+     */
+    public static String hashFile(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[16384];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Cheaply fingerprints a directory by the relative paths, sizes and modification timestamps
+     * of all files in it, without reading their contents.
+     *
+     * @return The SHA-1 hash of all files' metadata, as lowercase hex string.
+     */
+    public static String fingerprintDirectory(File directory) {
+        List<File> files = FileUtil.listFilesRecursively(directory, "");
+        files.sort(null);
+
+        StringBuilder metadata = new StringBuilder();
+        int prefixLength = directory.getAbsolutePath().length();
+        for (File file : files) {
+            metadata.append(file.getAbsolutePath().substring(prefixLength)).append(':')
+                    .append(file.length()).append(':')
+                    .append(file.lastModified()).append('\n');
+        }
+        return hashString(metadata.toString());
+    }
+
+    /**
+     * Fingerprints a directory by the relative paths and contents of all files in it. Unlike
+     * {@link #fingerprintDirectory(File)}, this doesn't change if files get rewritten with the
+     * same content.
+     *
+     * @return The SHA-1 hash of all files' relative paths and content hashes, as lowercase hex string.
+     */
+    public static String hashDirectory(File directory) throws IOException {
+        List<File> files = FileUtil.listFilesRecursively(directory, "");
+        files.sort(null);
+
+        StringBuilder hashes = new StringBuilder();
+        int prefixLength = directory.getAbsolutePath().length();
+        for (File file : files) {
+            hashes.append(file.getAbsolutePath().substring(prefixLength)).append(':')
+                    .append(hashFile(file)).append('\n');
+        }
+        return hashString(hashes.toString());
+    }
+
+    /**
+     * @return The SHA-1 hash of {@code value}, as lowercase hex string.
+     */
+    public static String hashString(String value) {
+        MessageDigest digest;
+        try {
+            digest = newDigest();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return toHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    public String get(String key) {
+        return fingerprints.get(key);
+    }
+
+    public void put(String key, String fingerprint) {
+        fingerprints.put(key, fingerprint);
+    }
+
+    public void putAll(Map<String, String> fingerprints) {
+        this.fingerprints.putAll(fingerprints);
+    }
+
+    public void remove(String key) {
+        fingerprints.remove(key);
+    }
+
+    public Set<String> keySet() {
+        return fingerprints.keySet();
+    }
+
+    public void clear() {
+        fingerprints.clear();
+    }
+
+    /**
+     * @return If {@code key} currently has the fingerprint {@code fingerprint}.
+     */
+    public boolean matches(String key, String fingerprint) {
+        return fingerprint.equals(fingerprints.get(key));
+    }
+
+    /**
+     * Writes all fingerprints to disk. Writes to a temporary file first, so that a build getting
+     * interrupted can't leave a half-written store behind.
+     */
+    public void save() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Couldn't create directory " + parent);
+        }
+
+        File temporaryFile = new File(file.getAbsolutePath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(temporaryFile))) {
+            for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue());
+                writer.write('\n');
+            }
+        }
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Couldn't move " + temporaryFile + " to " + file);
+        }
+    }
+
+    /**
+     * Deletes the store from disk and forgets all fingerprints.
+     */
+    public void delete() {
+        fingerprints.clear();
+        if (file.exists() && !file.delete()) {
+            LogUtil.w(TAG, "Couldn't delete " + file);
+        }
+    }
+}
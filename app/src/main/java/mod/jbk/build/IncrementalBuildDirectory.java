@@ -0,0 +1,167 @@
+package mod.jbk.build;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import com.besome.sketch.beans.ProjectResourceBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import a.a.a.yq;
+import mod.hey.studios.project.stringfog.StringfogHandler;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.SketchApplication;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Keeps a project's build directory (<code>.sketchware/mysc/&lt;sc_id&gt;</code>) between builds, so
+ * that build steps can reuse outputs of the previous build instead of starting from scratch.
+ * <p>
+ * Outputs that every build writes from scratch get deleted before building, so that leftovers of the
+ * previous build can't end up in the APK. Project resources (images, sounds and fonts) get synced
+ * instead of copied: only new and changed ones get copied, and ones removed from the project get deleted.
+ */
+public class IncrementalBuildDirectory {
+    private static final String TAG = "IncrementalBuildDir";
+    private static final String STATE_FILENAME = "build-directory.txt";
+    private static final String SYNCED_RESOURCES_FILENAME = "synced-resources.txt";
+    private static final String KEY_PACKAGE_NAME = "package_name";
+    private static final String KEY_APP_VERSION = "app_version";
+
+    private final yq workspace;
+    private final FingerprintStore state;
+    private final FingerprintStore syncedResources;
+    private final Set<String> resourcesSyncedThisBuild = new HashSet<>();
+
+    public IncrementalBuildDirectory(yq workspace) {
+        this.workspace = workspace;
+        state = new FingerprintStore(new File(workspace.projectMyscPath, STATE_FILENAME));
+        syncedResources = new FingerprintStore(new File(workspace.projectMyscPath, SYNCED_RESOURCES_FILENAME));
+    }
+
+    /**
+     * @return If the build directory exists and was last built for the same package name by this
+     * version of Sketchware Pro. Otherwise, a clean build is needed.
+     */
+    public boolean isReusable() {
+        return new File(workspace.projectMyscPath).isDirectory()
+                && state.matches(KEY_PACKAGE_NAME, workspace.packageName)
+                && state.matches(KEY_APP_VERSION, getAppVersion());
+    }
+
+    /**
+     * Records what the build directory is being built for, to be checked by {@link #isReusable()}
+     * during the next build.
+     */
+    public void markInUse() {
+        state.put(KEY_PACKAGE_NAME, workspace.packageName);
+        state.put(KEY_APP_VERSION, getAppVersion());
+        try {
+            state.save();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "Couldn't save build directory state, next build will be a clean build", e);
+        }
+    }
+
+    /**
+     * Deletes outputs that every build writes from scratch, and which could otherwise leave stale
+     * files behind, e.g. a DEX file more than the current build produces.
+     */
+    public void deleteTransientOutputs() {
+        /* AAPT2 generates R.java files again, possibly for other packages than last time */
+        FileUtil.deleteFile(workspace.rJavaDirectoryPath);
+
+        for (String dexFile : FileUtil.listFiles(workspace.binDirectoryPath, "dex")) {
+            FileUtil.deleteFile(dexFile);
+        }
+        FileUtil.deleteFile(workspace.binDirectoryPath + File.separator + "dex");
+
+        /* App icons get copied again, and which ones exist depends on the project's icon settings */
+        File[] resourceDirectories = new File(workspace.resDirectoryPath).listFiles();
+        if (resourceDirectories != null) {
+            for (File resourceDirectory : resourceDirectories) {
+                if (resourceDirectory.isDirectory() && resourceDirectory.getName().startsWith("mipmap")) {
+                    FileUtil.deleteFile(resourceDirectory.getAbsolutePath());
+                }
+            }
+        }
+
+        /* StringFog rewrites class files in place, so Java sources get compiled from scratch, which
+           doesn't delete class files of removed sources */
+        if (new StringfogHandler(workspace.sc_id).isStringfogEnabled()) {
+            FileUtil.deleteFile(workspace.compiledClassesPath);
+        }
+    }
+
+    /**
+     * Copies project resources to {@code targetDirectory} like {@link a.a.a.kC#b(String)} does,
+     * but skips resources that haven't changed since they were last copied.
+     *
+     * @param resources       The resources to copy, e.g. {@link a.a.a.kC#b}
+     * @param sourceDirectory The directory the resources are stored in, e.g. {@link a.a.a.kC#e}
+     */
+    public void syncResources(List<ProjectResourceBean> resources, String sourceDirectory, String targetDirectory) {
+        if (resources == null || resources.isEmpty()) return;
+        FileUtil.makeDir(targetDirectory);
+
+        for (ProjectResourceBean resource : resources) {
+            String filename = resource.resFullName.toLowerCase();
+            File source = new File(sourceDirectory, filename);
+            File target = new File(targetDirectory, filename);
+            String key = target.getAbsolutePath();
+            String fingerprint = source.length() + ":" + source.lastModified();
+            resourcesSyncedThisBuild.add(key);
+
+            boolean targetHasSameSize = target.isFile() && target.length() == source.length();
+            if (targetHasSameSize && syncedResources.matches(key, fingerprint)) continue;
+
+            try {
+                /* Resources that got replaced with the same content, e.g. re-imported, don't need to be copied */
+                if (!targetHasSameSize || !FingerprintStore.hashFile(source).equals(FingerprintStore.hashFile(target))) {
+                    Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                syncedResources.put(key, fingerprint);
+            } catch (IOException e) {
+                LogUtil.e(TAG, "Failed to copy " + source + " to " + target, e);
+                syncedResources.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Deletes resources synced by the last build, but not by this one, as they got removed from the
+     * project, and saves which resources got synced.
+     */
+    public void commitSyncedResources() {
+        for (String syncedResource : new ArrayList<>(syncedResources.keySet())) {
+            if (!resourcesSyncedThisBuild.contains(syncedResource)) {
+                LogUtil.d(TAG, "Deleting removed resource " + syncedResource);
+                FileUtil.deleteFile(syncedResource);
+                syncedResources.remove(syncedResource);
+            }
+        }
+
+        try {
+            syncedResources.save();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "Couldn't save synced resources, all resources will be compared again next build", e);
+        }
+    }
+
+    private static String getAppVersion() {
+        try {
+            Context context = SketchApplication.getContext();
+            return String.valueOf(context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            LogUtil.e(TAG, "Couldn't get package info about ourselves", e);
+            return "unknown";
+        }
+    }
+}
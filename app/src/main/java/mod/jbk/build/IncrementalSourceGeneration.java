@@ -0,0 +1,137 @@
+package mod.jbk.build;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Keeps track of which inputs generated files (activities, layouts, view bindings) were generated
+ * from, so that a file only gets generated again if its inputs changed since the last build.
+ * <p>
+ * Every file has its own inputs, e.g. an activity's views, events and blocks. Inputs shared by
+ * all files (project configuration, custom blocks and components, ...) are tracked separately;
+ * if they change, all files get generated again.
+ * <p>
+ * Files may be checked from multiple threads at the same time, as files get generated concurrently.
+ * <p>
+ * As the build directory is kept between builds, files generated by the last build but not by the
+ * current one (e.g. of removed activities) get deleted.
+ */
+public class IncrementalSourceGeneration {
+    private static final String TAG = "IncrementalSourceGen";
+    private static final String FINGERPRINTS_FILENAME = "source-fingerprints.txt";
+    private static final String GENERATED_FILES_FILENAME = "generated-files.txt";
+    /**
+     * Store key of the hash of shared inputs. Can't clash with generated files' keys, as those
+     * always have a file extension.
+     */
+    private static final String SHARED_INPUTS_KEY = "shared";
+    private static final Gson GSON = new Gson();
+
+    private final FingerprintStore fingerprints;
+    private final Map<String, String> pendingFingerprints = new HashMap<>();
+    /**
+     * Paths of files written by the last build, to hashes of their content
+     */
+    private final FingerprintStore generatedFiles;
+    private final Set<String> generatedFilesThisBuild = new HashSet<>();
+    private int reusedFiles = 0;
+
+    /**
+     * @param directory    Directory to keep fingerprints in, outside of the exported project sources
+     * @param sharedInputs Everything that affects the content of all generated files
+     */
+    public IncrementalSourceGeneration(File directory, String sharedInputs) {
+        fingerprints = new FingerprintStore(new File(directory, FINGERPRINTS_FILENAME));
+        generatedFiles = new FingerprintStore(new File(directory, GENERATED_FILES_FILENAME));
+
+        String sharedInputsHash = FingerprintStore.hashString(sharedInputs);
+        if (!fingerprints.matches(SHARED_INPUTS_KEY, sharedInputsHash)) {
+            LogUtil.d(TAG, "Shared inputs changed, generating all files again");
+            fingerprints.clear();
+            fingerprints.put(SHARED_INPUTS_KEY, sharedInputsHash);
+        }
+    }
+
+    /**
+     * @return A string describing {@code inputs}' state, for comparing it with later states.
+     */
+    public static String describe(Object... inputs) {
+        return GSON.toJson(inputs);
+    }
+
+    /**
+     * Checks if {@code output} got generated from the same inputs during the last build, and
+     * still exists.
+     *
+     * @param fileName The generated file's name, as passed to {@link a.a.a.yq#a(String, String)}
+     * @param inputs   Everything that affects {@code output}'s content other than shared inputs,
+     *                 such as beans of the file's views, events and blocks
+     * @return {@code output}'s content if it's up to date, otherwise <code>null</code>, in which
+     * case the file needs to be generated again.
+     */
+    public String getUpToDateContent(String fileName, File output, Object... inputs) {
+        String inputsHash = FingerprintStore.hashString(describe(inputs));
+        synchronized (this) {
+            if (!fingerprints.matches(fileName, inputsHash) || !output.isFile()) {
+                pendingFingerprints.put(fileName, inputsHash);
+                return null;
+            }
+            reusedFiles++;
+        }
+        return FileUtil.readFile(output.getAbsolutePath());
+    }
+
+    /**
+     * Records that the file at {@code path} gets written with {@code content} during this build.
+     *
+     * @return If the file needs to be written, which isn't the case if the last build wrote it with
+     * the same content already.
+     */
+    public boolean recordGeneratedFile(String path, String content) {
+        String contentHash = FingerprintStore.hashString(content);
+        synchronized (this) {
+            generatedFilesThisBuild.add(path);
+            boolean upToDate = generatedFiles.matches(path, contentHash) && new File(path).isFile();
+            generatedFiles.put(path, contentHash);
+            return !upToDate;
+        }
+    }
+
+    /**
+     * Records the inputs of all files that have been generated again, once they have been
+     * written to disk, and deletes files that the last build generated, but this one didn't.
+     */
+    public synchronized void commit() {
+        fingerprints.putAll(pendingFingerprints);
+        pendingFingerprints.clear();
+        try {
+            fingerprints.save();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "Couldn't save generated files' fingerprints, all files will be generated again next build", e);
+        }
+
+        for (String generatedFile : new ArrayList<>(generatedFiles.keySet())) {
+            if (!generatedFilesThisBuild.contains(generatedFile)) {
+                LogUtil.d(TAG, "Deleting stale generated file " + generatedFile);
+                FileUtil.deleteFile(generatedFile);
+                generatedFiles.remove(generatedFile);
+            }
+        }
+        try {
+            generatedFiles.save();
+        } catch (IOException e) {
+            LogUtil.w(TAG, "Couldn't save which files got generated, stale files might not get deleted", e);
+        }
+        LogUtil.d(TAG, "Reused " + reusedFiles + " up-to-date generated files");
+    }
+}
@@ -0,0 +1,501 @@
+package mod.jbk.build.compiler.apk;
+
+import com.android.apksig.ApkSignerEngine;
+import com.android.apksig.DefaultApkSignerEngine;
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSources;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import mod.jbk.build.BuiltInLibraries;
+
+/**
+ * Writes a signed APK in a single pass, instead of writing an unsigned APK with
+ * {@link com.android.sdklib.build.ApkBuilder} and having apksigner (or zipalign first) copy it.
+ * <p>
+ * Uncompressed entries get aligned to 4 bytes (native libraries to 4 KiB) as they're written,
+ * and each entry's data is fed to apksig's {@link ApkSignerEngine} while it's being written, so
+ * JAR signature (v1) digests don't need another pass. APK Signature Scheme v2/v3 digests are
+ * computed over the written entries once all of them have been added, right before the signing
+ * block and central directory get appended.
+ * <p>
+ * Packaging rules follow {@link com.android.sdklib.build.ApkBuilder}'s. Anything the writer
+ * doesn't handle (like duplicate entries, which ApkBuilder reports in detail) throws an
+ * {@link UnsupportedContentException}, in which case the APK should be built the usual way.
+ */
+public class SignedApkWriter implements Closeable {
+    private static final File TESTKEY_DIRECTORY = new File(BuiltInLibraries.EXTRACTED_COMPILE_ASSETS_PATH, "testkey");
+    private static final int ALIGNMENT = 4;
+    private static final int NATIVE_LIBRARY_ALIGNMENT = 4096;
+    /**
+     * Extra field used for alignment padding, same as apksigner's
+     */
+    private static final short ALIGNMENT_EXTRA_FIELD_ID = (short) 0xd935;
+    private static final int ALIGNMENT_EXTRA_FIELD_MIN_SIZE = 6;
+    /**
+     * 2008-01-01 00:00, like ApkBuilder and apksigner use for reproducible output
+     */
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = ((2008 - 1980) << 9) | (1 << 5) | 1;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_RECORD_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final short METHOD_STORED = 0;
+    private static final short METHOD_DEFLATED = 8;
+    private static final short FLAG_UTF8 = 0x0800;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final PositionTrackingOutputStream out;
+    private final ApkSignerEngine signerEngine;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final List<Entry> entries = new ArrayList<>();
+    private final Set<String> entryNames = new HashSet<>();
+    private final byte[] buffer = new byte[64 * 1024];
+
+    public SignedApkWriter(File output, PrivateKey key, X509Certificate certificate, int minSdkVersion) throws IOException, GeneralSecurityException {
+        DefaultApkSignerEngine.SignerConfig signerConfig = new DefaultApkSignerEngine.SignerConfig.Builder(
+                "CERT", key, Collections.singletonList(certificate)).build();
+        signerEngine = new DefaultApkSignerEngine.Builder(Collections.singletonList(signerConfig), minSdkVersion)
+                /* Like apksigner, only sign with JAR signing if some supported Android version requires it */
+                .setV1SigningEnabled(minSdkVersion < 24)
+                .setCreatedBy("1.0 (Android)")
+                .build();
+
+        file = new RandomAccessFile(output, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        out = new PositionTrackingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), buffer.length));
+    }
+
+    /**
+     * @return A writer that signs with the testkey bundled with Sketchware Pro
+     */
+    public static SignedApkWriter withTestkey(File output, int minSdkVersion) throws IOException, GeneralSecurityException {
+        PrivateKey key = KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(
+                Files.readAllBytes(new File(TESTKEY_DIRECTORY, "testkey.pk8").toPath())));
+        X509Certificate certificate;
+        try (InputStream certificateInput = new FileInputStream(new File(TESTKEY_DIRECTORY, "testkey.x509.pem"))) {
+            certificate = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(certificateInput);
+        }
+        return new SignedApkWriter(output, key, certificate, minSdkVersion);
+    }
+
+    /**
+     * Adds all entries of an APK produced by AAPT2, keeping uncompressed entries uncompressed.
+     */
+    public void addResourcesApk(File resourcesApk) throws IOException {
+        try (ZipFile zipFile = new ZipFile(resourcesApk)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory() || isJarSignatureFile(zipEntry.getName())) continue;
+
+                try (InputStream input = zipFile.getInputStream(zipEntry)) {
+                    if (zipEntry.getMethod() == ZipEntry.STORED) {
+                        writeStoredEntry(zipEntry.getName(), input, zipEntry.getCrc(), zipEntry.getSize());
+                    } else {
+                        writeDeflatedEntry(zipEntry.getName(), input);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds Java resources of a JAR, i.e. everything but classes, source files and <code>META-INF/</code>,
+     * like {@link com.android.sdklib.build.ApkBuilder#addResourcesFromJar(File)} does.
+     */
+    public void addResourcesFromJar(File jar) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.isDirectory() || !isJavaResource(zipEntry.getName())) continue;
+
+                try (InputStream input = zipFile.getInputStream(zipEntry)) {
+                    writeDeflatedEntry(zipEntry.getName(), input);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds <code>.so</code> files in ABI directories of {@code nativeLibrariesDirectory} to
+     * <code>lib/&lt;ABI&gt;/</code>, like {@link com.android.sdklib.build.ApkBuilder#addNativeLibraries(File)} does.
+     */
+    public void addNativeLibraries(File nativeLibrariesDirectory) throws IOException {
+        if (!nativeLibrariesDirectory.isDirectory()) {
+            if (nativeLibrariesDirectory.exists()) {
+                throw new UnsupportedContentException(nativeLibrariesDirectory + " is not a directory");
+            }
+            return;
+        }
+
+        File[] abiDirectories = nativeLibrariesDirectory.listFiles();
+        if (abiDirectories == null) return;
+        for (File abiDirectory : abiDirectories) {
+            File[] libraries = abiDirectory.listFiles();
+            if (!abiDirectory.isDirectory() || libraries == null) continue;
+
+            for (File library : libraries) {
+                if (library.isFile() && library.getName().toLowerCase(Locale.ROOT).endsWith(".so")) {
+                    addFile(library, "lib/" + abiDirectory.getName() + "/" + library.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a file as compressed entry, like {@link com.android.sdklib.build.ApkBuilder#addFile(File, String)} does.
+     */
+    public void addFile(File file, String entryName) throws IOException {
+        try (InputStream input = new FileInputStream(file)) {
+            writeDeflatedEntry(entryName, input);
+        }
+    }
+
+    /**
+     * Adds JAR signature files, the APK Signing Block and the central directory. The APK is
+     * complete afterwards.
+     */
+    public void finish() throws IOException, GeneralSecurityException {
+        try {
+            ApkSignerEngine.OutputJarSignatureRequest jarSignatureRequest = signerEngine.outputJarEntries();
+            if (jarSignatureRequest != null) {
+                for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry jarEntry : jarSignatureRequest.getAdditionalJarEntries()) {
+                    writeDeflatedEntry(jarEntry.getName(), new ByteArrayInputStream(jarEntry.getData()));
+                }
+                jarSignatureRequest.done();
+            }
+
+            out.flush();
+            long centralDirectoryOffset = out.position;
+            ByteBuffer centralDirectory = createCentralDirectory();
+            ByteBuffer endOfCentralDirectory = createEndOfCentralDirectory(centralDirectoryOffset, centralDirectory.remaining());
+
+            ApkSignerEngine.OutputApkSigningBlockRequest2 signingBlockRequest = signerEngine.outputZipSections2(
+                    DataSources.asDataSource(channel, 0, centralDirectoryOffset),
+                    DataSources.asDataSource(centralDirectory.duplicate()),
+                    DataSources.asDataSource(endOfCentralDirectory.duplicate()));
+            /* apksig reads entries through the channel, which moves its position */
+            channel.position(centralDirectoryOffset);
+            if (signingBlockRequest != null) {
+                byte[] signingBlock = signingBlockRequest.getApkSigningBlock();
+                int padding = signingBlockRequest.getPaddingSizeBeforeApkSigningBlock();
+                out.write(new byte[padding]);
+                out.write(signingBlock);
+                /* The central directory moves behind the signing block */
+                endOfCentralDirectory.putInt(16, checkedUInt32(out.position, "Central directory offset"));
+                signingBlockRequest.done();
+            }
+
+            writeFully(centralDirectory);
+            writeFully(endOfCentralDirectory);
+            out.flush();
+            signerEngine.outputDone();
+        } catch (ApkFormatException e) {
+            throw new UnsupportedContentException("apksig can't sign the APK: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        signerEngine.close();
+        deflater.end();
+        file.close();
+    }
+
+    private void writeStoredEntry(String name, InputStream input, long crc, long size) throws IOException {
+        int alignment = name.endsWith(".so") ? NATIVE_LIBRARY_ALIGNMENT : ALIGNMENT;
+        Entry entry = startEntry(name, METHOD_STORED, alignment);
+        DataSink sink = entry.inspectRequest == null ? null : entry.inspectRequest.getDataSink();
+
+        long copied = 0;
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            if (sink != null) sink.consume(buffer, 0, read);
+            copied += read;
+        }
+        if (copied != size) {
+            throw new UnsupportedContentException("Size of " + name + " doesn't match its ZIP entry");
+        }
+        finishEntry(entry, crc, size, size);
+    }
+
+    private void writeDeflatedEntry(String name, InputStream input) throws IOException {
+        Entry entry = startEntry(name, METHOD_DEFLATED, 1);
+        DataSink sink = entry.inspectRequest == null ? null : entry.inspectRequest.getDataSink();
+
+        CRC32 crc = new CRC32();
+        long dataStart = out.position;
+        long uncompressedSize = 0;
+        deflater.reset();
+        DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(out, deflater, buffer.length);
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            deflaterOutput.write(buffer, 0, read);
+            crc.update(buffer, 0, read);
+            if (sink != null) sink.consume(buffer, 0, read);
+            uncompressedSize += read;
+        }
+        /* Not closing it, that'd close the APK's output stream */
+        deflaterOutput.finish();
+        finishEntry(entry, crc.getValue(), out.position - dataStart, uncompressedSize);
+    }
+
+    private Entry startEntry(String name, short method, int alignment) throws IOException {
+        if (!entryNames.add(name)) {
+            throw new UnsupportedContentException("Duplicate entry " + name);
+        }
+
+        Entry entry = new Entry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        entry.method = method;
+        entry.flags = isAscii(name) ? 0 : FLAG_UTF8;
+        entry.localHeaderOffset = out.position;
+        entry.inspectRequest = signerEngine.outputJarEntry(name);
+        checkedUInt32(entry.localHeaderOffset, "Offset of " + name);
+
+        int extraSize = 0;
+        if (method == METHOD_STORED) {
+            long dataOffset = entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE + entry.name.length + ALIGNMENT_EXTRA_FIELD_MIN_SIZE;
+            extraSize = ALIGNMENT_EXTRA_FIELD_MIN_SIZE + (int) ((alignment - dataOffset % alignment) % alignment);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_FILE_HEADER_SIZE + entry.name.length + extraSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x04034b50);
+        header.putShort(getVersionNeeded(method));
+        header.putShort(entry.flags);
+        header.putShort(method);
+        header.putShort((short) DOS_TIME);
+        header.putShort((short) DOS_DATE);
+        /* CRC-32 and sizes get filled in by finishEntry() */
+        header.putInt(0);
+        header.putInt(0);
+        header.putInt(0);
+        header.putShort((short) entry.name.length);
+        header.putShort((short) extraSize);
+        header.put(entry.name);
+        if (extraSize > 0) {
+            header.putShort(ALIGNMENT_EXTRA_FIELD_ID);
+            header.putShort((short) (extraSize - 4));
+            header.putShort((short) alignment);
+        }
+        out.write(header.array());
+        return entry;
+    }
+
+    private void finishEntry(Entry entry, long crc, long compressedSize, long uncompressedSize) throws IOException {
+        String name = new String(entry.name, StandardCharsets.UTF_8);
+        entry.crc = (int) crc;
+        entry.compressedSize = checkedUInt32(compressedSize, "Compressed size of " + name);
+        entry.uncompressedSize = checkedUInt32(uncompressedSize, "Size of " + name);
+        entries.add(entry);
+
+        out.flush();
+        ByteBuffer sizes = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        sizes.putInt(entry.crc);
+        sizes.putInt(entry.compressedSize);
+        sizes.putInt(entry.uncompressedSize);
+        sizes.flip();
+        long position = entry.localHeaderOffset + 14;
+        while (sizes.hasRemaining()) {
+            position += channel.write(sizes, position);
+        }
+
+        if (entry.inspectRequest != null) {
+            entry.inspectRequest.done();
+        }
+    }
+
+    private ByteBuffer createCentralDirectory() throws IOException {
+        int size = 0;
+        for (Entry entry : entries) {
+            size += CENTRAL_DIRECTORY_RECORD_SIZE + entry.name.length;
+        }
+
+        ByteBuffer centralDirectory = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (Entry entry : entries) {
+            centralDirectory.putInt(0x02014b50);
+            centralDirectory.putShort((short) 20);
+            centralDirectory.putShort(getVersionNeeded(entry.method));
+            centralDirectory.putShort(entry.flags);
+            centralDirectory.putShort(entry.method);
+            centralDirectory.putShort((short) DOS_TIME);
+            centralDirectory.putShort((short) DOS_DATE);
+            centralDirectory.putInt(entry.crc);
+            centralDirectory.putInt(entry.compressedSize);
+            centralDirectory.putInt(entry.uncompressedSize);
+            centralDirectory.putShort((short) entry.name.length);
+            /* Extra field, comment, disk number, internal and external attributes */
+            centralDirectory.putShort((short) 0);
+            centralDirectory.putShort((short) 0);
+            centralDirectory.putShort((short) 0);
+            centralDirectory.putShort((short) 0);
+            centralDirectory.putInt(0);
+            centralDirectory.putInt((int) entry.localHeaderOffset);
+            centralDirectory.put(entry.name);
+        }
+        centralDirectory.flip();
+        return centralDirectory;
+    }
+
+    private ByteBuffer createEndOfCentralDirectory(long centralDirectoryOffset, int centralDirectorySize) throws IOException {
+        if (entries.size() > 0xffff) {
+            throw new UnsupportedContentException("Too many entries for a ZIP file without ZIP64 extensions");
+        }
+
+        ByteBuffer endOfCentralDirectory = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        endOfCentralDirectory.putInt(0x06054b50);
+        endOfCentralDirectory.putShort((short) 0);
+        endOfCentralDirectory.putShort((short) 0);
+        endOfCentralDirectory.putShort((short) entries.size());
+        endOfCentralDirectory.putShort((short) entries.size());
+        endOfCentralDirectory.putInt(centralDirectorySize);
+        endOfCentralDirectory.putInt(checkedUInt32(centralDirectoryOffset, "Central directory offset"));
+        endOfCentralDirectory.putShort((short) 0);
+        endOfCentralDirectory.flip();
+        return endOfCentralDirectory;
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        ByteBuffer toWrite = data.duplicate();
+        byte[] bytes = new byte[toWrite.remaining()];
+        toWrite.get(bytes);
+        out.write(bytes);
+    }
+
+    private static int checkedUInt32(long value, String what) throws UnsupportedContentException {
+        if (value < 0 || value > 0xffffffffL) {
+            throw new UnsupportedContentException(what + " doesn't fit into a ZIP file without ZIP64 extensions");
+        }
+        return (int) value;
+    }
+
+    private static short getVersionNeeded(short method) {
+        return method == METHOD_DEFLATED ? (short) 20 : (short) 10;
+    }
+
+    private static boolean isAscii(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > 0x7f) return false;
+        }
+        return true;
+    }
+
+    private static boolean isJarSignatureFile(String name) {
+        if (!name.startsWith("META-INF/")) return false;
+        String upperCaseName = name.toUpperCase(Locale.ROOT);
+        return upperCaseName.equals("META-INF/MANIFEST.MF") || upperCaseName.endsWith(".SF")
+                || upperCaseName.endsWith(".RSA") || upperCaseName.endsWith(".DSA") || upperCaseName.endsWith(".EC");
+    }
+
+    /**
+     * Same checks as ApkBuilder's <code>JavaAndNativeResourceFilter</code>.
+     */
+    private static boolean isJavaResource(String name) {
+        String[] segments = name.split("/");
+        if (segments.length == 0) return false;
+
+        for (int i = 0; i < segments.length - 1; i++) {
+            String folder = segments[i];
+            if (folder.equalsIgnoreCase("CVS") || folder.equalsIgnoreCase(".svn") || folder.equalsIgnoreCase("SCCS")
+                    || folder.equalsIgnoreCase("META-INF") || folder.startsWith("_")) {
+                return false;
+            }
+        }
+
+        String filename = segments[segments.length - 1];
+        if (filename.isEmpty() || filename.charAt(0) == '.') return false;
+        int extensionStart = filename.lastIndexOf('.');
+        String extension = extensionStart == -1 ? "" : filename.substring(extensionStart + 1).toLowerCase(Locale.ROOT);
+        switch (extension) {
+            case "aidl", "rs", "fs", "rsh", "d", "java", "scala", "class", "scc", "swp" -> {
+                return false;
+            }
+        }
+        return !filename.equalsIgnoreCase("thumbs.db") && !filename.equalsIgnoreCase("picasa.ini")
+                && !filename.equalsIgnoreCase("package.html") && !filename.equalsIgnoreCase("overview.html");
+    }
+
+    /**
+     * Thrown if the APK contains something the writer can't handle.
+     */
+    public static class UnsupportedContentException extends IOException {
+        public UnsupportedContentException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Entry {
+        private byte[] name;
+        private short method;
+        private short flags;
+        private long localHeaderOffset;
+        private int crc;
+        private int compressedSize;
+        private int uncompressedSize;
+        private ApkSignerEngine.InspectJarEntryRequest inspectRequest;
+    }
+
+    private static class PositionTrackingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long position = 0;
+
+        private PositionTrackingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
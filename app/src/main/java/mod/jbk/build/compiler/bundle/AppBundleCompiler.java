@@ -22,7 +22,6 @@ import java.util.zip.ZipOutputStream;
 import a.a.a.ProjectBuilder;
 import a.a.a.yq;
 import a.a.a.zy;
-import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
 import mod.jbk.build.BuiltInLibraries;
 import mod.jbk.util.LogUtil;
 import pro.sketchware.utility.FilePathUtil;
@@ -199,7 +198,7 @@ public class AppBundleCompiler {
             }
 
             /* Start with enabled Local libraries' JARs */
-            var jars = new ManageLocalLibrary(builder.yq.sc_id).getLocalLibraryJars();
+            var jars = builder.mll.getLocalLibraryJars();
 
             /* Add built-in libraries' JARs */
             for (var library : builder.builtInLibraryManager.getLibraries()) {
@@ -0,0 +1,139 @@
+package mod.jbk.build.compiler.dex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Content-addressed cache of merged built-in library DEX files.
+ * <p>
+ * Built-in libraries' DEX files only change when Sketchware Pro itself gets updated, so merging
+ * the same combination of them on every build is wasted work. Cache entries are keyed by the
+ * ordered list of library names along with the signature in each DEX file's header (a SHA-1 hash
+ * over the rest of the file), so an updated library DEX file results in a different entry.
+ */
+public class BuiltInLibraryDexCache {
+    private static final String TAG = "BuiltInLibraryDexCache";
+    /**
+     * Bump this whenever the way cached DEX files get merged changes.
+     */
+    private static final int CACHE_VERSION = 2;
+    private static final int MAX_CACHE_ENTRIES = 4;
+    private static final String COMPLETE_MARKER = ".complete";
+    /**
+     * Offset and length of the SHA-1 signature in a DEX file's header.
+     */
+    private static final int DEX_SIGNATURE_OFFSET = 12;
+    private static final int DEX_SIGNATURE_LENGTH = 20;
+
+    private final File cacheDirectory;
+
+    public BuiltInLibraryDexCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Returns the merged DEX files of the given built-in libraries, merging them with
+     * {@code merger} if there is no cache entry for them yet.
+     *
+     * @param libraryNames Names of built-in libraries whose DEX files to merge, in the order to merge them
+     * @return Merged DEX files, ordered like <code>classes.dex</code>, <code>classes2.dex</code>, ...
+     */
+    public List<File> getMergedDexFiles(Collection<String> libraryNames, Merger merger) throws Exception {
+        List<File> libraryDexFiles = new ArrayList<>();
+        for (String libraryName : libraryNames) {
+            libraryDexFiles.add(BuiltInLibraries.getLibraryDexFile(libraryName));
+        }
+
+        /* Which duplicate class is kept and where DEX files get split depends on the order, so it's part of the key */
+        File entry = new File(cacheDirectory, computeKey(libraryDexFiles));
+        if (new File(entry, COMPLETE_MARKER).exists()) {
+            LogUtil.d(TAG, "Using cached merged DEX files of built-in libraries " + libraryNames + " from " + entry);
+            entry.setLastModified(System.currentTimeMillis());
+            return listDexFiles(entry);
+        }
+
+        File temporaryEntry = new File(cacheDirectory, entry.getName() + ".tmp");
+        FileUtil.deleteFile(temporaryEntry.getAbsolutePath());
+        FileUtil.deleteFile(entry.getAbsolutePath());
+        if (!temporaryEntry.mkdirs()) {
+            throw new IOException("Couldn't create directory " + temporaryEntry);
+        }
+
+        merger.merge(temporaryEntry, libraryDexFiles);
+        if (!new File(temporaryEntry, COMPLETE_MARKER).createNewFile() || !temporaryEntry.renameTo(entry)) {
+            throw new IOException("Couldn't save merged DEX files of built-in libraries to " + entry);
+        }
+        LogUtil.d(TAG, "Cached merged DEX files of built-in libraries " + libraryNames + " in " + entry);
+
+        pruneOldEntries();
+        return listDexFiles(entry);
+    }
+
+    private static String computeKey(List<File> libraryDexFiles) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        digest.update(("v" + CACHE_VERSION).getBytes(StandardCharsets.UTF_8));
+        byte[] signature = new byte[DEX_SIGNATURE_LENGTH];
+        for (File dexFile : libraryDexFiles) {
+            try (RandomAccessFile file = new RandomAccessFile(dexFile, "r")) {
+                file.seek(DEX_SIGNATURE_OFFSET);
+                file.readFully(signature);
+                digest.update(dexFile.getName().getBytes(StandardCharsets.UTF_8));
+                digest.update(signature);
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private static List<File> listDexFiles(File directory) {
+        List<File> dexFiles = new ArrayList<>();
+        for (int i = 1; ; i++) {
+            File dexFile = new File(directory, i == 1 ? "classes.dex" : "classes" + i + ".dex");
+            if (!dexFile.exists()) break;
+            dexFiles.add(dexFile);
+        }
+        return dexFiles;
+    }
+
+    private void pruneOldEntries() {
+        File[] entries = cacheDirectory.listFiles(File::isDirectory);
+        if (entries == null || entries.length <= MAX_CACHE_ENTRIES) return;
+
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified).reversed());
+        for (int i = MAX_CACHE_ENTRIES; i < entries.length; i++) {
+            LogUtil.d(TAG, "Removing old cache entry " + entries[i]);
+            FileUtil.deleteFile(entries[i].getAbsolutePath());
+        }
+    }
+
+    public interface Merger {
+        /**
+         * Merges {@code dexFiles} into <code>classes.dex</code>, <code>classes2.dex</code>, ... in
+         * {@code outputDirectory}.
+         */
+        void merge(File outputDirectory, List<File> dexFiles) throws Exception;
+    }
+}
@@ -4,20 +4,30 @@ import com.android.tools.r8.CompilationFailedException;
 import com.android.tools.r8.CompilationMode;
 import com.android.tools.r8.D8;
 import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DesugarGraphConsumer;
+import com.android.tools.r8.DirectoryClassFileProvider;
 import com.android.tools.r8.OutputMode;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 
 import a.a.a.ProjectBuilder;
 import mod.hey.studios.project.ProjectSettings;
+import mod.jbk.build.BuildTrace;
+import mod.jbk.util.LogUtil;
 import pro.sketchware.utility.FileUtil;
 
 public class DexCompiler {
-    public static void compileDexFiles(ProjectBuilder builder) throws CompilationFailedException {
+    private static final String TAG = "DexCompiler";
+
+    public static void compileDexFiles(ProjectBuilder builder) throws CompilationFailedException, IOException {
         int minApiLevel;
 
         try {
@@ -27,27 +37,85 @@ public class DexCompiler {
             throw new CompilationFailedException("Invalid minSdkVersion specified in Project Settings" + e.getMessage());
         }
 
-        Collection<Path> programFiles = new LinkedList<>();
+        Collection<Path> libraryFiles = new LinkedList<>();
+        String classpath = builder.getClasspath();
+        for (String jarPath : classpath.split(":")) {
+            libraryFiles.add(Paths.get(jarPath));
+        }
+
+        File outputDirectory = new File(builder.yq.binDirectoryPath, "dex");
         if (builder.proguard.isShrinkingEnabled()) {
-            programFiles.add(Paths.get(builder.yq.proguardClassesPath));
-        } else {
-            for (File file : FileUtil.listFilesRecursively(new File(builder.yq.compiledClassesPath), ".class")) {
+            D8.run(D8Command.builder()
+                    .setMode(CompilationMode.RELEASE)
+                    .setIntermediate(true)
+                    .setMinApiLevel(minApiLevel)
+                    .addLibraryFiles(libraryFiles)
+                    .setOutput(outputDirectory.toPath(), OutputMode.DexIndexed)
+                    .addProgramFiles(Paths.get(builder.yq.proguardClassesPath))
+                    .build());
+            return;
+        }
+
+        /* Dex only new or changed classes into per-class intermediate DEX files */
+        File classesDirectory = new File(builder.yq.compiledClassesPath);
+        IncrementalDexer dexer = new IncrementalDexer(classesDirectory,
+                new File(builder.yq.binDirectoryPath, "dex_intermediates_d8"),
+                "d8:" + minApiLevel + ":" + classpath);
+
+        List<File> changedClasses = dexer.findChangedClasses();
+        if (!changedClasses.isEmpty()) {
+            Collection<Path> programFiles = new LinkedList<>();
+            for (File file : changedClasses) {
                 programFiles.add(file.toPath());
             }
+
+            long savedTimeMillis = System.currentTimeMillis();
+            try (BuildTrace.Span ignored = builder.buildTrace.begin("D8 dexing")) {
+                D8.run(D8Command.builder()
+                        .setMode(CompilationMode.RELEASE)
+                        .setIntermediate(true)
+                        .setMinApiLevel(minApiLevel)
+                        .addLibraryFiles(libraryFiles)
+                        /* Unchanged classes are needed for desugaring, e.g. of default interface methods */
+                        .addClasspathResourceProvider(DirectoryClassFileProvider.fromDirectory(classesDirectory.toPath()))
+                        /* Remember which classes need others for desugaring, to dex them again once those change */
+                        .setDesugarGraphConsumer(new DesugarGraphConsumer() {
+                            @Override
+                            public void accept(Origin dependent, Origin dependency) {
+                                if (dependent instanceof PathOrigin dependentOrigin && dependency instanceof PathOrigin dependencyOrigin) {
+                                    dexer.recordDesugarDependency(dependentOrigin.getPath().toFile(), dependencyOrigin.getPath().toFile());
+                                }
+                            }
+
+                            @Override
+                            public void finished() {
+                            }
+                        })
+                        .setOutput(dexer.getIntermediatesDirectory().toPath(), OutputMode.DexFilePerClassFile)
+                        .addProgramFiles(programFiles)
+                        .build());
+            }
+            LogUtil.d(TAG, "Dexing " + changedClasses.size() + " changed classes took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
         }
 
-        Collection<Path> libraryFiles = new LinkedList<>();
-        for (String jarPath : builder.getClasspath().split(":")) {
-            libraryFiles.add(Paths.get(jarPath));
+        /* Then merge all intermediate DEX files */
+        Collection<Path> intermediateDexFiles = new LinkedList<>();
+        for (File file : dexer.getIntermediateDexFiles()) {
+            intermediateDexFiles.add(file.toPath());
+        }
+        for (String dexFile : FileUtil.listFiles(outputDirectory.getAbsolutePath(), "dex")) {
+            FileUtil.deleteFile(dexFile);
+        }
+        try (BuildTrace.Span ignored = builder.buildTrace.begin("D8 intermediate DEX merge")) {
+            D8.run(D8Command.builder()
+                    .setMode(CompilationMode.RELEASE)
+                    .setIntermediate(true)
+                    .setMinApiLevel(minApiLevel)
+                    .setOutput(outputDirectory.toPath(), OutputMode.DexIndexed)
+                    .addProgramFiles(intermediateDexFiles)
+                    .build());
         }
 
-        D8.run(D8Command.builder()
-                .setMode(CompilationMode.RELEASE)
-                .setIntermediate(true)
-                .setMinApiLevel(minApiLevel)
-                .addLibraryFiles(libraryFiles)
-                .setOutput(new File(builder.yq.binDirectoryPath, "dex").toPath(), OutputMode.DexIndexed)
-                .addProgramFiles(programFiles)
-                .build());
+        dexer.commit();
     }
 }
@@ -0,0 +1,268 @@
+package mod.jbk.build.compiler.dex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mod.agus.jcoderz.dex.Dex;
+import mod.agus.jcoderz.dex.FieldId;
+import mod.agus.jcoderz.dex.MethodId;
+import mod.agus.jcoderz.dex.ProtoId;
+
+/**
+ * Decides which DEX files can be merged together into one <code>classesN.dex</code> without
+ * exceeding the 64K limit of field, method, proto or type IDs.
+ * <p>
+ * IDs are compared by what they resolve to (type descriptors and member names), not by their
+ * indices in the DEX file they come from. Strings of all DEX files are interned into one shared
+ * int table, so every ID becomes a small tuple of ints that can be checked against hash sets,
+ * keeping planning linear in the total number of IDs.
+ */
+public class DexMergePlanner {
+    /**
+     * Maximum amount of field/method/proto/type IDs a single DEX file may reference.
+     */
+    public static final int MAX_IDS_PER_DEX = 0xffff;
+
+    private final Map<String, Integer> stringPool = new HashMap<>();
+    private final Map<IntTuple, Integer> protoPool = new HashMap<>();
+
+    /**
+     * Plans merging of the given DEX files, in order.
+     *
+     * @return Groups of DEX files, each of which fits into a single DEX file once merged.
+     * @throws IOException Thrown if reading a DEX file fails
+     */
+    public List<Group> plan(List<File> dexFiles) throws IOException {
+        return plan(dexFiles, 1);
+    }
+
+    /**
+     * Plans merging of the given DEX files, in order.
+     *
+     * @param firstDexNumber Number of the first group's DEX file, e.g. <code>3</code> for the
+     *                       first group to become <code>classes3.dex</code>
+     * @return Groups of DEX files, each of which fits into a single DEX file once merged.
+     * @throws IOException Thrown if reading a DEX file fails
+     */
+    public List<Group> plan(List<File> dexFiles, int firstDexNumber) throws IOException {
+        List<Group> groups = new ArrayList<>();
+        Group current = null;
+
+        for (File dexFile : dexFiles) {
+            Dex dex = new Dex(dexFile);
+            InternedDex interned = intern(dex);
+
+            if (current == null || !current.tryAdd(dexFile, dex, interned)) {
+                current = new Group(firstDexNumber + groups.size());
+                current.add(dexFile, dex, interned);
+                groups.add(current);
+            }
+        }
+
+        return groups;
+    }
+
+    private InternedDex intern(Dex dex) {
+        int[] localStrings = new int[dex.strings().size()];
+        Arrays.fill(localStrings, -1);
+
+        List<Integer> typeIds = dex.typeIds();
+        int[] types = new int[typeIds.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = internString(dex, localStrings, typeIds.get(i));
+        }
+
+        List<ProtoId> protoIds = dex.protoIds();
+        int[] protos = new int[protoIds.size()];
+        for (int i = 0; i < protos.length; i++) {
+            ProtoId protoId = protoIds.get(i);
+            short[] parameters = dex.readTypeList(protoId.getParametersOffset()).getTypes();
+            int[] signature = new int[parameters.length + 1];
+            signature[0] = types[protoId.getReturnTypeIndex()];
+            for (int j = 0; j < parameters.length; j++) {
+                signature[j + 1] = types[parameters[j] & 0xffff];
+            }
+
+            IntTuple key = new IntTuple(signature);
+            Integer interned = protoPool.get(key);
+            if (interned == null) {
+                interned = protoPool.size();
+                protoPool.put(key, interned);
+            }
+            protos[i] = interned;
+        }
+
+        List<FieldId> fieldIds = dex.fieldIds();
+        IntTuple[] fields = new IntTuple[fieldIds.size()];
+        for (int i = 0; i < fields.length; i++) {
+            FieldId fieldId = fieldIds.get(i);
+            fields[i] = new IntTuple(types[fieldId.getDeclaringClassIndex()],
+                    internString(dex, localStrings, fieldId.getNameIndex()),
+                    types[fieldId.getTypeIndex()]);
+        }
+
+        List<MethodId> methodIds = dex.methodIds();
+        IntTuple[] methods = new IntTuple[methodIds.size()];
+        for (int i = 0; i < methods.length; i++) {
+            MethodId methodId = methodIds.get(i);
+            methods[i] = new IntTuple(types[methodId.getDeclaringClassIndex()],
+                    internString(dex, localStrings, methodId.getNameIndex()),
+                    protos[methodId.getProtoIndex()]);
+        }
+
+        return new InternedDex(fields, methods, protos, types);
+    }
+
+    private int internString(Dex dex, int[] localStrings, int index) {
+        int interned = localStrings[index];
+        if (interned == -1) {
+            String value = dex.strings().get(index);
+            Integer pooled = stringPool.get(value);
+            if (pooled == null) {
+                pooled = stringPool.size();
+                stringPool.put(value, pooled);
+            }
+            interned = pooled;
+            localStrings[index] = interned;
+        }
+        return interned;
+    }
+
+    /**
+     * A set of DEX files that will be merged into one DEX file, along with the amount of distinct
+     * IDs the merged DEX file will have.
+     */
+    public static class Group {
+        private final int number;
+        private final List<File> files = new ArrayList<>();
+        private final List<Dex> dexes = new ArrayList<>();
+        private final Set<IntTuple> fields = new HashSet<>();
+        private final Set<IntTuple> methods = new HashSet<>();
+        private final Set<Integer> protos = new HashSet<>();
+        private final Set<Integer> types = new HashSet<>();
+
+        private Group(int number) {
+            this.number = number;
+        }
+
+        private boolean tryAdd(File file, Dex dex, InternedDex interned) {
+            if (countNew(fields, interned.fields) + fields.size() > MAX_IDS_PER_DEX
+                    || countNew(methods, interned.methods) + methods.size() > MAX_IDS_PER_DEX
+                    || countNew(protos, interned.protos) + protos.size() > MAX_IDS_PER_DEX
+                    || countNew(types, interned.types) + types.size() > MAX_IDS_PER_DEX) {
+                return false;
+            }
+            add(file, dex, interned);
+            return true;
+        }
+
+        private void add(File file, Dex dex, InternedDex interned) {
+            files.add(file);
+            dexes.add(dex);
+            Collections.addAll(fields, interned.fields);
+            Collections.addAll(methods, interned.methods);
+            for (int proto : interned.protos) {
+                protos.add(proto);
+            }
+            for (int type : interned.types) {
+                types.add(type);
+            }
+        }
+
+        private static <T> int countNew(Set<T> existing, T[] ids) {
+            int count = 0;
+            for (T id : ids) {
+                if (!existing.contains(id)) count++;
+            }
+            return count;
+        }
+
+        private static int countNew(Set<Integer> existing, int[] ids) {
+            int count = 0;
+            for (int id : ids) {
+                if (!existing.contains(id)) count++;
+            }
+            return count;
+        }
+
+        /**
+         * @return The file name this group's merged DEX file should have, e.g. <code>classes2.dex</code>
+         */
+        public String getDexFilename() {
+            return number == 1 ? "classes.dex" : "classes" + number + ".dex";
+        }
+
+        public List<File> getFiles() {
+            return files;
+        }
+
+        public List<Dex> getDexes() {
+            return dexes;
+        }
+
+        public int getFieldCount() {
+            return fields.size();
+        }
+
+        public int getMethodCount() {
+            return methods.size();
+        }
+
+        public int getProtoCount() {
+            return protos.size();
+        }
+
+        public int getTypeCount() {
+            return types.size();
+        }
+
+        @Override
+        public String toString() {
+            return getDexFilename() + " (" + files.size() + " DEX files, " + getFieldCount() + " field IDs, "
+                    + getMethodCount() + " method IDs, " + getProtoCount() + " proto IDs, "
+                    + getTypeCount() + " type IDs)";
+        }
+    }
+
+    private static final class InternedDex {
+        private final IntTuple[] fields;
+        private final IntTuple[] methods;
+        private final int[] protos;
+        private final int[] types;
+
+        private InternedDex(IntTuple[] fields, IntTuple[] methods, int[] protos, int[] types) {
+            this.fields = fields;
+            this.methods = methods;
+            this.protos = protos;
+            this.types = types;
+        }
+    }
+
+    private static final class IntTuple {
+        private final int[] values;
+        private final int hash;
+
+        private IntTuple(int... values) {
+            this.values = values;
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntTuple other && hash == other.hash && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package mod.jbk.build.compiler.dex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import mod.agus.jcoderz.dx.cf.direct.DirectClassFile;
+import mod.agus.jcoderz.dx.cf.direct.StdAttributeFactory;
+import mod.agus.jcoderz.dx.command.dexer.DxContext;
+import mod.agus.jcoderz.dx.command.dexer.Main;
+import mod.agus.jcoderz.dx.dex.DexOptions;
+import mod.agus.jcoderz.dx.dex.cf.CfOptions;
+import mod.agus.jcoderz.dx.dex.cf.CfTranslator;
+import mod.agus.jcoderz.dx.dex.file.DexFile;
+
+/**
+ * Dexes class files into one DEX file per class with Dx, like D8's <code>--file-per-class</code>.
+ * <p>
+ * All classes get translated in a single Dx session, so options are set up and Dx's intern tables
+ * are cleared once, instead of running Dx's command line once per class. Options match Dx's
+ * defaults (optimized, with line numbers and local variable info).
+ */
+public class DxPerClassDexer {
+    private final DxContext context = new DxContext();
+    private final CfOptions cfOptions = new CfOptions();
+    private final DexOptions dexOptions = new DexOptions(context.err);
+
+    public DxPerClassDexer() {
+        cfOptions.localInfo = true;
+        cfOptions.optimize = true;
+        cfOptions.warn = context.err;
+    }
+
+    /**
+     * Dexes every class file in {@code classFiles} into its intermediate DEX file as decided by
+     * {@code dexer}.
+     *
+     * @param classesDirectory Directory the class files are in, as Dx checks that class files'
+     *                         paths relative to it match their classes' names
+     */
+    public void dex(File classesDirectory, List<File> classFiles, IncrementalDexer dexer) throws IOException {
+        Main.clearInternTables();
+
+        for (File classFile : classFiles) {
+            String relativePath = classesDirectory.toURI().relativize(classFile.toURI()).getPath();
+            byte[] bytes = Files.readAllBytes(classFile.toPath());
+
+            DirectClassFile cf = new DirectClassFile(bytes, relativePath, cfOptions.strictNameCheck);
+            cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+            cf.getMagic(); // triggers the actual parsing
+
+            DexFile dexFile = new DexFile(dexOptions);
+            dexFile.add(CfTranslator.translate(context, cf, bytes, cfOptions, dexOptions, dexFile));
+
+            File intermediate = dexer.getIntermediateDexFile(classFile);
+            File intermediateParent = intermediate.getParentFile();
+            if (intermediateParent != null && !intermediateParent.isDirectory() && !intermediateParent.mkdirs()) {
+                throw new IOException("Couldn't create directory " + intermediateParent);
+            }
+            try (OutputStream out = new FileOutputStream(intermediate)) {
+                out.write(dexFile.toDex(null, false));
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package mod.jbk.build.compiler.dex;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mod.jbk.build.FingerprintStore;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Keeps track of which compiled classes have already been dexed into per-class intermediate DEX
+ * files, so that only new or changed classes need to be dexed again.
+ * <p>
+ * A manifest in the intermediates directory maps every class file (relative to the classes
+ * directory) to a hash of its content. Intermediate DEX files mirror the classes directory's
+ * layout, e.g. <code>com/my/app/MainActivity.class</code> gets dexed into
+ * <code>com/my/app/MainActivity.dex</code>.
+ * <p>
+ * A class's intermediate DEX file can also depend on other classes, e.g. desugaring default
+ * interface methods adds forwarding methods to implementors of the interface. Such dependencies
+ * reported by the dexer are kept in a desugar graph, and dependents of changed classes get dexed
+ * again too.
+ */
+public class IncrementalDexer {
+    private static final String TAG = "IncrementalDexer";
+    private static final String MANIFEST_FILENAME = "class-hashes.txt";
+    private static final String DESUGAR_GRAPH_FILENAME = "desugar-graph.json";
+    /**
+     * Manifest key of the hash of the dexer's configuration. Can't clash with class files' keys,
+     * as those always end with <code>.class</code>.
+     */
+    private static final String CONFIGURATION_KEY = "configuration";
+
+    private final File classesDirectory;
+    private final File intermediatesDirectory;
+    private final FingerprintStore manifest;
+    private final Map<File, String> pendingHashes = new HashMap<>();
+    private final File desugarGraphFile;
+    /**
+     * Classes other classes' intermediate DEX files depend on, by dependent class, as paths relative
+     * to the classes directory
+     */
+    private Map<String, Set<String>> desugarGraph;
+    private final Map<String, Set<String>> pendingDesugarDependencies = new HashMap<>();
+
+    /**
+     * @param configuration Anything that affects the content of intermediate DEX files other than
+     *                      class files themselves (dexer, minSdkVersion, classpath, ...). If it
+     *                      changes, all classes get dexed again.
+     */
+    public IncrementalDexer(File classesDirectory, File intermediatesDirectory, String configuration) {
+        this.classesDirectory = classesDirectory;
+        this.intermediatesDirectory = intermediatesDirectory;
+        manifest = new FingerprintStore(new File(intermediatesDirectory, MANIFEST_FILENAME));
+        desugarGraphFile = new File(intermediatesDirectory, DESUGAR_GRAPH_FILENAME);
+        desugarGraph = readDesugarGraph();
+
+        String configurationHash = FingerprintStore.hashString(configuration);
+        if (!manifest.matches(CONFIGURATION_KEY, configurationHash)) {
+            LogUtil.d(TAG, "Dexer configuration changed, dexing all classes again");
+            dexAllAgain(configurationHash);
+        } else if (desugarGraph == null) {
+            LogUtil.d(TAG, "Desugar graph missing, dexing all classes again");
+            dexAllAgain(configurationHash);
+        }
+    }
+
+    private void dexAllAgain(String configurationHash) {
+        FileUtil.deleteFile(intermediatesDirectory.getAbsolutePath());
+        manifest.clear();
+        manifest.put(CONFIGURATION_KEY, configurationHash);
+        desugarGraph = new HashMap<>();
+    }
+
+    private Map<String, Set<String>> readDesugarGraph() {
+        if (!desugarGraphFile.isFile()) return null;
+        try {
+            return new Gson().fromJson(FileUtil.readFile(desugarGraphFile.getAbsolutePath()),
+                    new TypeToken<HashMap<String, HashSet<String>>>() {
+                    }.getType());
+        } catch (JsonParseException e) {
+            LogUtil.w(TAG, "Couldn't parse desugar graph, ignoring it", e);
+            return null;
+        }
+    }
+
+    /**
+     * Compares class files against the manifest, and deletes intermediate DEX files of classes
+     * that don't exist anymore.
+     *
+     * @return Class files that are new or changed since they have been dexed last time, and
+     * classes whose intermediate DEX files depend on those or on removed classes
+     */
+    public List<File> findChangedClasses() throws IOException {
+        List<File> changedClasses = new ArrayList<>();
+        Map<String, File> existingClasses = new HashMap<>();
+        Map<String, String> hashes = new HashMap<>();
+        Set<String> changedKeys = new HashSet<>();
+        pendingHashes.clear();
+        pendingDesugarDependencies.clear();
+
+        for (File classFile : FileUtil.listFilesRecursively(classesDirectory, ".class")) {
+            String key = getRelativePath(classFile);
+            existingClasses.put(key, classFile);
+
+            String hash = FingerprintStore.hashFile(classFile);
+            hashes.put(key, hash);
+            if (!manifest.matches(key, hash) || !getIntermediateDexFile(key).exists()) {
+                changedKeys.add(key);
+            }
+        }
+
+        for (String key : new ArrayList<>(manifest.keySet())) {
+            if (!key.equals(CONFIGURATION_KEY) && !existingClasses.containsKey(key)) {
+                File intermediate = getIntermediateDexFile(key);
+                if (intermediate.exists() && !intermediate.delete()) {
+                    throw new IOException("Couldn't delete intermediate DEX file of removed class " + key);
+                }
+                manifest.remove(key);
+                desugarGraph.remove(key);
+                changedKeys.add(key);
+            }
+        }
+
+        /* Dependents of changed classes, transitively, e.g. implementors of changed interfaces */
+        int changedBeforeDependents = changedKeys.size();
+        boolean addedDependents;
+        do {
+            addedDependents = false;
+            for (Map.Entry<String, Set<String>> dependent : desugarGraph.entrySet()) {
+                if (!changedKeys.contains(dependent.getKey()) && existingClasses.containsKey(dependent.getKey())
+                        && containsAny(changedKeys, dependent.getValue())) {
+                    changedKeys.add(dependent.getKey());
+                    addedDependents = true;
+                }
+            }
+        } while (addedDependents);
+
+        for (String key : changedKeys) {
+            File classFile = existingClasses.get(key);
+            if (classFile != null) {
+                changedClasses.add(classFile);
+                pendingHashes.put(classFile, hashes.get(key));
+            }
+        }
+
+        LogUtil.d(TAG, changedClasses.size() + " of " + existingClasses.size() + " classes need to be dexed, "
+                + (changedKeys.size() - changedBeforeDependents) + " of them because of desugaring dependencies");
+        return changedClasses;
+    }
+
+    private static boolean containsAny(Set<String> set, Set<String> values) {
+        if (values == null) return false;
+        for (String value : values) {
+            if (set.contains(value)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that desugaring {@code dependent}, one of the classes getting dexed, needs
+     * {@code dependency}, so that {@code dependent} gets dexed again once {@code dependency} changes.
+     * Files outside of the classes directory are ignored. Safe to call from multiple threads.
+     */
+    public void recordDesugarDependency(File dependent, File dependency) {
+        String dependentKey = getRelativePath(dependent);
+        String dependencyKey = getRelativePath(dependency);
+        if (dependentKey.equals(dependencyKey) || !dependentKey.endsWith(".class")
+                || !dependencyKey.endsWith(".class") || new File(dependentKey).isAbsolute()
+                || new File(dependencyKey).isAbsolute()) {
+            return;
+        }
+        synchronized (pendingDesugarDependencies) {
+            pendingDesugarDependencies.computeIfAbsent(dependentKey, key -> new HashSet<>()).add(dependencyKey);
+        }
+    }
+
+    /**
+     * @return The intermediate DEX file {@code classFile} should be dexed into.
+     */
+    public File getIntermediateDexFile(File classFile) {
+        return getIntermediateDexFile(getRelativePath(classFile));
+    }
+
+    private File getIntermediateDexFile(String relativeClassFilePath) {
+        String withoutExtension = relativeClassFilePath.substring(0, relativeClassFilePath.length() - ".class".length());
+        return new File(intermediatesDirectory, withoutExtension + ".dex");
+    }
+
+    public File getIntermediatesDirectory() {
+        return intermediatesDirectory;
+    }
+
+    /**
+     * @return All intermediate DEX files, sorted by path so that merging them is deterministic.
+     */
+    public List<File> getIntermediateDexFiles() {
+        List<File> dexFiles = FileUtil.listFilesRecursively(intermediatesDirectory, ".dex");
+        dexFiles.sort(null);
+        return dexFiles;
+    }
+
+    /**
+     * Records that all changed classes returned by {@link #findChangedClasses()} have been dexed,
+     * and saves the manifest. Must only be called after dexing succeeded.
+     */
+    public void commit() throws IOException {
+        for (Map.Entry<File, String> pending : pendingHashes.entrySet()) {
+            String key = getRelativePath(pending.getKey());
+            manifest.put(key, pending.getValue());
+
+            Set<String> dependencies = pendingDesugarDependencies.get(key);
+            if (dependencies != null) {
+                desugarGraph.put(key, dependencies);
+            } else {
+                desugarGraph.remove(key);
+            }
+        }
+        pendingHashes.clear();
+        pendingDesugarDependencies.clear();
+        manifest.save();
+        FileUtil.writeFile(desugarGraphFile.getAbsolutePath(), new Gson().toJson(desugarGraph));
+    }
+
+    private String getRelativePath(File classFile) {
+        return classesDirectory.toURI().relativize(classFile.toURI()).getPath();
+    }
+}
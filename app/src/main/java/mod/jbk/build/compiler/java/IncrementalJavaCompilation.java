@@ -0,0 +1,263 @@
+package mod.jbk.build.compiler.java;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import mod.jbk.build.FingerprintStore;
+import mod.jbk.util.LogUtil;
+import pro.sketchware.utility.FileUtil;
+
+/**
+ * Decides which Java source files need to be compiled again, based on hashes of all sources
+ * and a coarse dependency graph recorded during the previous compilation.
+ * <p>
+ * A source is compiled again if it's new or changed, or if it references a type declared in a
+ * changed or removed source, or in any other source compiled again because of that, e.g. as it
+ * may inline constants or inherit members from types declared there. Class files produced by
+ * those sources get deleted first, and everything else in the classes directory is reused as
+ * classpath.
+ */
+public class IncrementalJavaCompilation {
+    private static final String TAG = "IncrementalJavaCompilation";
+
+    private final File stateFile;
+    private final File classesDirectory;
+    private final String configurationHash;
+    private State state;
+    private final Map<String, String> currentHashes = new HashMap<>();
+    private final Map<String, Source> compiledSources = new HashMap<>();
+    private final Set<String> sourcesToCompile = new LinkedHashSet<>();
+
+    /**
+     * @param configuration Compiler options and classpath. If they change, everything gets
+     *                      compiled again.
+     */
+    public IncrementalJavaCompilation(File stateFile, File classesDirectory, String configuration) {
+        this.stateFile = stateFile;
+        this.classesDirectory = classesDirectory;
+        configurationHash = FingerprintStore.hashString(configuration);
+
+        if (stateFile.isFile()) {
+            try {
+                state = new Gson().fromJson(FileUtil.readFile(stateFile.getAbsolutePath()), State.class);
+            } catch (JsonParseException e) {
+                LogUtil.w(TAG, "Couldn't parse Java build state, compiling everything", e);
+            }
+        }
+    }
+
+    /**
+     * Compares {@code sourceFiles} against the previous compilation's state and deletes class
+     * files of sources that need to be compiled again or got removed.
+     *
+     * @return Sources that need to be compiled, which is empty if everything is up-to-date.
+     */
+    public List<File> computeSourcesToCompile(Collection<File> sourceFiles) throws IOException {
+        sourcesToCompile.clear();
+        currentHashes.clear();
+        for (File sourceFile : sourceFiles) {
+            currentHashes.put(sourceFile.getAbsolutePath(), FingerprintStore.hashFile(sourceFile));
+        }
+
+        if (state == null || state.sources == null || !configurationHash.equals(state.configuration)) {
+            LogUtil.d(TAG, "No usable state of previous compilation, compiling all " + sourceFiles.size() + " sources");
+            if (state != null && state.sources != null) {
+                for (Source source : state.sources.values()) {
+                    deleteClassFiles(source);
+                }
+            }
+            state = new State();
+            state.configuration = configurationHash;
+            state.sources = new HashMap<>();
+            sourcesToCompile.addAll(currentHashes.keySet());
+            return toFiles(sourcesToCompile);
+        }
+
+        /* Find new, changed and removed sources, and which types they (used to) declare */
+        Set<String> changedQualifiedNames = new HashSet<>();
+        Set<String> changedSimpleNames = new HashSet<>();
+        for (Map.Entry<String, String> current : currentHashes.entrySet()) {
+            Source previous = state.sources.get(current.getKey());
+            if (previous == null || !current.getValue().equals(previous.hash) || !classFilesExist(previous)) {
+                sourcesToCompile.add(current.getKey());
+                if (previous != null) {
+                    addDeclaredTypeNames(previous, changedQualifiedNames, changedSimpleNames);
+                } else {
+                    String filename = new File(current.getKey()).getName();
+                    changedSimpleNames.add(filename.substring(0, filename.length() - ".java".length()));
+                }
+            }
+        }
+        for (Map.Entry<String, Source> previous : new ArrayList<>(state.sources.entrySet())) {
+            if (!currentHashes.containsKey(previous.getKey())) {
+                addDeclaredTypeNames(previous.getValue(), changedQualifiedNames, changedSimpleNames);
+                deleteClassFiles(previous.getValue());
+                state.sources.remove(previous.getKey());
+            }
+        }
+
+        /* Also compile sources which reference any of those types, and sources referencing those, and so on */
+        boolean addedDependents = !changedQualifiedNames.isEmpty() || !changedSimpleNames.isEmpty();
+        while (addedDependents) {
+            addedDependents = false;
+            for (Map.Entry<String, Source> entry : state.sources.entrySet()) {
+                if (!sourcesToCompile.contains(entry.getKey())
+                        && referencesAny(entry.getValue(), changedQualifiedNames, changedSimpleNames)) {
+                    sourcesToCompile.add(entry.getKey());
+                    addDeclaredTypeNames(entry.getValue(), changedQualifiedNames, changedSimpleNames);
+                    addedDependents = true;
+                }
+            }
+        }
+
+        for (String sourceToCompile : sourcesToCompile) {
+            Source previous = state.sources.get(sourceToCompile);
+            if (previous != null) {
+                deleteClassFiles(previous);
+            }
+        }
+
+        LogUtil.d(TAG, sourcesToCompile.size() + " of " + currentHashes.size() + " sources need to be compiled");
+        return toFiles(sourcesToCompile);
+    }
+
+    /**
+     * Records the outcome of compiling one source file, as reported by the compiler.
+     *
+     * @param sourcePath          Path of the compiled source file
+     * @param classFileNames      Names of produced class files relative to the classes directory,
+     *                            without <code>.class</code> suffix, e.g. <code>com/my/app/MainActivity$1</code>
+     * @param qualifiedReferences Qualified names of types and packages referenced by the source
+     * @param simpleReferences    Simple names referenced by the source
+     */
+    public synchronized void recordCompiledSource(String sourcePath, List<String> classFileNames,
+                                                  Collection<String> qualifiedReferences, Collection<String> simpleReferences) {
+        sourcePath = new File(sourcePath).getAbsolutePath();
+        Source source = new Source();
+        source.hash = currentHashes.get(sourcePath);
+        source.classes = classFileNames;
+        source.qualifiedReferences = new ArrayList<>(qualifiedReferences);
+        source.simpleReferences = new ArrayList<>(simpleReferences);
+        compiledSources.put(sourcePath, source);
+    }
+
+    /**
+     * Saves the state after compilation succeeded.
+     */
+    public void commit() throws IOException {
+        for (String sourcePath : sourcesToCompile) {
+            Source compiled = compiledSources.get(sourcePath);
+            if (compiled != null && compiled.hash != null) {
+                state.sources.put(sourcePath, compiled);
+            } else {
+                state.sources.remove(sourcePath);
+            }
+        }
+        save();
+    }
+
+    /**
+     * Saves the state after compilation failed, so that all sources that should have been
+     * compiled get compiled next time too.
+     */
+    public void discard() throws IOException {
+        for (String sourcePath : sourcesToCompile) {
+            state.sources.remove(sourcePath);
+        }
+        save();
+    }
+
+    /**
+     * Forgets the state, so that the next compilation compiles everything again.
+     */
+    public void invalidate() {
+        if (stateFile.exists() && !stateFile.delete()) {
+            LogUtil.w(TAG, "Couldn't delete " + stateFile);
+        }
+    }
+
+    private void save() throws IOException {
+        compiledSources.clear();
+        File parent = stateFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Couldn't create directory " + parent);
+        }
+        FileUtil.writeFile(stateFile.getAbsolutePath(), new Gson().toJson(state));
+    }
+
+    private boolean classFilesExist(Source source) {
+        if (source.classes == null) return false;
+        for (String classFile : source.classes) {
+            if (!new File(classesDirectory, classFile + ".class").exists()) return false;
+        }
+        return true;
+    }
+
+    private void deleteClassFiles(Source source) {
+        if (source.classes == null) return;
+        for (String classFile : source.classes) {
+            File file = new File(classesDirectory, classFile + ".class");
+            if (file.exists() && !file.delete()) {
+                LogUtil.w(TAG, "Couldn't delete stale class file " + file);
+            }
+        }
+    }
+
+    private static void addDeclaredTypeNames(Source source, Set<String> qualifiedNames, Set<String> simpleNames) {
+        if (source.classes == null) return;
+        for (String classFile : source.classes) {
+            String binaryName = classFile.replace('/', '.');
+            int nestedTypeSeparator = binaryName.indexOf('$');
+            qualifiedNames.add(nestedTypeSeparator == -1 ? binaryName : binaryName.substring(0, nestedTypeSeparator));
+
+            String simpleNamePart = binaryName.substring(binaryName.lastIndexOf('.') + 1);
+            for (String simpleName : simpleNamePart.split("\\$")) {
+                if (!simpleName.isEmpty() && !Character.isDigit(simpleName.charAt(0))) {
+                    simpleNames.add(simpleName);
+                }
+            }
+        }
+    }
+
+    private static boolean referencesAny(Source source, Set<String> qualifiedNames, Set<String> simpleNames) {
+        if (source.qualifiedReferences == null || source.simpleReferences == null) return true;
+        for (String reference : source.qualifiedReferences) {
+            if (qualifiedNames.contains(reference)) return true;
+        }
+        for (String reference : source.simpleReferences) {
+            if (simpleNames.contains(reference)) return true;
+        }
+        return false;
+    }
+
+    private static List<File> toFiles(Collection<String> paths) {
+        List<File> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            files.add(new File(path));
+        }
+        return files;
+    }
+
+    private static class State {
+        String configuration;
+        Map<String, Source> sources;
+    }
+
+    private static class Source {
+        String hash;
+        List<String> classes;
+        List<String> qualifiedReferences;
+        List<String> simpleReferences;
+    }
+}
@@ -0,0 +1,173 @@
+package mod.jbk.build.compiler.java;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import androidx.annotation.NonNull;
+
+import org.eclipse.jdt.internal.compiler.batch.ClasspathJar;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mod.jbk.util.LogUtil;
+import pro.sketchware.SketchApplication;
+
+/**
+ * Keeps ECJ's classpath JARs open and indexed for as long as the app process lives, so that
+ * <code>android.jar</code>, built-in libraries' <code>classes.jar</code>s and local libraries' JARs
+ * don't have to be opened and indexed again on every build.
+ * <p>
+ * JARs are keyed by their path, size and last modification time, so a changed JAR gets indexed
+ * again. A JAR is only used by one compilation at a time; other compilations running at the same
+ * time get their own, uncached instance. Cached JARs not in use get closed when the system is low
+ * on memory.
+ */
+public class JavaCompilerService implements ComponentCallbacks2 {
+    private static final String TAG = "JavaCompilerService";
+    private static JavaCompilerService instance;
+
+    private final Map<String, CachedClasspathJar> cachedJars = new HashMap<>();
+    private int reusedJars = 0;
+
+    private JavaCompilerService() {
+    }
+
+    public static synchronized JavaCompilerService getInstance() {
+        if (instance == null) {
+            instance = new JavaCompilerService();
+            Context context = SketchApplication.getContext();
+            if (context != null) {
+                context.registerComponentCallbacks(instance);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces JARs in the classpath ECJ is about to use with cached, already indexed ones. Pass the
+     * returned classpath to {@link #release(List)} once compiling has finished.
+     *
+     * @param classpath The classpath as returned by ECJ's <code>Main#handleClasspath(ArrayList, String)</code>
+     */
+    public synchronized ArrayList<FileSystem.Classpath> acquire(ArrayList<FileSystem.Classpath> classpath) {
+        ArrayList<FileSystem.Classpath> result = new ArrayList<>(classpath.size());
+        for (FileSystem.Classpath entry : classpath) {
+            /* Subclasses like multi-release JARs depend on compiler options, so only cache plain JARs */
+            if (entry.getClass() != ClasspathJar.class) {
+                result.add(entry);
+                continue;
+            }
+
+            File file = new File(entry.getPath());
+            CachedClasspathJar cachedJar = cachedJars.get(file.getAbsolutePath());
+            if (cachedJar != null && !cachedJar.isUpToDate()) {
+                LogUtil.d(TAG, "Indexing changed JAR " + file + " again");
+                cachedJars.remove(file.getAbsolutePath());
+                cachedJar.evict();
+                cachedJar = null;
+            }
+
+            if (cachedJar == null) {
+                cachedJar = new CachedClasspathJar(file);
+                cachedJars.put(file.getAbsolutePath(), cachedJar);
+            } else if (cachedJar.inUse) {
+                /* Another compilation is using it, and ECJ's JAR indexes aren't thread-safe */
+                result.add(entry);
+                continue;
+            } else {
+                reusedJars++;
+            }
+            cachedJar.inUse = true;
+            result.add(cachedJar);
+        }
+        return result;
+    }
+
+    /**
+     * Makes cached JARs of a finished compilation available to the next one.
+     *
+     * @param classpath The classpath returned by {@link #acquire(ArrayList)}
+     */
+    public synchronized void release(List<FileSystem.Classpath> classpath) {
+        for (FileSystem.Classpath entry : classpath) {
+            if (entry instanceof CachedClasspathJar cachedJar) {
+                cachedJar.inUse = false;
+                if (cachedJar.evicted) {
+                    cachedJar.close();
+                }
+            }
+        }
+        LogUtil.d(TAG, "Reused " + reusedJars + " indexed classpath JARs so far, " + cachedJars.size() + " cached");
+    }
+
+    /**
+     * Closes all cached JARs, or once they're released, if they're in use.
+     */
+    public synchronized void clear() {
+        for (CachedClasspathJar cachedJar : cachedJars.values()) {
+            cachedJar.evict();
+        }
+        cachedJars.clear();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            LogUtil.d(TAG, "Closing cached classpath JARs due to memory pressure (level " + level + ")");
+            clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        clear();
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    private static class CachedClasspathJar extends ClasspathJar {
+        private final File jar;
+        private final long length;
+        private final long lastModified;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        private CachedClasspathJar(File jar) {
+            super(jar, true, null, null);
+            this.jar = jar;
+            length = jar.length();
+            lastModified = jar.lastModified();
+        }
+
+        private boolean isUpToDate() {
+            return jar.length() == length && jar.lastModified() == lastModified;
+        }
+
+        /**
+         * Called by ECJ once a compilation has finished. Keeps the JAR open and its package index
+         * around for the next compilation; {@link #close()} actually closes it.
+         */
+        @Override
+        public void reset() {
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                close();
+            }
+        }
+
+        private void close() {
+            super.reset();
+        }
+    }
+}
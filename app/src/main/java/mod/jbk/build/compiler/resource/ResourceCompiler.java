@@ -8,15 +8,24 @@ import android.content.pm.PackageManager;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import a.a.a.Jp;
 import a.a.a.ProjectBuilder;
 import a.a.a.zy;
-import mod.agus.jcoderz.editor.manage.library.locallibrary.ManageLocalLibrary;
 import mod.hey.studios.build.BuildSettings;
 import mod.hey.studios.project.ProjectSettings;
 import mod.jbk.build.BuildProgressReceiver;
+import mod.jbk.build.BuildTrace;
 import mod.jbk.build.BuiltInLibraries;
+import mod.jbk.build.FingerprintStore;
 import mod.jbk.diagnostic.MissingFileException;
 import mod.jbk.util.LogUtil;
 import pro.sketchware.SketchApplication;
@@ -97,12 +106,28 @@ public class ResourceCompiler {
      */
     static class Aapt2Compiler implements Compiler {
 
+        /**
+         * Name of the file in the project's bin directory that keeps fingerprints of the inputs
+         * of every compiled resources archive in <code>bin/res</code>, keyed by archive name.
+         */
+        private static final String COMPILED_RESOURCES_FINGERPRINTS_FILENAME = "compiled-res-fingerprints.txt";
+
         private final boolean buildAppBundle;
 
         private final File aapt2;
         private final ProjectBuilder buildHelper;
         private final File compiledBuiltInLibraryResourcesDirectory;
         private ProgressListener progressListener;
+        private FingerprintStore compiledResourcesFingerprints;
+        /**
+         * Names of the archives in <code>bin/res</code> the current build produces or keeps.
+         */
+        private final Set<String> upToDateArchives = new HashSet<>();
+        /**
+         * AAPT2 compile invocations the current build needs. They all write to different archives,
+         * so they get run concurrently once every kind of resources has been checked.
+         */
+        private final List<CompileJob> compileJobs = new ArrayList<>();
 
         public Aapt2Compiler(ProjectBuilder buildHelper, File aapt2, boolean buildAppBundle) {
             this.buildHelper = buildHelper;
@@ -114,26 +139,39 @@ public class ResourceCompiler {
         @Override
         public void compile() throws zy, MissingFileException {
             String outputPath = buildHelper.yq.binDirectoryPath + File.separator + "res";
-            emptyOrCreateDirectory(outputPath);
+            FileUtil.makeDir(outputPath);
+            compiledResourcesFingerprints = new FingerprintStore(new File(buildHelper.yq.binDirectoryPath,
+                    COMPILED_RESOURCES_FINGERPRINTS_FILENAME));
+            upToDateArchives.clear();
+            compileJobs.clear();
 
             long savedTimeMillis = System.currentTimeMillis();
             if (progressListener != null) {
                 progressListener.onProgressUpdate("Compiling resources with AAPT2...", 9);
             }
             compileBuiltInLibraryResources();
-            LogUtil.d(TAG + ":c", "Compiling built-in library resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-            savedTimeMillis = System.currentTimeMillis();
             compileLocalLibraryResources(outputPath);
-            LogUtil.d(TAG + ":c", "Compiling local library resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-            savedTimeMillis = System.currentTimeMillis();
             compileProjectResources(outputPath);
-            LogUtil.d(TAG + ":c", "Compiling project generated resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
-            savedTimeMillis = System.currentTimeMillis();
             compileImportedResources(outputPath);
-            LogUtil.d(TAG + ":c", "Compiling project imported resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+            LogUtil.d(TAG + ":c", "Checking which resources need compiling took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+            deleteStaleArchives(outputPath);
+
+            savedTimeMillis = System.currentTimeMillis();
+            try (BuildTrace.Span ignored = buildHelper.buildTrace.begin("AAPT2 compile")) {
+                runCompileJobs();
+            } finally {
+                try {
+                    compiledResourcesFingerprints.save();
+                } catch (IOException e) {
+                    LogUtil.w(TAG + ":c", "Couldn't save compiled resources' fingerprints, resources will be compiled again next build", e);
+                }
+            }
+            LogUtil.d(TAG + ":c", "Compiling " + compileJobs.size() + " resource directories took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
 
             savedTimeMillis = System.currentTimeMillis();
-            link();
+            try (BuildTrace.Span ignored = buildHelper.buildTrace.begin("AAPT2 link")) {
+                link();
+            }
             LogUtil.d(TAG + ":c", "Linking resources took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
         }
 
@@ -203,7 +241,7 @@ public class ResourceCompiler {
             }
 
             /* Add local libraries' assets */
-            for (String localLibraryAssetsDirectory : new ManageLocalLibrary(buildHelper.yq.sc_id).getAssets()) {
+            for (String localLibraryAssetsDirectory : buildHelper.mll.getAssets()) {
                 linkingAssertDirectoryExists(localLibraryAssetsDirectory);
                 args.add("-A");
                 args.add(localLibraryAssetsDirectory);
@@ -278,33 +316,21 @@ public class ResourceCompiler {
             }
         }
 
-        private void compileProjectResources(String outputPath) throws zy, MissingFileException {
+        private void compileProjectResources(String outputPath) throws MissingFileException {
             compilingAssertDirectoryExists(buildHelper.yq.resDirectoryPath);
 
-            ArrayList<String> commands = new ArrayList<>();
-            commands.add(aapt2.getAbsolutePath());
-            commands.add("compile");
-            commands.add("--dir");
-            commands.add(buildHelper.yq.resDirectoryPath);
-            commands.add("-o");
-            commands.add(outputPath + File.separator + "project.zip");
-            LogUtil.d(TAG + ":cPR", "Now executing: " + commands);
-            BinaryExecutor executor = new BinaryExecutor();
-            executor.setCommands(commands);
-            if (!executor.execute().isEmpty()) {
-                LogUtil.e(TAG, executor.getLog());
-                throw new zy(executor.getLog());
+            /* Generated resources get rewritten every build, so only their content tells if they changed */
+            String fingerprint;
+            try {
+                fingerprint = FingerprintStore.hashDirectory(new File(buildHelper.yq.resDirectoryPath));
+            } catch (IOException e) {
+                LogUtil.w(TAG + ":cPR", "Couldn't hash project resources, compiling them anyway", e);
+                fingerprint = null;
             }
+            compileIfChanged(buildHelper.yq.resDirectoryPath, new File(outputPath, "project.zip"), fingerprint, TAG + ":cPR");
         }
 
-        private void emptyOrCreateDirectory(String path) {
-            if (FileUtil.isExistFile(path)) {
-                FileUtil.deleteFile(path);
-            }
-            FileUtil.makeDir(path);
-        }
-
-        private void compileLocalLibraryResources(String outputPath) throws zy, MissingFileException {
+        private void compileLocalLibraryResources(String outputPath) throws MissingFileException {
             int localLibrariesCount = buildHelper.mll.getResLocalLibrary().size();
             LogUtil.d(TAG + ":cLLR", "About to compile " + localLibrariesCount
                     + " local " + (localLibrariesCount == 1 ? "library" : "libraries"));
@@ -313,26 +339,13 @@ public class ResourceCompiler {
                 if (localLibraryDirectory != null) {
                     compilingAssertDirectoryExists(localLibraryResDirectory);
 
-                    ArrayList<String> commands = new ArrayList<>();
-                    commands.add(aapt2.getAbsolutePath());
-                    commands.add("compile");
-                    commands.add("--dir");
-                    commands.add(localLibraryResDirectory);
-                    commands.add("-o");
-                    commands.add(outputPath + File.separator + localLibraryDirectory.getName() + ".zip");
-
-                    LogUtil.d(TAG + ":cLLR", "Now executing: " + commands);
-                    BinaryExecutor executor = new BinaryExecutor();
-                    executor.setCommands(commands);
-                    if (!executor.execute().isEmpty()) {
-                        LogUtil.e(TAG, executor.getLog());
-                        throw new zy(executor.getLog());
-                    }
+                    compileIfChanged(localLibraryResDirectory, new File(outputPath, localLibraryDirectory.getName() + ".zip"),
+                            FingerprintStore.fingerprintDirectory(new File(localLibraryResDirectory)), TAG + ":cLLR");
                 }
             }
         }
 
-        private void compileBuiltInLibraryResources() throws zy, MissingFileException {
+        private void compileBuiltInLibraryResources() throws MissingFileException {
             compiledBuiltInLibraryResourcesDirectory.mkdirs();
             for (Jp builtInLibrary : buildHelper.builtInLibraryManager.getLibraries()) {
                 if (builtInLibrary.hasResources()) {
@@ -342,21 +355,7 @@ public class ResourceCompiler {
                     compilingAssertDirectoryExists(libraryResources);
 
                     if (isBuiltInLibraryRecompilingNeeded(cachedCompiledResources)) {
-                        ArrayList<String> commands = new ArrayList<>();
-                        commands.add(aapt2.getAbsolutePath());
-                        commands.add("compile");
-                        commands.add("--dir");
-                        commands.add(libraryResources);
-                        commands.add("-o");
-                        commands.add(cachedCompiledResources.getAbsolutePath());
-
-                        LogUtil.d(TAG + ":cBILR", "Now executing: " + commands);
-                        BinaryExecutor executor = new BinaryExecutor();
-                        executor.setCommands(commands);
-                        if (!executor.execute().isEmpty()) {
-                            LogUtil.e(TAG + ":cBILR", executor.getLog());
-                            throw new zy(executor.getLog());
-                        }
+                        compileJobs.add(new CompileJob(libraryResources, cachedCompiledResources, null, TAG + ":cBILR"));
                     } else {
                         LogUtil.d(TAG + ":cBILR", "Skipped resource recompilation for built-in library " + builtInLibrary.getName());
                     }
@@ -380,22 +379,147 @@ public class ResourceCompiler {
             return true;
         }
 
-        private void compileImportedResources(String outputPath) throws zy {
-            if (FileUtil.isExistFile(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id))
-                    && new File(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id)).length() != 0) {
-                ArrayList<String> commands = new ArrayList<>();
-                commands.add(aapt2.getAbsolutePath());
-                commands.add("compile");
-                commands.add("--dir");
-                commands.add(buildHelper.fpu.getPathResource(buildHelper.yq.sc_id));
-                commands.add("-o");
-                commands.add(outputPath + File.separator + "project-imported.zip");
-                LogUtil.d(TAG + ":cIR", "Now executing: " + commands);
-                BinaryExecutor executor = new BinaryExecutor();
-                executor.setCommands(commands);
-                if (!executor.execute().isEmpty()) {
-                    LogUtil.e(TAG, executor.getLog());
-                    throw new zy(executor.getLog());
+        private void compileImportedResources(String outputPath) {
+            String importedResourcesPath = buildHelper.fpu.getPathResource(buildHelper.yq.sc_id);
+            if (FileUtil.isExistFile(importedResourcesPath)
+                    && new File(importedResourcesPath).length() != 0) {
+                compileIfChanged(importedResourcesPath, new File(outputPath, "project-imported.zip"),
+                        FingerprintStore.fingerprintDirectory(new File(importedResourcesPath)), TAG + ":cIR");
+            }
+        }
+
+        /**
+         * Schedules compiling a resource directory into {@code output}, unless {@code output} exists
+         * and was compiled from a resource directory with the same fingerprint.
+         *
+         * @param fingerprint The resource directory's current fingerprint, or <code>null</code>
+         *                    to force compilation
+         */
+        private void compileIfChanged(String resourceDirectory, File output, String fingerprint, String tag) {
+            String key = output.getName();
+            upToDateArchives.add(key);
+            if (fingerprint != null) {
+                fingerprint = FingerprintStore.hashString(getAapt2Fingerprint() + resourceDirectory + fingerprint);
+                if (output.exists() && compiledResourcesFingerprints.matches(key, fingerprint)) {
+                    LogUtil.d(tag, "Skipped compiling unchanged resources " + resourceDirectory);
+                    return;
+                }
+            }
+
+            /* Forget the old fingerprint first, in case compiling fails and leaves a broken archive behind */
+            compiledResourcesFingerprints.remove(key);
+            compileJobs.add(new CompileJob(resourceDirectory, output, fingerprint, tag));
+        }
+
+        /**
+         * Runs all scheduled AAPT2 compile invocations, at most as many at once as configured in
+         * the project's build settings, and waits for all of them to finish.
+         *
+         * @throws zy If any invocation failed, with the logs of all failed invocations.
+         */
+        private void runCompileJobs() throws zy {
+            if (compileJobs.isEmpty()) return;
+
+            AtomicInteger finishedJobs = new AtomicInteger();
+            List<String> errors = new ArrayList<>();
+            int threads = Math.min(compileJobs.size(), getMaximumConcurrentCompilations());
+            if (threads <= 1) {
+                for (CompileJob job : compileJobs) {
+                    onCompileJobDone(job, job.run(aapt2), errors, finishedJobs);
+                }
+            } else {
+                ExecutorService compilerPool = Executors.newFixedThreadPool(threads);
+                try {
+                    List<Future<String>> results = new ArrayList<>(compileJobs.size());
+                    for (CompileJob job : compileJobs) {
+                        results.add(compilerPool.submit(() -> {
+                            String error = job.run(aapt2);
+                            reportCompileProgress(finishedJobs.incrementAndGet());
+                            return error;
+                        }));
+                    }
+
+                    /* Wait for every job, even after one failed, so that all errors get reported at once */
+                    for (int i = 0; i < compileJobs.size(); i++) {
+                        String error;
+                        try {
+                            error = results.get(i).get();
+                        } catch (ExecutionException e) {
+                            error = String.valueOf(e.getCause());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new zy("Interrupted while compiling resources");
+                        }
+                        onCompileJobDone(compileJobs.get(i), error, errors, null);
+                    }
+                } finally {
+                    compilerPool.shutdownNow();
+                }
+            }
+
+            if (!errors.isEmpty()) {
+                throw new zy(String.join("\n\n", errors));
+            }
+        }
+
+        private void onCompileJobDone(CompileJob job, String error, List<String> errors, AtomicInteger finishedJobs) {
+            if (error == null) {
+                if (job.fingerprint != null) {
+                    compiledResourcesFingerprints.put(job.output.getName(), job.fingerprint);
+                }
+            } else {
+                errors.add(error);
+            }
+            if (finishedJobs != null) {
+                reportCompileProgress(finishedJobs.incrementAndGet());
+            }
+        }
+
+        private void reportCompileProgress(int finishedJobs) {
+            if (progressListener != null) {
+                progressListener.onProgressUpdate("Compiling resources with AAPT2 (" + finishedJobs + "/" + compileJobs.size() + ")...", 9);
+            }
+        }
+
+        private int getMaximumConcurrentCompilations() {
+            int availableProcessors = Runtime.getRuntime().availableProcessors();
+            String configured = buildHelper.build_settings.getValue(BuildSettings.SETTING_RESOURCE_COMPILE_THREADS, "");
+            if (!configured.isEmpty()) {
+                try {
+                    return Math.max(1, Integer.parseInt(configured));
+                } catch (NumberFormatException e) {
+                    LogUtil.w(TAG + ":gMCC", "Invalid resource compile thread count " + configured + ", using " + availableProcessors);
+                }
+            }
+            return availableProcessors;
+        }
+
+        /**
+         * @return A fingerprint of the AAPT2 binary, so that updating it recompiles all resources.
+         */
+        private String getAapt2Fingerprint() {
+            return aapt2.getAbsolutePath() + ':' + aapt2.length() + ':' + aapt2.lastModified() + '\n';
+        }
+
+        /**
+         * Deletes archives in <code>bin/res</code> that the current build hasn't produced or kept,
+         * e.g. of local libraries that got removed from the project, as linking includes every
+         * archive in that directory.
+         */
+        private void deleteStaleArchives(String outputPath) {
+            File[] archives = new File(outputPath).listFiles();
+            if (archives != null) {
+                for (File archive : archives) {
+                    if (!upToDateArchives.contains(archive.getName())) {
+                        LogUtil.d(TAG + ":dSA", "Deleting stale compiled resources " + archive.getAbsolutePath());
+                        FileUtil.deleteFile(archive.getAbsolutePath());
+                        compiledResourcesFingerprints.remove(archive.getName());
+                    }
+                }
+            }
+            for (String key : new ArrayList<>(compiledResourcesFingerprints.keySet())) {
+                if (!upToDateArchives.contains(key)) {
+                    compiledResourcesFingerprints.remove(key);
                 }
             }
         }
@@ -425,5 +549,49 @@ public class ResourceCompiler {
         public void setProgressListener(ProgressListener listener) {
             progressListener = listener;
         }
+
+        /**
+         * A single <code>aapt2 compile --dir</code> invocation.
+         */
+        private static class CompileJob {
+            private final String resourceDirectory;
+            private final File output;
+            /**
+             * The fingerprint to record for {@link #output} once compiled, or <code>null</code>
+             * if it isn't tracked in <code>bin/res</code>'s fingerprints.
+             */
+            private final String fingerprint;
+            private final String tag;
+
+            CompileJob(String resourceDirectory, File output, String fingerprint, String tag) {
+                this.resourceDirectory = resourceDirectory;
+                this.output = output;
+                this.fingerprint = fingerprint;
+                this.tag = tag;
+            }
+
+            /**
+             * @return AAPT2's log if compiling failed, otherwise <code>null</code>
+             */
+            String run(File aapt2) {
+                long savedTimeMillis = System.currentTimeMillis();
+                ArrayList<String> commands = new ArrayList<>();
+                commands.add(aapt2.getAbsolutePath());
+                commands.add("compile");
+                commands.add("--dir");
+                commands.add(resourceDirectory);
+                commands.add("-o");
+                commands.add(output.getAbsolutePath());
+                LogUtil.d(tag, "Now executing: " + commands);
+                BinaryExecutor executor = new BinaryExecutor();
+                executor.setCommands(commands);
+                if (!executor.execute().isEmpty()) {
+                    LogUtil.e(tag, executor.getLog());
+                    return executor.getLog();
+                }
+                LogUtil.d(tag, "Compiling " + resourceDirectory + " took " + (System.currentTimeMillis() - savedTimeMillis) + " ms");
+                return null;
+            }
+        }
     }
 }
@@ -0,0 +1,53 @@
+package mod.jbk.editor.usage;
+
+import com.besome.sketch.beans.BlockBean;
+
+import java.util.ArrayList;
+
+import a.a.a.eC;
+
+/**
+ * A project data manager that keeps a {@link ProjectUsageIndex} of its project up to date, and
+ * answers variable and list usage checks with it instead of scanning all blocks.
+ */
+public class IndexedProjectDataManager extends eC {
+    private final ProjectUsageIndex usageIndex = new ProjectUsageIndex(this);
+
+    public IndexedProjectDataManager(String sc_id) {
+        super(sc_id);
+    }
+
+    public ProjectUsageIndex getUsageIndex() {
+        return usageIndex;
+    }
+
+    /**
+     * Stores an event's blocks.
+     */
+    @Override
+    public void a(String javaFileName, String eventKey, ArrayList<BlockBean> blocks) {
+        super.a(javaFileName, eventKey, blocks);
+        /* In case eC's constructor calls this, before this class' fields have been initialized */
+        if (usageIndex != null) {
+            usageIndex.updateEvent(javaFileName, eventKey, blocks);
+        }
+    }
+
+    /**
+     * @return If a block of an event of {@code javaFileName} other than {@code excludedEventKey}
+     * uses the list {@code listName}
+     */
+    @Override
+    public boolean b(String javaFileName, String listName, String excludedEventKey) {
+        return usageIndex.isUsedInBlocks(ProjectUsageIndex.Kind.LIST, listName, javaFileName, excludedEventKey);
+    }
+
+    /**
+     * @return If a block of an event of {@code javaFileName} other than {@code excludedEventKey}
+     * uses the variable {@code variableName}
+     */
+    @Override
+    public boolean c(String javaFileName, String variableName, String excludedEventKey) {
+        return usageIndex.isUsedInBlocks(ProjectUsageIndex.Kind.VARIABLE, variableName, javaFileName, excludedEventKey);
+    }
+}
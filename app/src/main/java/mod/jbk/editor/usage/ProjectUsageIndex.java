@@ -0,0 +1,353 @@
+package mod.jbk.editor.usage;
+
+import androidx.annotation.NonNull;
+
+import com.besome.sketch.beans.BlockBean;
+import com.besome.sketch.beans.ViewBean;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import a.a.a.Gx;
+import a.a.a.eC;
+import a.a.a.jC;
+
+/**
+ * Maps symbols of a project (string resources, variables, lists, components) to where they're used:
+ * the blocks of all events and the views of all layouts.
+ * <p>
+ * The index gets built once the first time it's queried, and after that is only updated for events
+ * and layouts that changed: events when they get saved by {@link IndexedProjectDataManager}, or
+ * their block list got replaced or resized otherwise; layouts when the text or hint of any of their
+ * views changed, as views are edited in place. So a lookup only costs checking that events and
+ * layouts are still the same, plus the lookup itself, instead of comparing every block of the project.
+ */
+public class ProjectUsageIndex {
+    private static final String STRING_RESOURCE_PREFIX_JAVA = "R.string.";
+    private static final String STRING_RESOURCE_PREFIX_XML = "@string/";
+
+    private final eC projectDataManager;
+    private final Map<Kind, Map<String, ArrayList<Usage>>> usages = new EnumMap<>(Kind.class);
+    /**
+     * Java file names to event keys (e.g. <code>button1_onClick</code>) to their indexed blocks
+     */
+    private final Map<String, Map<String, Segment>> eventSegments = new HashMap<>();
+    /**
+     * XML file names to their indexed views
+     */
+    private final Map<String, Segment> layoutSegments = new HashMap<>();
+    private boolean built = false;
+
+    ProjectUsageIndex(eC projectDataManager) {
+        this.projectDataManager = projectDataManager;
+        for (Kind kind : Kind.values()) {
+            usages.put(kind, new HashMap<>());
+        }
+    }
+
+    /**
+     * @return The usage index of the project currently loaded by {@link jC#a(String)}
+     */
+    public static ProjectUsageIndex get(String sc_id) {
+        eC projectDataManager = jC.a(sc_id);
+        if (projectDataManager instanceof IndexedProjectDataManager indexedProjectDataManager) {
+            return indexedProjectDataManager.getUsageIndex();
+        }
+        return new ProjectUsageIndex(projectDataManager);
+    }
+
+    /**
+     * @return All places {@code name} is used at
+     */
+    public synchronized List<Usage> getUsages(Kind kind, String name) {
+        refresh();
+        ArrayList<Usage> symbolUsages = usages.get(kind).get(name);
+        return symbolUsages == null ? new ArrayList<>() : new ArrayList<>(symbolUsages);
+    }
+
+    public synchronized boolean isUsed(Kind kind, String name) {
+        refresh();
+        return usages.get(kind).containsKey(name);
+    }
+
+    /**
+     * @return How many blocks of all events use {@code name}
+     */
+    public synchronized int getBlockUsageCount(Kind kind, String name) {
+        refresh();
+        int count = 0;
+        ArrayList<Usage> symbolUsages = usages.get(kind).get(name);
+        if (symbolUsages != null) {
+            for (Usage usage : symbolUsages) {
+                if (usage.eventKey != null) count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param javaFileName     Only check events of this Java file, or of all files if <code>null</code>
+     * @param excludedEventKey An event not to check, e.g. the one currently being edited, or <code>null</code>
+     * @return If a block of an event uses {@code name}
+     */
+    public synchronized boolean isUsedInBlocks(Kind kind, String name, String javaFileName, String excludedEventKey) {
+        refresh();
+        ArrayList<Usage> symbolUsages = usages.get(kind).get(name);
+        if (symbolUsages != null) {
+            for (Usage usage : symbolUsages) {
+                if (usage.eventKey == null) continue;
+                if (javaFileName != null && !javaFileName.equals(usage.fileName)) continue;
+                if (usage.eventKey.equals(excludedEventKey)) continue;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return If a view of any layout uses {@code name}
+     */
+    public synchronized boolean isUsedInLayouts(Kind kind, String name) {
+        refresh();
+        ArrayList<Usage> symbolUsages = usages.get(kind).get(name);
+        if (symbolUsages != null) {
+            for (Usage usage : symbolUsages) {
+                if (usage.eventKey == null) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indexes an event's blocks again, called once they've been stored in the project.
+     */
+    synchronized void updateEvent(String javaFileName, String eventKey, ArrayList<BlockBean> blocks) {
+        if (!built) return;
+        Map<String, Segment> segments = eventSegments.get(javaFileName);
+        if (segments == null) {
+            segments = new HashMap<>();
+            eventSegments.put(javaFileName, segments);
+        }
+        indexEvent(segments, javaFileName, eventKey, blocks);
+    }
+
+    private void refresh() {
+        built = true;
+        HashMap<String, HashMap<String, ArrayList<BlockBean>>> events = projectDataManager.d;
+        HashMap<String, ArrayList<ViewBean>> layouts = projectDataManager.c;
+
+        for (Iterator<Map.Entry<String, Map<String, Segment>>> iterator = eventSegments.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Map<String, Segment>> fileSegments = iterator.next();
+            HashMap<String, ArrayList<BlockBean>> fileEvents = events == null ? null : events.get(fileSegments.getKey());
+            for (Iterator<Map.Entry<String, Segment>> segmentIterator = fileSegments.getValue().entrySet().iterator(); segmentIterator.hasNext(); ) {
+                Map.Entry<String, Segment> segment = segmentIterator.next();
+                if (fileEvents == null || !fileEvents.containsKey(segment.getKey())) {
+                    removeUsages(segment.getValue());
+                    segmentIterator.remove();
+                }
+            }
+            if (fileSegments.getValue().isEmpty()) iterator.remove();
+        }
+        if (events != null) {
+            for (Map.Entry<String, HashMap<String, ArrayList<BlockBean>>> fileEvents : events.entrySet()) {
+                Map<String, Segment> segments = eventSegments.get(fileEvents.getKey());
+                if (segments == null) {
+                    segments = new HashMap<>();
+                    eventSegments.put(fileEvents.getKey(), segments);
+                }
+                for (Map.Entry<String, ArrayList<BlockBean>> event : fileEvents.getValue().entrySet()) {
+                    Segment segment = segments.get(event.getKey());
+                    if (segment == null || !segment.isUpToDate(event.getValue())) {
+                        indexEvent(segments, fileEvents.getKey(), event.getKey(), event.getValue());
+                    }
+                }
+            }
+        }
+
+        for (Iterator<Map.Entry<String, Segment>> iterator = layoutSegments.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Segment> segment = iterator.next();
+            if (layouts == null || !layouts.containsKey(segment.getKey())) {
+                removeUsages(segment.getValue());
+                iterator.remove();
+            }
+        }
+        if (layouts != null) {
+            for (Map.Entry<String, ArrayList<ViewBean>> layout : layouts.entrySet()) {
+                Segment segment = layoutSegments.get(layout.getKey());
+                if (segment == null || !segment.isUpToDate(layout.getValue())
+                        || !segment.attributes.equals(getIndexedAttributes(layout.getValue()))) {
+                    indexLayout(layout.getKey(), layout.getValue());
+                }
+            }
+        }
+    }
+
+    private void indexEvent(Map<String, Segment> segments, String javaFileName, String eventKey, ArrayList<BlockBean> blocks) {
+        Segment oldSegment = segments.remove(eventKey);
+        if (oldSegment != null) removeUsages(oldSegment);
+        if (blocks == null) return;
+
+        Segment segment = new Segment(blocks);
+        for (BlockBean block : blocks) {
+            if ("getResStr".equals(block.opCode)) {
+                addUsage(segment, Kind.STRING_RESOURCE, block.spec, javaFileName, eventKey, block.id);
+            } else if ("getResString".equals(block.opCode) && !block.parameters.isEmpty()) {
+                String parameter = block.parameters.get(0);
+                if (parameter != null && parameter.startsWith(STRING_RESOURCE_PREFIX_JAVA)) {
+                    addUsage(segment, Kind.STRING_RESOURCE, parameter.substring(STRING_RESOURCE_PREFIX_JAVA.length()), javaFileName, eventKey, block.id);
+                }
+            }
+
+            /* Same checks as eC#c(String, String, String) and eC#b(String, String, String) */
+            Gx classInfo = block.getClassInfo();
+            if (classInfo != null) {
+                if (classInfo.c()) addUsage(segment, Kind.VARIABLE, block.spec, javaFileName, eventKey, block.id);
+                if (classInfo.b()) addUsage(segment, Kind.LIST, block.spec, javaFileName, eventKey, block.id);
+                if (classInfo.a("Component")) addUsage(segment, Kind.COMPONENT, block.spec, javaFileName, eventKey, block.id);
+            }
+            ArrayList<Gx> paramClassInfo = block.getParamClassInfo();
+            if (paramClassInfo != null) {
+                for (int i = 0; i < paramClassInfo.size() && i < block.parameters.size(); i++) {
+                    Gx parameterClassInfo = paramClassInfo.get(i);
+                    if (parameterClassInfo == null) continue;
+                    String parameter = block.parameters.get(i);
+                    if (parameterClassInfo.c()) addUsage(segment, Kind.VARIABLE, parameter, javaFileName, eventKey, block.id);
+                    if (parameterClassInfo.b()) addUsage(segment, Kind.LIST, parameter, javaFileName, eventKey, block.id);
+                    if (parameterClassInfo.a("Component")) addUsage(segment, Kind.COMPONENT, parameter, javaFileName, eventKey, block.id);
+                }
+            }
+        }
+        segments.put(eventKey, segment);
+    }
+
+    private void indexLayout(String xmlFileName, ArrayList<ViewBean> views) {
+        Segment oldSegment = layoutSegments.remove(xmlFileName);
+        if (oldSegment != null) removeUsages(oldSegment);
+        if (views == null) return;
+
+        Segment segment = new Segment(views);
+        segment.attributes = getIndexedAttributes(views);
+        for (ViewBean view : views) {
+            if (view.text == null) continue;
+            addStringResourceUsage(segment, view.text.text, xmlFileName, view.id);
+            addStringResourceUsage(segment, view.text.hint, xmlFileName, view.id);
+        }
+        layoutSegments.put(xmlFileName, segment);
+    }
+
+    /**
+     * @return IDs, texts and hints of views, which are edited in place and so need to be compared
+     * to find out if a layout needs to be indexed again
+     */
+    private static String getIndexedAttributes(ArrayList<ViewBean> views) {
+        if (views == null) return "";
+        StringBuilder attributes = new StringBuilder();
+        for (ViewBean view : views) {
+            if (view.text == null) continue;
+            attributes.append(view.id).append('\0').append(view.text.text).append('\0')
+                    .append(view.text.hint).append('\0');
+        }
+        return attributes.toString();
+    }
+
+    private void addStringResourceUsage(Segment segment, String attributeValue, String xmlFileName, String viewId) {
+        if (attributeValue != null && attributeValue.startsWith(STRING_RESOURCE_PREFIX_XML)) {
+            addUsage(segment, Kind.STRING_RESOURCE, attributeValue.substring(STRING_RESOURCE_PREFIX_XML.length()), xmlFileName, null, viewId);
+        }
+    }
+
+    private void addUsage(Segment segment, Kind kind, String name, String fileName, String eventKey, String id) {
+        if (name == null || name.isEmpty()) return;
+        Usage usage = new Usage(kind, name, fileName, eventKey, id);
+        Map<String, ArrayList<Usage>> kindUsages = usages.get(kind);
+        ArrayList<Usage> symbolUsages = kindUsages.get(name);
+        if (symbolUsages == null) {
+            symbolUsages = new ArrayList<>();
+            kindUsages.put(name, symbolUsages);
+        }
+        symbolUsages.add(usage);
+        segment.usages.add(usage);
+    }
+
+    private void removeUsages(Segment segment) {
+        for (Usage usage : segment.usages) {
+            Map<String, ArrayList<Usage>> kindUsages = usages.get(usage.kind);
+            ArrayList<Usage> symbolUsages = kindUsages.get(usage.name);
+            if (symbolUsages != null) {
+                symbolUsages.remove(usage);
+                if (symbolUsages.isEmpty()) kindUsages.remove(usage.name);
+            }
+        }
+        segment.usages.clear();
+    }
+
+    public enum Kind {
+        STRING_RESOURCE,
+        VARIABLE,
+        LIST,
+        /**
+         * Components by their ID, e.g. <code>intent1</code>
+         */
+        COMPONENT
+    }
+
+    public static class Usage {
+        public final Kind kind;
+        public final String name;
+        /**
+         * The Java file name of the block, or the XML file name of the view using the symbol
+         */
+        public final String fileName;
+        /**
+         * The key of the event the block using the symbol is part of, <code>null</code> if a view uses it
+         */
+        public final String eventKey;
+        /**
+         * The ID of the block or view using the symbol
+         */
+        public final String id;
+
+        private Usage(Kind kind, String name, String fileName, String eventKey, String id) {
+            this.kind = kind;
+            this.name = name;
+            this.fileName = fileName;
+            this.eventKey = eventKey;
+            this.id = id;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return eventKey == null ? fileName + ": view " + id : fileName + ": " + eventKey + ", block " + id;
+        }
+    }
+
+    /**
+     * Usages contributed by an event's blocks or a layout's views
+     */
+    private static class Segment {
+        private final ArrayList<Usage> usages = new ArrayList<>();
+        private final int size;
+        /**
+         * The list that got indexed, as lists get replaced when they get saved
+         */
+        private final List<?> source;
+        /**
+         * For layouts, what {@link #getIndexedAttributes(ArrayList)} returned when they got indexed
+         */
+        private String attributes = "";
+
+        private Segment(List<?> source) {
+            this.source = source;
+            size = source.size();
+        }
+
+        private boolean isUpToDate(List<?> current) {
+            return current == source && current.size() == size;
+        }
+    }
+}
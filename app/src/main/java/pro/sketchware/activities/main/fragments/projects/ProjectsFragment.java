@@ -21,7 +21,6 @@ import androidx.appcompat.widget.SearchView;
 import androidx.core.view.MenuProvider;
 import androidx.core.view.WindowInsetsCompat;
 import androidx.core.widget.NestedScrollView;
-import androidx.recyclerview.widget.DiffUtil;
 
 import com.besome.sketch.adapters.ProjectsAdapter;
 import com.besome.sketch.design.DesignActivity;
@@ -36,12 +35,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.stream.IntStream;
 
 import a.a.a.DA;
 import a.a.a.DB;
 import a.a.a.lC;
 import dev.chrisbanes.insetter.Insetter;
+import mod.hey.studios.project.ProjectMetadataIndex;
 import mod.hey.studios.project.ProjectTracker;
 import mod.hey.studios.project.backup.BackupRestoreManager;
 import pro.sketchware.R;
@@ -51,6 +50,10 @@ import pro.sketchware.databinding.SortProjectDialogBinding;
 import pro.sketchware.utility.UI;
 
 public class ProjectsFragment extends DA {
+    /**
+     * How many projects to read before showing them, when sorting by ID
+     */
+    private static final int PAGE_SIZE = 20;
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
     private final List<HashMap<String, Object>> projectsList = new ArrayList<>();
     private MyprojectsBinding binding;
@@ -72,6 +75,7 @@ public class ProjectsFragment extends DA {
     private DB preference;
     private SearchView projectsSearchView;
     private MenuProvider menuProvider;
+    private volatile int refreshGeneration = 0;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -134,6 +138,7 @@ public class ProjectsFragment extends DA {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        projectsAdapter.shutdown();
         binding = null; // avoid memory leaks
     }
 
@@ -219,35 +224,72 @@ public class ProjectsFragment extends DA {
             return;
         }
 
+        int generation = ++refreshGeneration;
+        ProjectComparator comparator = new ProjectComparator(preference.d("sortBy"));
         executorService.execute(() -> {
-            List<HashMap<String, Object>> loadedProjects = lC.a();
-            loadedProjects.sort(new ProjectComparator(preference.d("sortBy")));
-
-            DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new ProjectDiffCallback(projectsList, loadedProjects));
+            if (comparator.sortsById()) {
+                // Sorting by ID doesn't need metadata, so show projects page by page as they're read
+                List<String> projectIds = ProjectMetadataIndex.getProjectIds();
+                projectIds.removeIf(sc_id -> !sc_id.matches("\\d+"));
+                projectIds.sort(comparator::compareIds);
+
+                List<HashMap<String, Object>> loadedProjects = new ArrayList<>(projectIds.size());
+                int pageStart = 0;
+                do {
+                    int pageEnd = Math.min(pageStart + PAGE_SIZE, projectIds.size());
+                    loadedProjects.addAll(ProjectMetadataIndex.get(projectIds.subList(pageStart, pageEnd)));
+                    if (!showProjects(generation, new ArrayList<>(loadedProjects), pageEnd == projectIds.size())) {
+                        return;
+                    }
+                    pageStart = pageEnd;
+                } while (pageStart < projectIds.size());
+            } else {
+                List<HashMap<String, Object>> loadedProjects = lC.a();
+                loadedProjects.sort(comparator);
+                showProjects(generation, loadedProjects, true);
+            }
+        });
+    }
 
-            requireActivity().runOnUiThread(() -> {
-                if (binding.swipeRefresh.isRefreshing()) binding.swipeRefresh.setRefreshing(false);
-                if (binding.loadingContainer.getVisibility() == View.VISIBLE) {
-                    binding.loadingContainer.setVisibility(View.GONE);
-                    binding.myprojects.setVisibility(View.VISIBLE);
-                }
-                projectsList.clear();
-                projectsList.addAll(loadedProjects);
-                diffResult.dispatchUpdatesTo(projectsAdapter);
-                if (projectsSearchView != null)
-                    projectsAdapter.filterData(projectsSearchView.getQuery().toString());
-            });
+    /**
+     * Shows loaded projects, unless a newer refresh got started.
+     *
+     * @param isComplete If all projects have been loaded
+     * @return If loading should continue
+     */
+    private boolean showProjects(int generation, List<HashMap<String, Object>> loadedProjects, boolean isComplete) {
+        Activity activity = getActivity();
+        if (generation != refreshGeneration || activity == null) return false;
+
+        activity.runOnUiThread(() -> {
+            if (generation != refreshGeneration || binding == null) return;
+
+            if (isComplete && binding.swipeRefresh.isRefreshing()) binding.swipeRefresh.setRefreshing(false);
+            if (binding.loadingContainer.getVisibility() == View.VISIBLE) {
+                binding.loadingContainer.setVisibility(View.GONE);
+                binding.myprojects.setVisibility(View.VISIBLE);
+            }
+            projectsList.clear();
+            projectsList.addAll(loadedProjects);
+            projectsAdapter.filterData(getSearchQuery());
         });
+        return true;
+    }
+
+    private String getSearchQuery() {
+        return projectsSearchView != null ? projectsSearchView.getQuery().toString() : "";
     }
 
     private void addProject(String sc_id) {
         executorService.execute(() -> {
             HashMap<String, Object> newProject = lC.b(sc_id);
-            if (newProject != null) {
-                requireActivity().runOnUiThread(() -> {
+            Activity activity = getActivity();
+            if (newProject != null && activity != null) {
+                activity.runOnUiThread(() -> {
                     projectsList.add(0, newProject);
-                    projectsAdapter.notifyDataSetChanged();
-                    binding.myprojects.scrollToPosition(0);
+                    projectsAdapter.filterData(getSearchQuery(), () -> {
+                        if (binding != null) binding.myprojects.scrollToPosition(0);
+                    });
                 });
             }
         });
@@ -256,12 +298,17 @@ public class ProjectsFragment extends DA {
     private void updateProject(String sc_id) {
         executorService.execute(() -> {
             HashMap<String, Object> updatedProject = lC.b(sc_id);
-            if (updatedProject != null) {
-                int index = IntStream.range(0, projectsList.size()).filter(i -> projectsList.get(i).get("sc_id").equals(sc_id)).findFirst().orElse(-1);
-                if (index != -1) {
-                    projectsList.set(index, updatedProject);
-                    requireActivity().runOnUiThread(() -> projectsAdapter.notifyDataSetChanged());
-                }
+            Activity activity = getActivity();
+            if (updatedProject != null && activity != null) {
+                activity.runOnUiThread(() -> {
+                    for (int i = 0; i < projectsList.size(); i++) {
+                        if (sc_id.equals(projectsList.get(i).get("sc_id"))) {
+                            projectsList.set(i, updatedProject);
+                            projectsAdapter.filterData(getSearchQuery());
+                            break;
+                        }
+                    }
+                });
             }
         });
     }
@@ -310,38 +357,4 @@ public class ProjectsFragment extends DA {
         dialog.setNegativeButton("Cancel", null);
         dialog.show();
     }
-
-    private static class ProjectDiffCallback extends DiffUtil.Callback {
-        private final List<HashMap<String, Object>> oldList;
-        private final List<HashMap<String, Object>> newList;
-
-        public ProjectDiffCallback(List<HashMap<String, Object>> oldList, List<HashMap<String, Object>> newList) {
-            this.oldList = oldList;
-            this.newList = newList;
-        }
-
-        @Override
-        public int getOldListSize() {
-            return oldList.size();
-        }
-
-        @Override
-        public int getNewListSize() {
-            return newList.size();
-        }
-
-        @Override
-        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-            String oldId = (String) oldList.get(oldItemPosition).get("sc_id");
-            String newId = (String) newList.get(newItemPosition).get("sc_id");
-            return oldId.equals(newId);
-        }
-
-        @Override
-        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-            HashMap<String, Object> oldItem = oldList.get(oldItemPosition);
-            HashMap<String, Object> newItem = newList.get(newItemPosition);
-            return oldItem.equals(newItem);
-        }
-    }
 }
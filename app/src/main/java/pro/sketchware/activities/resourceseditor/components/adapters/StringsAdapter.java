@@ -1,8 +1,6 @@
 package pro.sketchware.activities.resourceseditor.components.adapters;
 
 import static com.besome.sketch.design.DesignActivity.sc_id;
-import static com.besome.sketch.editor.LogicEditorActivity.getAllJavaFileNames;
-import static com.besome.sketch.editor.LogicEditorActivity.getAllXmlFileNames;
 import static pro.sketchware.utility.UI.animateLayoutChanges;
 
 import android.text.Editable;
@@ -15,18 +13,14 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.besome.sketch.beans.BlockBean;
-import com.besome.sketch.beans.ViewBean;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 
-import a.a.a.eC;
-import a.a.a.jC;
 import mod.hey.studios.util.Helper;
+import mod.jbk.editor.usage.ProjectUsageIndex;
 import pro.sketchware.R;
 import pro.sketchware.activities.resourceseditor.ResourcesEditorActivity;
 import pro.sketchware.databinding.PalletCustomviewBinding;
@@ -173,33 +167,6 @@ public class StringsAdapter extends RecyclerView.Adapter<StringsAdapter.ViewHold
             return false;
         }
 
-        String projectScId = sc_id;
-        eC projectDataManager = jC.a(projectScId);
-
-        return isStringUsedInJavaFiles(projectScId, projectDataManager, key) || isStringUsedInXmlFiles(projectScId, projectDataManager, key);
-    }
-
-    private boolean isStringUsedInJavaFiles(String projectScId, eC projectDataManager, String key) {
-        for (String javaFileName : getAllJavaFileNames(projectScId)) {
-            for (Map.Entry<String, ArrayList<BlockBean>> entry : projectDataManager.b(javaFileName).entrySet()) {
-                for (BlockBean block : entry.getValue()) {
-                    if ((block.opCode.equals("getResStr") && block.spec.equals(key)) || (block.opCode.equals("getResString") && block.parameters.get(0).equals("R.string." + key))) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
-    }
-
-    private boolean isStringUsedInXmlFiles(String projectScId, eC projectDataManager, String key) {
-        for (String xmlFileName : getAllXmlFileNames(projectScId)) {
-            for (ViewBean view : projectDataManager.d(xmlFileName)) {
-                if (view.text.text.equals("@string/" + key) || view.text.hint.equals("@string/" + key)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return ProjectUsageIndex.get(sc_id).isUsed(ProjectUsageIndex.Kind.STRING_RESOURCE, key);
     }
 }
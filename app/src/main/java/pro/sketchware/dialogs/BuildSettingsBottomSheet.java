@@ -10,22 +10,32 @@ import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_11;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_1_7;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_1_8;
 import static mod.hey.studios.build.BuildSettings.SETTING_JAVA_VERSION_1_9;
+import static mod.hey.studios.build.BuildSettings.SETTING_KEEP_BUILD_OUTPUTS;
 import static mod.hey.studios.build.BuildSettings.SETTING_NO_HTTP_LEGACY;
 import static mod.hey.studios.build.BuildSettings.SETTING_NO_WARNINGS;
+import static mod.hey.studios.build.BuildSettings.SETTING_RESOURCE_COMPILE_THREADS;
 
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
+import android.widget.HorizontalScrollView;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 
 import com.google.android.material.bottomsheet.BottomSheetDialogFragment;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+
+import java.util.List;
+import java.util.Locale;
 
 import mod.hey.studios.build.BuildSettings;
+import mod.jbk.build.BuildTraceHistory;
 import pro.sketchware.databinding.ProjectConfigLayoutBinding;
 import pro.sketchware.utility.SketchwareUtil;
 
@@ -40,6 +50,8 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
     private static final int VIEW_NO_WARNINGS = totalViews++;
     private static final int VIEW_NO_HTTP_LEGACY = totalViews++;
     private static final int VIEW_ENABLE_LOGCAT = totalViews++;
+    private static final int VIEW_KEEP_BUILD_OUTPUTS = totalViews++;
+    private static final int VIEW_RESOURCE_COMPILE_THREADS = totalViews++;
     private View[] views;
 
     private ProjectConfigLayoutBinding binding;
@@ -87,9 +99,12 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         binding.noWarnings.setOnClickListener(v -> binding.cbNoWarnings.performClick());
         binding.noHttpLegacy.setOnClickListener(v -> binding.cbNoHttpLegacy.performClick());
         binding.enableLogcat.setOnClickListener(v -> binding.cbEnableLogcat.performClick());
+        binding.keepBuildOutputs.setOnClickListener(v -> binding.cbKeepBuildOutputs.performClick());
+        binding.buildHistory.setOnClickListener(v -> showBuildHistory());
 
         binding.tilAndroidJar.getEditText().setText(projectSettings.getValue(SETTING_ANDROID_JAR_PATH, ""));
         binding.tilClasspath.getEditText().setText(projectSettings.getValue(SETTING_CLASSPATH, ""));
+        binding.tilResourceCompileThreads.getEditText().setText(projectSettings.getValue(SETTING_RESOURCE_COMPILE_THREADS, ""));
 
         setRadioGroupOptions(binding.rgDexer, new String[]{"Dx", "D8"}, SETTING_DEXER, "Dx");
         setRadioGroupOptions(binding.rgJavaVersion, getAvailableJavaVersions(), SETTING_JAVA_VERSION, "1.7");
@@ -97,6 +112,7 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
         setCheckboxValue(binding.cbNoWarnings, SETTING_NO_WARNINGS, true);
         setCheckboxValue(binding.cbNoHttpLegacy, SETTING_NO_HTTP_LEGACY, false);
         setCheckboxValue(binding.cbEnableLogcat, SETTING_ENABLE_LOGCAT, true);
+        setCheckboxValue(binding.cbKeepBuildOutputs, SETTING_KEEP_BUILD_OUTPUTS, true);
 
         binding.btnCancel.setOnClickListener(v -> dismiss());
         binding.btnSave.setOnClickListener(v -> {
@@ -114,19 +130,100 @@ public class BuildSettingsBottomSheet extends BottomSheetDialogFragment {
     private void initializeViews() {
         binding.tilAndroidJar.getEditText().setTag(SETTING_ANDROID_JAR_PATH);
         binding.tilClasspath.getEditText().setTag(SETTING_CLASSPATH);
+        binding.tilResourceCompileThreads.getEditText().setTag(SETTING_RESOURCE_COMPILE_THREADS);
         binding.rgDexer.setTag(SETTING_DEXER);
         binding.rgJavaVersion.setTag(SETTING_JAVA_VERSION);
         binding.cbNoWarnings.setTag(SETTING_NO_WARNINGS);
         binding.cbNoHttpLegacy.setTag(SETTING_NO_HTTP_LEGACY);
         binding.cbEnableLogcat.setTag(SETTING_ENABLE_LOGCAT);
+        binding.cbKeepBuildOutputs.setTag(SETTING_KEEP_BUILD_OUTPUTS);
 
         views[VIEW_ANDROIR_JAR_PATH] = binding.tilAndroidJar.getEditText();
         views[VIEW_CLASS_PATH] = binding.tilClasspath.getEditText();
         views[VIEW_DEXER] = binding.rgDexer;
         views[VIEW_ENABLE_LOGCAT] = binding.cbEnableLogcat;
+        views[VIEW_KEEP_BUILD_OUTPUTS] = binding.cbKeepBuildOutputs;
         views[VIEW_JAVA_VERSION] = binding.rgJavaVersion;
         views[VIEW_NO_HTTP_LEGACY] = binding.cbNoHttpLegacy;
         views[VIEW_NO_WARNINGS] = binding.cbNoWarnings;
+        views[VIEW_RESOURCE_COMPILE_THREADS] = binding.tilResourceCompileThreads.getEditText();
+    }
+
+    /**
+     * Shows a table of how long each build phase took in the last builds, oldest build first,
+     * with phases that got more than 20% slower than their average marked. Exports are marked with E.
+     */
+    private void showBuildHistory() {
+        BuildTraceHistory history = new BuildTraceHistory(projectSettings.sc_id);
+        List<BuildTraceHistory.Entry> entries = history.getEntries();
+        if (entries.isEmpty()) {
+            SketchwareUtil.toast("No builds recorded yet");
+            return;
+        }
+
+        int nameWidth = "Phase (ms)".length();
+        for (String phase : history.getPhaseNames()) {
+            nameWidth = Math.max(nameWidth, phase.length());
+        }
+
+        StringBuilder table = new StringBuilder(String.format(Locale.US, "%-" + nameWidth + "s", "Phase (ms)"));
+        for (int i = 0; i < entries.size(); i++) {
+            table.append(String.format(Locale.US, " %7s", "#" + (i + 1) + (entries.get(i).export ? "E" : "")));
+        }
+        table.append(String.format(Locale.US, " %7s\n", "Avg"));
+
+        for (String phase : history.getPhaseNames()) {
+            long[] durations = new long[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                Long duration = entries.get(i).phases == null ? null : entries.get(i).phases.get(phase);
+                durations[i] = duration == null ? -1 : duration;
+            }
+            appendBuildHistoryRow(table, phase, nameWidth, durations);
+        }
+        long[] totals = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            totals[i] = entries.get(i).totalMillis;
+        }
+        appendBuildHistoryRow(table, "Total", nameWidth, totals);
+
+        TextView tableView = new TextView(requireContext());
+        tableView.setTypeface(Typeface.MONOSPACE);
+        tableView.setTextIsSelectable(true);
+        tableView.setText(table);
+        int padding = (int) (24 * getResources().getDisplayMetrics().density);
+        tableView.setPadding(padding, padding / 2, padding, 0);
+        HorizontalScrollView scrollView = new HorizontalScrollView(requireContext());
+        scrollView.addView(tableView);
+
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle("Build timing history")
+                .setView(scrollView)
+                .setPositiveButton("Dismiss", null)
+                .show();
+    }
+
+    /**
+     * @param durations Duration of the phase per build, or <code>-1</code> if it didn't run
+     */
+    private static void appendBuildHistoryRow(StringBuilder table, String name, int nameWidth, long[] durations) {
+        table.append(String.format(Locale.US, "%-" + nameWidth + "s", name));
+        long sum = 0;
+        int count = 0;
+        for (long duration : durations) {
+            table.append(duration < 0 ? String.format(Locale.US, " %7s", "-") : String.format(Locale.US, " %7d", duration));
+            if (duration >= 0) {
+                sum += duration;
+                count++;
+            }
+        }
+        long average = count == 0 ? 0 : sum / count;
+        table.append(String.format(Locale.US, " %7d", average));
+
+        long latest = durations[durations.length - 1];
+        if (count > 1 && latest > 0 && latest > (sum - latest) / (count - 1) * 1.2) {
+            table.append(" ▲");
+        }
+        table.append('\n');
     }
 
     private void setRadioGroupOptions(RadioGroup radioGroup, String[] options, String key, String defaultValue) {